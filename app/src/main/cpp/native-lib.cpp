@@ -1,27 +1,927 @@
 #include <jni.h>
+#include <cctype>
+#include <cmath>
+#include <cstdint>
+#include <algorithm>
+#include <atomic>
+#include <chrono>
+#include <ctime>
+#include <condition_variable>
+#include <cstring>
+#include <functional>
+#include <memory>
+#include <mutex>
+#include <shared_mutex>
 #include <string>
+#include <unordered_map>
 #include <vector>
+#include <sys/stat.h>
 #include <android/log.h>
+#include <android/trace.h>
 #include "sqlite3.h"
 
 #define LOG_TAG "NativeLib"
 #define LOGD(...) __android_log_print(ANDROID_LOG_DEBUG, LOG_TAG, __VA_ARGS__)
 #define LOGE(...) __android_log_print(ANDROID_LOG_ERROR, LOG_TAG, __VA_ARGS__)
 
-static sqlite3 *db = nullptr;
-static std::vector<std::string> logs;
+static int64_t steadyMicros() {
+    using namespace std::chrono;
+    return duration_cast<microseconds>(steady_clock::now().time_since_epoch()).count();
+}
 
-static std::string executeWithLog(const std::string &sql) {
-    logs.push_back(sql);
-    LOGD("Executing SQL: %s", sql.c_str());
-    if (!db) {
-        LOGE("Database not initialized");
-        return "Database not initialized";
+static int64_t wallMillis() {
+    using namespace std::chrono;
+    return duration_cast<milliseconds>(system_clock::now().time_since_epoch()).count();
+}
+
+// SQL trace shown in the logs dialog: the last CAPACITY statements with kind, start time,
+// duration, rows and result code. Older entries are overwritten, so memory stays bounded
+// however long the session runs. Appended to from every connection.
+class SqlTrace {
+public:
+    static const size_t CAPACITY = 256;
+    // Longer SQL is truncated in the trace; the full text is in logcat
+    static const size_t MAX_SQL_LENGTH = 160;
+
+    struct Entry {
+        const char *kind;
+        int64_t startMillis;
+        int64_t durationMicros;
+        int rows;
+        int errorCode;
+        std::string sql;
+        std::string error;
+    };
+
+    SqlTrace() { entries_.resize(CAPACITY); }
+
+    void record(Entry entry) {
+        if (entry.sql.size() > MAX_SQL_LENGTH) entry.sql.resize(MAX_SQL_LENGTH);
+        std::lock_guard<std::mutex> lock(mutex_);
+        entries_[next_ % CAPACITY] = std::move(entry);
+        next_++;
+    }
+
+    // Oldest first, one line per statement
+    std::vector<std::string> format() {
+        std::lock_guard<std::mutex> lock(mutex_);
+        std::vector<std::string> lines;
+        size_t first = next_ > CAPACITY ? next_ - CAPACITY : 0;
+        if (first > 0) {
+            lines.push_back("... " + std::to_string(first) + " older statements dropped");
+        }
+        for (size_t i = first; i < next_; i++) {
+            lines.push_back(formatEntry(entries_[i % CAPACITY]));
+        }
+        return lines;
+    }
+
+    void clear() {
+        std::lock_guard<std::mutex> lock(mutex_);
+        for (auto &entry : entries_) entry = Entry();
+        next_ = 0;
+    }
+
+private:
+    static std::string formatEntry(const Entry &entry) {
+        time_t seconds = entry.startMillis / 1000;
+        struct tm local{};
+        localtime_r(&seconds, &local);
+        char line[96];
+        int n = strftime(line, sizeof(line), "%H:%M:%S", &local);
+        n += snprintf(line + n, sizeof(line) - n, ".%03d %s %.2f ms", (int) (entry.startMillis % 1000),
+                      entry.kind, entry.durationMicros / 1000.0);
+        if (entry.rows >= 0 && n < (int) sizeof(line)) {
+            snprintf(line + n, sizeof(line) - n, " rows=%d", entry.rows);
+        }
+        std::string text = line;
+        if (entry.errorCode != SQLITE_OK) {
+            text += " rc=" + std::to_string(entry.errorCode) + " " + entry.error;
+        }
+        return text + ": " + entry.sql;
+    }
+
+    std::mutex mutex_;
+    std::vector<Entry> entries_;
+    size_t next_ = 0;
+};
+
+static SqlTrace sqlTrace;
+
+// Times one statement from construction to destruction and records it in sqlTrace.
+class StatementTrace {
+public:
+    StatementTrace(const char *kind, const std::string &sql) : startMicros_(steadyMicros()) {
+        entry_.kind = kind;
+        entry_.startMillis = wallMillis();
+        entry_.rows = -1;
+        entry_.errorCode = SQLITE_OK;
+        entry_.sql = sql;
+    }
+    StatementTrace(const StatementTrace &) = delete;
+    StatementTrace &operator=(const StatementTrace &) = delete;
+    ~StatementTrace() {
+        entry_.durationMicros = steadyMicros() - startMicros_;
+        sqlTrace.record(std::move(entry_));
+    }
+
+    void setRows(int rows) { entry_.rows = rows; }
+
+    void fail(int errorCode, const std::string &error) {
+        entry_.errorCode = errorCode;
+        entry_.error = error;
+    }
+
+private:
+    int64_t startMicros_;
+    SqlTrace::Entry entry_;
+};
+
+// Latency of every JNI entry point, including the wait for a connection.
+enum Operation {
+    OP_INIT_DATABASE,
+    OP_ADD_SHOP,
+    OP_GET_SHOPS,
+    OP_DELETE_ALL,
+    OP_EXECUTE_SQL,
+    OP_ADD_PRODUCT,
+    OP_GET_PRODUCTS,
+    OP_GET_PRODUCTS_PAGE,
+    OP_SEARCH_ALL_SHOPS,
+    OP_UPDATE_PRODUCT,
+    OP_DELETE_PRODUCTS,
+    OP_EXPLAIN_QUERY_PLANS,
+    OP_ADD_PRODUCTS,
+    OP_TRANSACTION,
+    OP_SET_BOUGHT,
+    OP_EXPORT_ROWS,
+    OP_MOVE_PRODUCTS,
+    OP_DELETE_SHOPS,
+    OP_GET_SHOPS_BY_ID,
+    OP_GET_PRODUCTS_BY_ID,
+    OP_MAINTENANCE,
+    OP_EXPORT_CHANGES,
+    OP_APPLY_CHANGES,
+    OP_SYNC_STATE,
+    OP_COUNT
+};
+
+static const char *const OPERATION_NAMES[OP_COUNT] = {
+        "initDatabase",
+        "addShop",
+        "getShops",
+        "deleteAll",
+        "executeSql",
+        "addProduct",
+        "getProducts",
+        "getProductsPage",
+        "searchAllShops",
+        "updateProduct",
+        "deleteProducts",
+        "explainQueryPlans",
+        "addProducts",
+        "transaction",
+        "setBought",
+        "exportRows",
+        "moveProducts",
+        "deleteShops",
+        "getShopsById",
+        "getProductsById",
+        "maintenance",
+        "exportChanges",
+        "applyChanges",
+        "syncState",
+};
+
+// Log-linear histogram of microseconds: exact below 16 us, then 8 buckets per power of two,
+// so a reported percentile is at most 12.5% above the true value. Lock-free to record.
+class LatencyHistogram {
+public:
+    static const int LINEAR = 16;
+    static const int SUB_BUCKETS = 8;
+    static const int MAX_EXPONENT = 40; // ~12 days
+    static const int BUCKETS = LINEAR + (MAX_EXPONENT - 3) * SUB_BUCKETS;
+
+    void record(int64_t micros) {
+        if (micros < 0) micros = 0;
+        buckets_[bucketOf(micros)]++;
+        count_++;
+        int64_t max = max_;
+        while (micros > max && !max_.compare_exchange_weak(max, micros)) {}
+    }
+
+    int64_t count() const { return count_; }
+    int64_t max() const { return max_; }
+
+    // Upper bound of the bucket holding the given quantile (0..1), capped at the max; 0 when empty
+    int64_t percentile(double quantile) const {
+        int64_t total = count_;
+        if (total == 0) return 0;
+        auto rank = (int64_t) (quantile * total + 0.5);
+        if (rank < 1) rank = 1;
+        int64_t seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets_[i];
+            if (seen >= rank) return std::min(upperBound(i), (int64_t) max_);
+        }
+        return max_;
+    }
+
+    void reset() {
+        for (auto &bucket : buckets_) bucket = 0;
+        count_ = 0;
+        max_ = 0;
+    }
+
+private:
+    static int bucketOf(int64_t v) {
+        if (v < LINEAR) return (int) v;
+        int exponent = 63 - __builtin_clzll((uint64_t) v);
+        if (exponent > MAX_EXPONENT) return BUCKETS - 1;
+        int sub = (int) (v >> (exponent - 3)) & (SUB_BUCKETS - 1);
+        int index = LINEAR + (exponent - 4) * SUB_BUCKETS + sub;
+        return index < BUCKETS ? index : BUCKETS - 1;
+    }
+
+    static int64_t upperBound(int index) {
+        if (index < LINEAR) return index;
+        int k = index - LINEAR;
+        int exponent = k / SUB_BUCKETS + 4;
+        int64_t width = int64_t(1) << (exponent - 3);
+        return (SUB_BUCKETS + k % SUB_BUCKETS) * width + width - 1;
+    }
+
+    std::atomic<int64_t> buckets_[BUCKETS] = {};
+    std::atomic<int64_t> count_{0};
+    std::atomic<int64_t> max_{0};
+};
+
+static LatencyHistogram latencies[OP_COUNT];
+
+// RAII section in systrace/Perfetto traces, e.g. the steps of opening the database at startup
+class TraceSection {
+public:
+    explicit TraceSection(const char *name) { ATrace_beginSection(name); }
+    ~TraceSection() { ATrace_endSection(); }
+    TraceSection(const TraceSection &) = delete;
+    TraceSection &operator=(const TraceSection &) = delete;
+};
+
+// Records the enclosing JNI call's latency in its operation's histogram.
+class OperationTimer {
+public:
+    explicit OperationTimer(Operation op) : op_(op), startMicros_(steadyMicros()) {}
+    OperationTimer(const OperationTimer &) = delete;
+    OperationTimer &operator=(const OperationTimer &) = delete;
+    ~OperationTimer() { latencies[op_].record(steadyMicros() - startMicros_); }
+
+private:
+    Operation op_;
+    int64_t startMicros_;
+};
+
+// Rows are handed to Java as a packed binary stream written into a direct ByteBuffer
+// (native byte order): int32 row count, then per row the fixed-width columns followed
+// by text columns as int32 byte length (-1 for NULL) + UTF-8 bytes. Decoded by RowBuffer.java.
+static const jint ROWS_ERROR = INT32_MIN;
+// Returned instead of rows by a query stopped through cancelQuery.
+static const jint ROWS_CANCELLED = INT32_MIN + 1;
+
+struct RowWriter {
+    std::vector<uint8_t> bytes;
+    int32_t count = 0;
+
+    RowWriter() { bytes.resize(sizeof(int32_t)); }
+
+    void putInt(int32_t v) { append(&v, sizeof(v)); }
+    void putLong(int64_t v) { append(&v, sizeof(v)); }
+    void putDouble(double v) { append(&v, sizeof(v)); }
+    void putByte(uint8_t v) { bytes.push_back(v); }
+    void putText(sqlite3_stmt *stmt, int col) {
+        if (sqlite3_column_type(stmt, col) == SQLITE_NULL) {
+            putInt(-1);
+            return;
+        }
+        const void *text = sqlite3_column_text(stmt, col);
+        int32_t len = sqlite3_column_bytes(stmt, col);
+        putInt(len);
+        append(text, len);
+    }
+    void endRow() { count++; }
+
+    // Returns bytes written, or -(bytes needed) when the buffer is too small.
+    jint copyTo(JNIEnv *env, jobject buffer) {
+        memcpy(bytes.data(), &count, sizeof(count));
+        auto *dst = static_cast<uint8_t *>(env->GetDirectBufferAddress(buffer));
+        jlong capacity = env->GetDirectBufferCapacity(buffer);
+        if (!dst || capacity < (jlong) bytes.size()) {
+            return -(jint) bytes.size();
+        }
+        memcpy(dst, bytes.data(), bytes.size());
+        return (jint) bytes.size();
+    }
+
+private:
+    void append(const void *p, size_t n) {
+        const auto *b = static_cast<const uint8_t *>(p);
+        bytes.insert(bytes.end(), b, b + n);
+    }
+};
+
+// Reads rows that Java packed in the same layout (ProductBatch.java), without the leading
+// count. Text is returned as pointers into the buffer, valid for the duration of the call.
+struct RowReader {
+    const uint8_t *pos;
+    const uint8_t *end;
+
+    RowReader(const uint8_t *data, size_t size) : pos(data), end(data + size) {}
+
+    bool getInt(int32_t *v) { return take(v, sizeof(*v)); }
+    bool getLong(int64_t *v) { return take(v, sizeof(*v)); }
+    bool getDouble(double *v) { return take(v, sizeof(*v)); }
+    bool getByte(uint8_t *v) { return take(v, sizeof(*v)); }
+    // *text is nullptr for NULL
+    bool getText(const char **text, int32_t *len) {
+        if (!getInt(len)) return false;
+        if (*len < 0) {
+            *text = nullptr;
+            return true;
+        }
+        if (end - pos < *len) return false;
+        *text = reinterpret_cast<const char *>(pos);
+        pos += *len;
+        return true;
+    }
+
+private:
+    bool take(void *v, size_t n) {
+        if ((size_t) (end - pos) < n) return false;
+        memcpy(v, pos, n);
+        pos += n;
+        return true;
+    }
+};
+
+// Prepared statements are kept per SQL text and reused via sqlite3_reset/sqlite3_clear_bindings.
+// The set of statements is bounded: fixed INSERT/UPDATE/DELETE/SELECT texts plus the
+// getProducts/getProductsPage variants (allowed sort orders x search x cursor mode).
+// Each connection has its own cache; only the counters are read from other threads.
+struct StatementCache {
+    std::unordered_map<std::string, sqlite3_stmt *> statements;
+    std::atomic<int64_t> hits{0};
+    std::atomic<int64_t> misses{0};
+    std::atomic<int64_t> size{0};
+
+    int prepare(sqlite3 *db, const std::string &sql, sqlite3_stmt **stmt) {
+        auto it = statements.find(sql);
+        if (it != statements.end()) {
+            hits++;
+            *stmt = it->second;
+            return SQLITE_OK;
+        }
+        misses++;
+        int rc = sqlite3_prepare_v3(db, sql.c_str(), -1, SQLITE_PREPARE_PERSISTENT, stmt, nullptr);
+        if (rc == SQLITE_OK) {
+            statements.emplace(sql, *stmt);
+            size++;
+        }
+        return rc;
+    }
+
+    static void release(sqlite3_stmt *stmt) {
+        sqlite3_reset(stmt);
+        sqlite3_clear_bindings(stmt);
+    }
+
+    void clear() {
+        for (auto &entry : statements) {
+            sqlite3_finalize(entry.second);
+        }
+        statements.clear();
+        size = 0;
+    }
+};
+
+struct Connection {
+    sqlite3 *db = nullptr;
+    StatementCache cache;
+    // Token of the cancellable query running on this reader, 0 if none; guarded by
+    // Session::cancelMutex_. cancelled is polled by the progress handler.
+    jlong queryToken = 0;
+    std::atomic<bool> cancelled{false};
+
+    int prepare(const std::string &sql, sqlite3_stmt **stmt) { return cache.prepare(db, sql, stmt); }
+
+    void close() {
+        cache.clear();
+        if (db) sqlite3_close(db);
+        db = nullptr;
+    }
+};
+
+// Change events handed to Java by takeChanges, mirrored in DatabaseChange.java. A row with
+// CHANGE_ALL stands for every row of its table.
+enum ChangeTable {
+    CHANGE_SHOPS = 0,
+    CHANGE_PRODUCTS = 1,
+    CHANGE_TABLE_COUNT
+};
+
+enum ChangeOp {
+    CHANGE_ALL = 0,
+    CHANGE_INSERT = 1,
+    CHANGE_UPDATE = 2,
+    CHANGE_DELETE = 3,
+};
+
+// Rows changed through the writer connection. sqlite3_update_hook collects them per
+// transaction, the commit hook moves them to the committed set and the rollback hook drops
+// them; takeChanges drains the committed set after each write. Rows of shop_totals are
+// reported as updates of their shop, and changes made by triggers and cascades are included.
+// Only used while the writer is leased.
+class ChangeLog {
+public:
+    // Rows remembered per table; past that the whole table is reported as changed
+    static const size_t MAX_ROWS = 512;
+
+    void install(sqlite3 *db) {
+        pending_.clear();
+        committed_.clear();
+        sqlite3_update_hook(db, onUpdate, this);
+        sqlite3_commit_hook(db, onCommit, this);
+        sqlite3_rollback_hook(db, onRollback, this);
+    }
+
+    // Writes the committed changes as rows of int table, int op, long rowid and forgets
+    // them, unless they do not fit; returns what RowWriter::copyTo returns.
+    jint drain(JNIEnv *env, jobject out) {
+        RowWriter rows;
+        committed_.write(rows);
+        jint written = rows.copyTo(env, out);
+        if (written >= 0) committed_.clear();
+        return written;
+    }
+
+private:
+    struct Changes {
+        std::unordered_map<sqlite3_int64, int> rows[CHANGE_TABLE_COUNT];
+        bool all[CHANGE_TABLE_COUNT] = {};
+
+        void add(int table, int op, sqlite3_int64 rowid) {
+            if (all[table]) return;
+            auto inserted = rows[table].emplace(rowid, op);
+            // An update says less than an earlier insert or delete of the row, e.g. the
+            // shop_totals update cascading from a deleted shop
+            if (!inserted.second && op != CHANGE_UPDATE) {
+                inserted.first->second = op;
+            }
+            if (rows[table].size() > MAX_ROWS) {
+                all[table] = true;
+                rows[table].clear();
+            }
+        }
+
+        void addAll(const Changes &other) {
+            for (int table = 0; table < CHANGE_TABLE_COUNT; table++) {
+                if (other.all[table]) {
+                    all[table] = true;
+                    rows[table].clear();
+                }
+                for (const auto &row : other.rows[table]) add(table, row.second, row.first);
+            }
+        }
+
+        void clear() {
+            for (int table = 0; table < CHANGE_TABLE_COUNT; table++) {
+                rows[table].clear();
+                all[table] = false;
+            }
+        }
+
+        void write(RowWriter &out) const {
+            for (int table = 0; table < CHANGE_TABLE_COUNT; table++) {
+                if (all[table]) {
+                    out.putInt(table);
+                    out.putInt(CHANGE_ALL);
+                    out.putLong(0);
+                    out.endRow();
+                }
+                for (const auto &row : rows[table]) {
+                    out.putInt(table);
+                    out.putInt(row.second);
+                    out.putLong(row.first);
+                    out.endRow();
+                }
+            }
+        }
+    };
+
+    static void onUpdate(void *log, int op, const char *, const char *table, sqlite3_int64 rowid) {
+        int change = op == SQLITE_INSERT ? CHANGE_INSERT : op == SQLITE_DELETE ? CHANGE_DELETE : CHANGE_UPDATE;
+        Changes &pending = static_cast<ChangeLog *>(log)->pending_;
+        if (strcmp(table, "products") == 0) {
+            pending.add(CHANGE_PRODUCTS, change, rowid);
+        } else if (strcmp(table, "shops") == 0) {
+            pending.add(CHANGE_SHOPS, change, rowid);
+        } else if (strcmp(table, "shop_totals") == 0) {
+            pending.add(CHANGE_SHOPS, CHANGE_UPDATE, rowid);
+        }
+    }
+
+    static int onCommit(void *log) {
+        auto *self = static_cast<ChangeLog *>(log);
+        self->committed_.addAll(self->pending_);
+        self->pending_.clear();
+        return 0;
+    }
+
+    static void onRollback(void *log) {
+        static_cast<ChangeLog *>(log)->pending_.clear();
+    }
+
+    Changes pending_;
+    Changes committed_;
+};
+
+static std::string executeWithLog(sqlite3 *db, const std::string &sql);
+static std::string migrate(sqlite3 *db);
+
+// VM instructions between checks for cancellation, a few microseconds of work
+static const int PROGRESS_INTERVAL = 1000;
+
+// Progress handler of the readers: a non-zero result makes the current step return SQLITE_INTERRUPT.
+static int checkCancelled(void *conn) {
+    return static_cast<Connection *>(conn)->cancelled.load(std::memory_order_relaxed) ? 1 : 0;
+}
+
+// Storage settings applied on open, indexed by the profile passed to initDatabase and
+// mirrored in StorageProfile.java. Caches are per connection, in KiB. page_size and
+// auto_vacuum only shape a new database: an existing one keeps its page size (WAL mode
+// cannot change it) and switches to incremental vacuum on its first maintenance run.
+struct StorageProfile {
+    const char *name;
+    int pageSize;
+    int writerCacheKiB;
+    int readerCacheKiB;
+    sqlite3_int64 mmapSize;
+};
+
+static const StorageProfile STORAGE_PROFILES[] = {
+        // Low-RAM devices: SQLite's default cache, no memory mapping
+        {"compact", 4096, 2000, 1000, 0},
+        // The writer's cache holds the FTS index pages a bulk insert touches; with the
+        // default 2 MB importing 200k products is about 7x slower
+        {"balanced", 4096, 20000, 4000, 64LL << 20},
+        {"fast", 8192, 32000, 8000, 256LL << 20},
+};
+static const int STORAGE_PROFILE_COUNT = sizeof(STORAGE_PROFILES) / sizeof(STORAGE_PROFILES[0]);
+
+// Bytes the WAL is truncated to after a checkpoint, so one large write does not keep its
+// size on disk
+static const int JOURNAL_SIZE_LIMIT = 4 << 20;
+
+static std::string applyCacheSettings(sqlite3 *db, int cacheKiB, sqlite3_int64 mmapSize) {
+    std::string err = executeWithLog(db, "PRAGMA cache_size = -" + std::to_string(cacheKiB) + ";");
+    if (err.empty()) err = executeWithLog(db, "PRAGMA mmap_size = " + std::to_string(mmapSize) + ";");
+    return err;
+}
+
+// The open database: one writer connection serialized by a mutex and a small pool of
+// read-only connections. In WAL mode readers see the last committed state and neither
+// block nor are blocked by the writer. Every JNI call holds a Lease for its duration;
+// open/close take the lifecycle lock exclusively and so wait for in-flight calls.
+class Session {
+public:
+    static const int READER_COUNT = 3;
+
+    class Lease {
+    public:
+        Lease() = default;
+        Lease(std::shared_lock<std::shared_mutex> lifecycle, std::unique_lock<std::mutex> writer,
+              Session *session, Connection *conn)
+                : lifecycle_(std::move(lifecycle)), writer_(std::move(writer)), session_(session), conn_(conn) {}
+        Lease(const Lease &) = delete;
+        Lease &operator=(const Lease &) = delete;
+        ~Lease() {
+            if (conn_ && !writer_.owns_lock()) session_->returnReader(conn_);
+        }
+
+        explicit operator bool() const { return conn_ != nullptr; }
+        Connection *operator->() const { return conn_; }
+        Connection *get() const { return conn_; }
+
+    private:
+        std::shared_lock<std::shared_mutex> lifecycle_;
+        std::unique_lock<std::mutex> writer_;
+        Session *session_ = nullptr;
+        Connection *conn_ = nullptr;
+    };
+
+    std::string open(const std::string &path, const StorageProfile &profile) {
+        std::unique_lock<std::shared_mutex> lifecycle(lifecycle_);
+        closeLocked();
+        LOGD("Opening database at: %s (%s storage)", path.c_str(), profile.name);
+        TraceSection openSection("sqlite.open");
+        int rc = sqlite3_open_v2(path.c_str(), &writer_.db,
+                                 SQLITE_OPEN_READWRITE | SQLITE_OPEN_CREATE | SQLITE_OPEN_NOMUTEX, nullptr);
+        if (rc != SQLITE_OK) {
+            std::string error = sqlite3_errmsg(writer_.db);
+            LOGE("Database open error: %s", error.c_str());
+            writer_.close();
+            return error;
+        }
+        // Before WAL mode and the first table, which fix the page size and vacuum mode of a new file
+        std::string err = executeWithLog(writer_.db, "PRAGMA page_size = " + std::to_string(profile.pageSize) + ";");
+        if (err.empty()) err = executeWithLog(writer_.db, "PRAGMA auto_vacuum = INCREMENTAL;");
+        if (err.empty()) err = executeWithLog(writer_.db, "PRAGMA journal_mode = WAL;");
+        if (err.empty()) {
+            err = executeWithLog(writer_.db, "PRAGMA journal_size_limit = " + std::to_string(JOURNAL_SIZE_LIMIT) + ";");
+        }
+        if (err.empty()) err = applyCacheSettings(writer_.db, profile.writerCacheKiB, profile.mmapSize);
+        if (err.empty()) err = executeWithLog(writer_.db, "PRAGMA synchronous = NORMAL;");
+        if (err.empty()) err = executeWithLog(writer_.db, "PRAGMA foreign_keys = ON;");
+        if (err.empty()) {
+            TraceSection migrateSection("sqlite.migrate");
+            err = migrate(writer_.db);
+        }
+        if (!err.empty()) {
+            closeLocked();
+            return err;
+        }
+        // After the migrations, which nobody observes
+        changes_.install(writer_.db);
+        TraceSection readersSection("sqlite.openReaders");
+        for (int i = 0; i < READER_COUNT; i++) {
+            auto reader = std::make_unique<Connection>();
+            rc = sqlite3_open_v2(path.c_str(), &reader->db, SQLITE_OPEN_READONLY | SQLITE_OPEN_NOMUTEX, nullptr);
+            if (rc != SQLITE_OK) {
+                err = sqlite3_errmsg(reader->db);
+                LOGE("Reader open error: %s", err.c_str());
+                reader->close();
+                closeLocked();
+                return err;
+            }
+            err = applyCacheSettings(reader->db, profile.readerCacheKiB, profile.mmapSize);
+            if (!err.empty()) {
+                reader->close();
+                closeLocked();
+                return err;
+            }
+            sqlite3_progress_handler(reader->db, PROGRESS_INTERVAL, checkCancelled, reader.get());
+            idleReaders_.push_back(reader.get());
+            readers_.push_back(std::move(reader));
+        }
+        return "";
+    }
+
+    Lease writer() {
+        std::shared_lock<std::shared_mutex> lifecycle(lifecycle_);
+        if (!writer_.db) return Lease();
+        std::unique_lock<std::mutex> writer(writerMutex_);
+        return Lease(std::move(lifecycle), std::move(writer), this, &writer_);
+    }
+
+    Lease reader() {
+        std::shared_lock<std::shared_mutex> lifecycle(lifecycle_);
+        if (readers_.empty()) return Lease();
+        std::unique_lock<std::mutex> pool(poolMutex_);
+        poolAvailable_.wait(pool, [this] { return !idleReaders_.empty(); });
+        Connection *conn = idleReaders_.back();
+        idleReaders_.pop_back();
+        return Lease(std::move(lifecycle), std::unique_lock<std::mutex>(), this, conn);
+    }
+
+    // Stops the query started with this token: the reader running it is flagged, and the
+    // token is remembered in case the query has not reached a reader yet.
+    void cancel(jlong token) {
+        std::shared_lock<std::shared_mutex> lifecycle(lifecycle_);
+        std::lock_guard<std::mutex> lock(cancelMutex_);
+        recentCancels_[nextCancel_++ % RECENT_CANCELS] = token;
+        for (auto &reader : readers_) {
+            if (reader->queryToken == token) reader->cancelled = true;
+        }
+    }
+
+    void beginQuery(Connection *conn, jlong token) {
+        std::lock_guard<std::mutex> lock(cancelMutex_);
+        conn->queryToken = token;
+        conn->cancelled = std::find(std::begin(recentCancels_), std::end(recentCancels_), token)
+                          != std::end(recentCancels_);
+    }
+
+    void endQuery(Connection *conn) {
+        std::lock_guard<std::mutex> lock(cancelMutex_);
+        conn->queryToken = 0;
+        conn->cancelled = false;
+    }
+
+    // Only while the writer is leased
+    ChangeLog &changes() { return changes_; }
+
+    // hits, misses and cached statements summed over all connections
+    void cacheStats(jlong out[3]) {
+        std::shared_lock<std::shared_mutex> lifecycle(lifecycle_);
+        out[0] = writer_.cache.hits;
+        out[1] = writer_.cache.misses;
+        out[2] = writer_.cache.size;
+        for (auto &reader : readers_) {
+            out[0] += reader->cache.hits;
+            out[1] += reader->cache.misses;
+            out[2] += reader->cache.size;
+        }
+    }
+
+private:
+    void returnReader(Connection *conn) {
+        {
+            std::lock_guard<std::mutex> pool(poolMutex_);
+            idleReaders_.push_back(conn);
+        }
+        poolAvailable_.notify_one();
+    }
+
+    void closeLocked() {
+        if (writer_.db) LOGD("Closing existing database");
+        for (auto &reader : readers_) reader->close();
+        readers_.clear();
+        idleReaders_.clear();
+        writer_.close();
+    }
+
+    std::shared_mutex lifecycle_;
+    std::mutex writerMutex_;
+    Connection writer_;
+    ChangeLog changes_;
+    std::mutex poolMutex_;
+    std::condition_variable poolAvailable_;
+    std::vector<std::unique_ptr<Connection>> readers_;
+    std::vector<Connection *> idleReaders_;
+    // Tokens are never reused, so a short ring is enough to catch a cancel that arrives
+    // between the Java call and beginQuery
+    static const int RECENT_CANCELS = 16;
+    std::mutex cancelMutex_;
+    jlong recentCancels_[RECENT_CANCELS] = {};
+    unsigned nextCancel_ = 0;
+};
+
+static Session session;
+
+static std::atomic<jlong> cancelledQueries{0};
+
+// Makes the query on a reader cancellable by its token while in scope; token 0 opts out.
+class QueryScope {
+public:
+    QueryScope(Connection *conn, jlong token) : conn_(token != 0 ? conn : nullptr) {
+        if (conn_) session.beginQuery(conn_, token);
+    }
+    QueryScope(const QueryScope &) = delete;
+    QueryScope &operator=(const QueryScope &) = delete;
+    ~QueryScope() {
+        if (conn_) session.endQuery(conn_);
+    }
+
+    bool cancelled() const { return conn_ && conn_->cancelled; }
+
+private:
+    Connection *conn_;
+};
+
+// Result of a cancelled query; rows read so far are dropped.
+static jint queryCancelled() {
+    cancelledQueries++;
+    LOGD("Query cancelled");
+    return ROWS_CANCELLED;
+}
+
+struct SortOrder {
+    const char *clause;
+    const char *column;
+    bool descending;
+};
+
+static const SortOrder SORT_ORDERS[] = {
+        {"name ASC", "name", false},
+        {"name DESC", "name", true},
+        {"price ASC", "price", false},
+        {"price DESC", "price", true},
+        {"bought DESC", "bought", true},
+};
+
+// Only the orders offered by ShopActivity are accepted, so the statement cache stays bounded.
+static const SortOrder &sortOrder(const char *sort) {
+    for (const SortOrder &allowed : SORT_ORDERS) {
+        if (sort && strcmp(sort, allowed.clause) == 0) return allowed;
+    }
+    return SORT_ORDERS[0];
+}
+
+// Keyset cursor modes for getProductsPage, mirrored in ProductPager.java.
+enum CursorMode {
+    CURSOR_NONE = 0,
+    CURSOR_AFTER = 1,
+    CURSOR_AFTER_INCLUSIVE = 2,
+    CURSOR_BEFORE = 3,
+};
+
+// Turns free text into an FTS5 query: every whitespace-separated word becomes a quoted
+// prefix term ("мол"* "хле"*), all of which must match. Empty when there is nothing to search.
+static std::string ftsQuery(const std::string &search) {
+    std::string query;
+    size_t i = 0;
+    while (i < search.size()) {
+        while (i < search.size() && isspace((unsigned char) search[i])) i++;
+        std::string term;
+        while (i < search.size() && !isspace((unsigned char) search[i])) {
+            if (search[i] != '"') term += search[i];
+            i++;
+        }
+        if (term.empty()) continue;
+        if (!query.empty()) query += ' ';
+        query += '"' + term + "\"*";
+    }
+    return query;
+}
+
+// Prices are stored as integer minor units (kopecks) so sums are exact; the JNI
+// interface still passes them as doubles in major units.
+static const int PRICE_SCALE = 100;
+
+static int64_t toMinorUnits(double price) {
+    return llround(price * PRICE_SCALE);
+}
+
+static double fromMinorUnits(int64_t minor) {
+    return (double) minor / PRICE_SCALE;
+}
+
+// Totals come from shop_totals, kept up to date by triggers (migration 4)
+#define SHOPS_SELECT \
+        "SELECT s.id, COALESCE(t.item_count, 0), COALESCE(t.bought_count, 0), COALESCE(t.total_price, 0)," \
+        " COALESCE(t.remaining_price, 0), s.name FROM shops s LEFT JOIN shop_totals t ON t.shop_id = s.id"
+static const char *const SHOPS_SQL = SHOPS_SELECT ";";
+static const char *const SHOP_BY_ID_SQL = SHOPS_SELECT " WHERE s.id = ?;";
+static const char *const PRODUCT_BY_ID_SQL =
+        "SELECT id, name, price, bought, description FROM products WHERE id = ? AND shop_id = ?;";
+
+static const char *const SEARCH_FILTER = " AND id IN (SELECT rowid FROM products_fts WHERE products_fts MATCH ?)";
+
+// Search across every shop, best matches first; name hits weigh more than description hits.
+static const char *const SEARCH_ALL_SQL =
+        "SELECT p.id, p.name, p.price, p.bought, p.description, p.shop_id, s.name"
+        " FROM products_fts JOIN products p ON p.id = products_fts.rowid JOIN shops s ON s.id = p.shop_id"
+        " WHERE products_fts MATCH ? ORDER BY bm25(products_fts, 10.0, 1.0) LIMIT ?;";
+
+static std::string productsSql(const SortOrder &order, bool hasSearch) {
+    std::string sql = "SELECT id, name, price, bought, description FROM products WHERE shop_id = ?";
+    if (hasSearch) {
+        sql += SEARCH_FILTER;
     }
+    return sql + " ORDER BY " + order.clause + ";";
+}
+
+// Walking backwards flips both the comparison and the order; Java reverses the page.
+static std::string productsPageSql(const SortOrder &order, bool hasSearch, int cursorMode) {
+    bool descending = order.descending != (cursorMode == CURSOR_BEFORE);
+    std::string column = order.column;
+    std::string sql = "SELECT id, name, price, bought, description FROM products WHERE shop_id = ?";
+    if (hasSearch) {
+        sql += SEARCH_FILTER;
+    }
+    if (cursorMode != CURSOR_NONE) {
+        const char *op = descending ? "<" : ">";
+        sql += " AND (" + column + ", id) " + op + (cursorMode == CURSOR_AFTER_INCLUSIVE ? "=" : "") + " (?, ?)";
+    }
+    const char *direction = descending ? " DESC" : " ASC";
+    return sql + " ORDER BY " + column + direction + ", id" + direction + " LIMIT ?;";
+}
+
+static void writeShopRow(sqlite3_stmt *stmt, RowWriter &rows) {
+    rows.putInt(sqlite3_column_int(stmt, 0));
+    rows.putInt(sqlite3_column_int(stmt, 1));
+    rows.putInt(sqlite3_column_int(stmt, 2));
+    rows.putLong(sqlite3_column_int64(stmt, 3));
+    rows.putLong(sqlite3_column_int64(stmt, 4));
+    rows.putText(stmt, 5);
+    rows.endRow();
+}
+
+static void writeProductRow(sqlite3_stmt *stmt, RowWriter &rows) {
+    rows.putInt(sqlite3_column_int(stmt, 0));
+    rows.putDouble(fromMinorUnits(sqlite3_column_int64(stmt, 2)));
+    rows.putByte(sqlite3_column_int(stmt, 3) ? 1 : 0);
+    rows.putText(stmt, 1);
+    rows.putText(stmt, 4);
+    rows.endRow();
+}
+
+static std::string executeWithLog(sqlite3 *db, const std::string &sql) {
+    StatementTrace trace("exec", sql);
+    LOGD("Executing SQL: %s", sql.c_str());
     char *errMsg = nullptr;
     int rc = sqlite3_exec(db, sql.c_str(), nullptr, nullptr, &errMsg);
     if (rc != SQLITE_OK) {
         std::string error = errMsg ? errMsg : "Unknown error";
+        trace.fail(rc, error);
         LOGE("SQL error: %s", error.c_str());
         sqlite3_free(errMsg);
         return error;
@@ -29,152 +929,318 @@ static std::string executeWithLog(const std::string &sql) {
     return "";
 }
 
+// Schema migrations, applied in order on open. PRAGMA user_version holds the number of
+// migrations already applied; append new steps to the end and never edit shipped ones.
+static const char *const MIGRATIONS[] = {
+        // 1: base schema (IF NOT EXISTS keeps databases created before versioning)
+        "CREATE TABLE IF NOT EXISTS shops (id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL);"
+        "CREATE TABLE IF NOT EXISTS products (id INTEGER PRIMARY KEY AUTOINCREMENT, shop_id INTEGER, name TEXT NOT NULL, price REAL, bought INTEGER DEFAULT 0, description TEXT, FOREIGN KEY (shop_id) REFERENCES shops(id) ON DELETE CASCADE);",
+        // 2: one index per sort order; the trailing rowid makes them match ORDER BY <column>, id,
+        // and the shop_id prefix also serves ON DELETE CASCADE from shops
+        "CREATE INDEX IF NOT EXISTS idx_products_shop_name ON products (shop_id, name);"
+        "CREATE INDEX IF NOT EXISTS idx_products_shop_price ON products (shop_id, price);"
+        "CREATE INDEX IF NOT EXISTS idx_products_shop_bought ON products (shop_id, bought);",
+        // 3: full-text index over name/description, kept in sync with products by triggers
+        "CREATE VIRTUAL TABLE IF NOT EXISTS products_fts USING fts5(name, description, content='products', content_rowid='id', tokenize='unicode61 remove_diacritics 2', prefix='2 3');"
+        "CREATE TRIGGER IF NOT EXISTS products_fts_ai AFTER INSERT ON products BEGIN"
+        " INSERT INTO products_fts (rowid, name, description) VALUES (new.id, new.name, new.description); END;"
+        "CREATE TRIGGER IF NOT EXISTS products_fts_ad AFTER DELETE ON products BEGIN"
+        " INSERT INTO products_fts (products_fts, rowid, name, description) VALUES ('delete', old.id, old.name, old.description); END;"
+        "CREATE TRIGGER IF NOT EXISTS products_fts_au AFTER UPDATE OF name, description ON products BEGIN"
+        " INSERT INTO products_fts (products_fts, rowid, name, description) VALUES ('delete', old.id, old.name, old.description);"
+        " INSERT INTO products_fts (rowid, name, description) VALUES (new.id, new.name, new.description); END;"
+        "INSERT INTO products_fts (products_fts) VALUES ('rebuild');",
+        // 4: prices as integer minor units (kopecks), rebuilding products since a column type
+        // cannot be altered; ids, the AUTOINCREMENT sequence and the FTS rowids are kept.
+        // Per-shop totals are kept in shop_totals by triggers so getShops needs no aggregate.
+        "CREATE TABLE products_new (id INTEGER PRIMARY KEY AUTOINCREMENT, shop_id INTEGER, name TEXT NOT NULL, price INTEGER NOT NULL DEFAULT 0, bought INTEGER NOT NULL DEFAULT 0, description TEXT, FOREIGN KEY (shop_id) REFERENCES shops(id) ON DELETE CASCADE);"
+        "INSERT INTO products_new (id, shop_id, name, price, bought, description)"
+        " SELECT id, shop_id, name, CAST(ROUND(COALESCE(price, 0) * 100) AS INTEGER), COALESCE(bought, 0) != 0, description FROM products;"
+        "DELETE FROM sqlite_sequence WHERE name = 'products_new';"
+        "INSERT INTO sqlite_sequence (name, seq) SELECT 'products_new', seq FROM sqlite_sequence WHERE name = 'products';"
+        "DROP TABLE products;"
+        "ALTER TABLE products_new RENAME TO products;"
+        "CREATE INDEX idx_products_shop_name ON products (shop_id, name);"
+        "CREATE INDEX idx_products_shop_price ON products (shop_id, price);"
+        "CREATE INDEX idx_products_shop_bought ON products (shop_id, bought);"
+        "CREATE TRIGGER products_fts_ai AFTER INSERT ON products BEGIN"
+        " INSERT INTO products_fts (rowid, name, description) VALUES (new.id, new.name, new.description); END;"
+        "CREATE TRIGGER products_fts_ad AFTER DELETE ON products BEGIN"
+        " INSERT INTO products_fts (products_fts, rowid, name, description) VALUES ('delete', old.id, old.name, old.description); END;"
+        "CREATE TRIGGER products_fts_au AFTER UPDATE OF name, description ON products BEGIN"
+        " INSERT INTO products_fts (products_fts, rowid, name, description) VALUES ('delete', old.id, old.name, old.description);"
+        " INSERT INTO products_fts (rowid, name, description) VALUES (new.id, new.name, new.description); END;"
+        "CREATE TABLE shop_totals (shop_id INTEGER PRIMARY KEY REFERENCES shops(id) ON DELETE CASCADE,"
+        " item_count INTEGER NOT NULL DEFAULT 0, bought_count INTEGER NOT NULL DEFAULT 0,"
+        " total_price INTEGER NOT NULL DEFAULT 0, remaining_price INTEGER NOT NULL DEFAULT 0);"
+        "INSERT INTO shop_totals (shop_id, item_count, bought_count, total_price, remaining_price)"
+        " SELECT s.id, COUNT(p.id), COALESCE(SUM(p.bought), 0), COALESCE(SUM(p.price), 0),"
+        " COALESCE(SUM(CASE WHEN p.bought THEN 0 ELSE p.price END), 0)"
+        " FROM shops s LEFT JOIN products p ON p.shop_id = s.id GROUP BY s.id;"
+        "CREATE TRIGGER shop_totals_shop_ai AFTER INSERT ON shops BEGIN"
+        " INSERT INTO shop_totals (shop_id) VALUES (new.id); END;"
+        "CREATE TRIGGER shop_totals_ai AFTER INSERT ON products BEGIN"
+        " UPDATE shop_totals SET item_count = item_count + 1, bought_count = bought_count + (new.bought != 0),"
+        " total_price = total_price + new.price, remaining_price = remaining_price + CASE WHEN new.bought THEN 0 ELSE new.price END"
+        " WHERE shop_id = new.shop_id; END;"
+        "CREATE TRIGGER shop_totals_ad AFTER DELETE ON products BEGIN"
+        " UPDATE shop_totals SET item_count = item_count - 1, bought_count = bought_count - (old.bought != 0),"
+        " total_price = total_price - old.price, remaining_price = remaining_price - CASE WHEN old.bought THEN 0 ELSE old.price END"
+        " WHERE shop_id = old.shop_id; END;"
+        "CREATE TRIGGER shop_totals_au AFTER UPDATE OF shop_id, price, bought ON products BEGIN"
+        " UPDATE shop_totals SET item_count = item_count - 1, bought_count = bought_count - (old.bought != 0),"
+        " total_price = total_price - old.price, remaining_price = remaining_price - CASE WHEN old.bought THEN 0 ELSE old.price END"
+        " WHERE shop_id = old.shop_id;"
+        " UPDATE shop_totals SET item_count = item_count + 1, bought_count = bought_count + (new.bought != 0),"
+        " total_price = total_price + new.price, remaining_price = remaining_price + CASE WHEN new.bought THEN 0 ELSE new.price END"
+        " WHERE shop_id = new.shop_id; END;",
+        // 5: statistics of the FTS5 shadow tables taken while they were nearly empty, as the
+        // ANALYZE after the first migration did, make FTS5's own lookups slower as the index grows
+        "ANALYZE products;"
+        "DELETE FROM sqlite_stat1 WHERE tbl LIKE 'products_fts_%';",
+        // 6: change journal for sync (SyncEngine.java): one row per shop and product with its
+        // global id, the Lamport version of its latest change and the device that made it;
+        // deleted rows stay as tombstones. A global id is the device id and the version of the
+        // row's first change, so local rows are appended to the journal's key order. Triggers
+        // journal local writes; applyChanges sets sync_state.applying and journals its own.
+        "CREATE TABLE sync_state (id INTEGER PRIMARY KEY CHECK (id = 0), device TEXT NOT NULL,"
+        " applying INTEGER NOT NULL DEFAULT 0, push_cursor INTEGER NOT NULL DEFAULT 0,"
+        " pull_cursor INTEGER NOT NULL DEFAULT 0);"
+        "INSERT INTO sync_state (id, device) VALUES (0, lower(hex(randomblob(8))));"
+        "CREATE TABLE sync_journal (gid TEXT PRIMARY KEY, entity INTEGER NOT NULL, row_id INTEGER,"
+        " version INTEGER NOT NULL, origin TEXT NOT NULL, deleted INTEGER NOT NULL DEFAULT 0,"
+        " UNIQUE (entity, row_id)) WITHOUT ROWID;"
+        "CREATE INDEX idx_sync_journal_version ON sync_journal (version);"
+        "INSERT INTO sync_journal (gid, entity, row_id, version, origin)"
+        " SELECT printf('%s-%012d', s.device, sh.id), 0, sh.id, sh.id, s.device FROM shops sh, sync_state s;"
+        "INSERT INTO sync_journal (gid, entity, row_id, version, origin)"
+        " SELECT printf('%s-%012d', s.device, p.id + m.last), 1, p.id, p.id + m.last, s.device"
+        " FROM products p, sync_state s, (SELECT COALESCE(MAX(id), 0) AS last FROM shops) m;"
+        "CREATE TRIGGER sync_shops_ai AFTER INSERT ON shops WHEN (SELECT applying FROM sync_state) = 0 BEGIN"
+        " INSERT INTO sync_journal (gid, entity, row_id, version, origin)"
+        " SELECT printf('%s-%012d', s.device, v.next), 0, new.id, v.next, s.device"
+        " FROM sync_state s, (SELECT COALESCE(MAX(version), 0) + 1 AS next FROM sync_journal) v; END;"
+        "CREATE TRIGGER sync_shops_au AFTER UPDATE OF name ON shops WHEN (SELECT applying FROM sync_state) = 0 BEGIN"
+        " UPDATE sync_journal SET version = (SELECT MAX(version) + 1 FROM sync_journal),"
+        " origin = (SELECT device FROM sync_state) WHERE entity = 0 AND row_id = new.id; END;"
+        "CREATE TRIGGER sync_shops_ad AFTER DELETE ON shops WHEN (SELECT applying FROM sync_state) = 0 BEGIN"
+        " UPDATE sync_journal SET version = (SELECT MAX(version) + 1 FROM sync_journal),"
+        " origin = (SELECT device FROM sync_state), deleted = 1 WHERE entity = 0 AND row_id = old.id; END;"
+        "CREATE TRIGGER sync_products_ai AFTER INSERT ON products WHEN (SELECT applying FROM sync_state) = 0 BEGIN"
+        " INSERT INTO sync_journal (gid, entity, row_id, version, origin)"
+        " SELECT printf('%s-%012d', s.device, v.next), 1, new.id, v.next, s.device"
+        " FROM sync_state s, (SELECT COALESCE(MAX(version), 0) + 1 AS next FROM sync_journal) v; END;"
+        "CREATE TRIGGER sync_products_au AFTER UPDATE OF shop_id, name, price, bought, description ON products"
+        " WHEN (SELECT applying FROM sync_state) = 0 BEGIN"
+        " UPDATE sync_journal SET version = (SELECT MAX(version) + 1 FROM sync_journal),"
+        " origin = (SELECT device FROM sync_state) WHERE entity = 1 AND row_id = new.id; END;"
+        "CREATE TRIGGER sync_products_ad AFTER DELETE ON products WHEN (SELECT applying FROM sync_state) = 0 BEGIN"
+        " UPDATE sync_journal SET version = (SELECT MAX(version) + 1 FROM sync_journal),"
+        " origin = (SELECT device FROM sync_state), deleted = 1 WHERE entity = 1 AND row_id = old.id; END;",
+};
+static const int SCHEMA_VERSION = sizeof(MIGRATIONS) / sizeof(MIGRATIONS[0]);
+
+static int userVersion(sqlite3 *db) {
+    sqlite3_stmt *stmt;
+    int version = -1;
+    if (sqlite3_prepare_v2(db, "PRAGMA user_version;", -1, &stmt, nullptr) == SQLITE_OK) {
+        if (sqlite3_step(stmt) == SQLITE_ROW) version = sqlite3_column_int(stmt, 0);
+        sqlite3_finalize(stmt);
+    }
+    return version;
+}
+
+// Each step runs in its own transaction together with its user_version bump.
+static std::string migrate(sqlite3 *db) {
+    int version = userVersion(db);
+    if (version < 0) return sqlite3_errmsg(db);
+    if (version >= SCHEMA_VERSION) return "";
+    for (int step = version; step < SCHEMA_VERSION; step++) {
+        std::string err = executeWithLog(db, "BEGIN IMMEDIATE;");
+        if (!err.empty()) return err;
+        err = executeWithLog(db, MIGRATIONS[step]);
+        if (err.empty()) {
+            err = executeWithLog(db, "PRAGMA user_version = " + std::to_string(step + 1) + ";");
+        }
+        if (!err.empty()) {
+            executeWithLog(db, "ROLLBACK;");
+            return err;
+        }
+        err = executeWithLog(db, "COMMIT;");
+        if (!err.empty()) return err;
+        LOGD("Migrated schema to version %d", step + 1);
+    }
+    // Refresh planner statistics so the new indexes are picked up; the FTS5 shadow tables are
+    // left to PRAGMA optimize in maintenance (see migration 5)
+    return executeWithLog(db, "ANALYZE products;");
+}
+
 extern "C" JNIEXPORT jstring JNICALL
-Java_com_example_shoppinglistapp_MainActivity_initDatabase(JNIEnv *env, jobject, jstring dbPath) {
-    if (db) {
-        LOGD("Closing existing database");
-        sqlite3_close(db);
-        db = nullptr;
+Java_com_example_shoppinglistapp_NativeDb_initDatabase(JNIEnv *env, jclass, jstring dbPath, jint storageProfile) {
+    OperationTimer timer(OP_INIT_DATABASE);
+    if (storageProfile < 0 || storageProfile >= STORAGE_PROFILE_COUNT) {
+        LOGE("Unknown storage profile %d", storageProfile);
+        return env->NewStringUTF("Unknown storage profile");
     }
     const char *path = env->GetStringUTFChars(dbPath, nullptr);
-    LOGD("Opening database at: %s", path);
-    int rc = sqlite3_open(path, &db);
+    std::string err = session.open(path, STORAGE_PROFILES[storageProfile]);
     env->ReleaseStringUTFChars(dbPath, path);
-    if (rc != SQLITE_OK) {
-        std::string error = sqlite3_errmsg(db);
-        LOGE("Database open error: %s", error.c_str());
-        return env->NewStringUTF(error.c_str());
-    }
-    // Enable foreign keys
-    std::string enableForeignKeys = "PRAGMA foreign_keys = ON;";
-    std::string err = executeWithLog(enableForeignKeys);
-    if (!err.empty()) return env->NewStringUTF(err.c_str());
-    // Create tables
-    std::string createShops = "CREATE TABLE IF NOT EXISTS shops (id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL);";
-    err = executeWithLog(createShops);
-    if (!err.empty()) return env->NewStringUTF(err.c_str());
-    std::string createProducts = "CREATE TABLE IF NOT EXISTS products (id INTEGER PRIMARY KEY AUTOINCREMENT, shop_id INTEGER, name TEXT NOT NULL, price REAL, bought INTEGER DEFAULT 0, description TEXT, FOREIGN KEY (shop_id) REFERENCES shops(id) ON DELETE CASCADE);";
-    err = executeWithLog(createProducts);
     if (!err.empty()) return env->NewStringUTF(err.c_str());
     return nullptr;
 }
 
-extern "C" JNIEXPORT jstring JNICALL
-Java_com_example_shoppinglistapp_MainActivity_addShop(JNIEnv *env, jobject, jstring name) {
-    if (!db) {
-        LOGE("Database not initialized");
-        return env->NewStringUTF("Database not initialized");
-    }
-    const char *nameStr = env->GetStringUTFChars(name, nullptr);
+// Inserts a shop on the writer connection and stores its id; returns the error, empty on success.
+static std::string insertShop(Connection *conn, const char *name, sqlite3_int64 *id) {
+    sqlite3 *db = conn->db;
     std::string sql = "INSERT INTO shops (name) VALUES (?);";
-    logs.push_back(sql);
+    StatementTrace trace("write", sql);
     LOGD("Preparing SQL: %s", sql.c_str());
     sqlite3_stmt *stmt;
-    int rc = sqlite3_prepare_v2(db, sql.c_str(), -1, &stmt, nullptr);
+    int rc = conn->prepare(sql, &stmt);
     if (rc != SQLITE_OK) {
         std::string errmsg = sqlite3_errmsg(db);
-        logs.push_back("ERROR in prepare: " + errmsg);
+        trace.fail(rc, errmsg);
         LOGE("Prepare error: %s", errmsg.c_str());
-        env->ReleaseStringUTFChars(name, nameStr);
-        return env->NewStringUTF(errmsg.c_str());
+        return errmsg;
     }
-    sqlite3_bind_text(stmt, 1, nameStr, -1, SQLITE_TRANSIENT);
-    env->ReleaseStringUTFChars(name, nameStr);
+    sqlite3_bind_text(stmt, 1, name, -1, SQLITE_TRANSIENT);
     rc = sqlite3_step(stmt);
     if (rc != SQLITE_DONE) {
         std::string errmsg = sqlite3_errmsg(db);
-        logs.push_back("ERROR in step: " + errmsg);
+        trace.fail(rc, errmsg);
         LOGE("Step error: %s", errmsg.c_str());
-        sqlite3_finalize(stmt);
-        return env->NewStringUTF(errmsg.c_str());
+        StatementCache::release(stmt);
+        return errmsg;
+    }
+    trace.setRows(sqlite3_changes(db));
+    *id = sqlite3_last_insert_rowid(db);
+    StatementCache::release(stmt);
+    return "";
+}
+
+extern "C" JNIEXPORT jstring JNICALL
+Java_com_example_shoppinglistapp_NativeDb_addShop(JNIEnv *env, jclass, jstring name) {
+    OperationTimer timer(OP_ADD_SHOP);
+    Session::Lease conn = session.writer();
+    if (!conn) {
+        LOGE("Database not initialized");
+        return env->NewStringUTF("Database not initialized");
+    }
+    const char *nameStr = env->GetStringUTFChars(name, nullptr);
+    sqlite3_int64 id;
+    std::string err = insertShop(conn.get(), nameStr, &id);
+    env->ReleaseStringUTFChars(name, nameStr);
+    if (!err.empty()) return env->NewStringUTF(err.c_str());
+    return nullptr;
+}
+
+// Like addShop, and writes the new shop's id to id[0], e.g. to map ids while importing.
+extern "C" JNIEXPORT jstring JNICALL
+Java_com_example_shoppinglistapp_NativeDb_insertShop(JNIEnv *env, jclass, jstring name, jintArray id) {
+    OperationTimer timer(OP_ADD_SHOP);
+    Session::Lease conn = session.writer();
+    if (!conn) {
+        LOGE("Database not initialized");
+        return env->NewStringUTF("Database not initialized");
     }
-    sqlite3_finalize(stmt);
+    const char *nameStr = env->GetStringUTFChars(name, nullptr);
+    sqlite3_int64 newId;
+    std::string err = insertShop(conn.get(), nameStr, &newId);
+    env->ReleaseStringUTFChars(name, nameStr);
+    if (!err.empty()) return env->NewStringUTF(err.c_str());
+    jint value = (jint) newId;
+    env->SetIntArrayRegion(id, 0, 1, &value);
     return nullptr;
 }
 
-extern "C" JNIEXPORT jobjectArray JNICALL
-Java_com_example_shoppinglistapp_MainActivity_getShops(JNIEnv *env, jobject) {
-    if (!db) {
+extern "C" JNIEXPORT jint JNICALL
+Java_com_example_shoppinglistapp_NativeDb_getShops(JNIEnv *env, jclass, jobject out) {
+    OperationTimer timer(OP_GET_SHOPS);
+    Session::Lease conn = session.reader();
+    if (!conn) {
         LOGE("Database not initialized");
-        return nullptr;
+        return ROWS_ERROR;
     }
-    std::string sql = "SELECT id, name FROM shops;";
-    logs.push_back(sql);
+    sqlite3 *db = conn->db;
+    std::string sql = SHOPS_SQL;
+    StatementTrace trace("query", sql);
     LOGD("Preparing SQL: %s", sql.c_str());
     sqlite3_stmt *stmt;
-    int rc = sqlite3_prepare_v2(db, sql.c_str(), -1, &stmt, nullptr);
+    int rc = conn->prepare(sql, &stmt);
     if (rc != SQLITE_OK) {
         std::string errmsg = sqlite3_errmsg(db);
-        logs.push_back("ERROR in prepare: " + errmsg);
+        trace.fail(rc, errmsg);
         LOGE("Prepare error: %s", errmsg.c_str());
-        return nullptr;
+        return ROWS_ERROR;
     }
-    std::vector<std::string> results;
+    RowWriter rows;
     while ((rc = sqlite3_step(stmt)) == SQLITE_ROW) {
-        std::string row;
-        int col_count = sqlite3_column_count(stmt);
-        for (int i = 0; i < col_count; i++) {
-            const char *val = (const char *)sqlite3_column_text(stmt, i);
-            row += (val ? val : "");
-            if (i < col_count - 1) row += ":";
-        }
-        results.push_back(row);
+        writeShopRow(stmt, rows);
     }
     if (rc != SQLITE_DONE) {
         std::string errmsg = sqlite3_errmsg(db);
-        logs.push_back("ERROR in step: " + errmsg);
+        trace.fail(rc, errmsg);
         LOGE("Step error: %s", errmsg.c_str());
-        sqlite3_finalize(stmt);
-        return nullptr;
-    }
-    sqlite3_finalize(stmt);
-    jobjectArray ret = env->NewObjectArray(results.size(), env->FindClass("java/lang/String"), nullptr);
-    for (size_t i = 0; i < results.size(); ++i) {
-        env->SetObjectArrayElement(ret, i, env->NewStringUTF(results[i].c_str()));
+        StatementCache::release(stmt);
+        return ROWS_ERROR;
     }
-    return ret;
+    StatementCache::release(stmt);
+    trace.setRows(rows.count);
+    return rows.copyTo(env, out);
 }
 
 extern "C" JNIEXPORT jstring JNICALL
-Java_com_example_shoppinglistapp_MainActivity_deleteAll(JNIEnv *env, jobject) {
-    if (!db) {
+Java_com_example_shoppinglistapp_NativeDb_deleteAll(JNIEnv *env, jclass) {
+    OperationTimer timer(OP_DELETE_ALL);
+    Session::Lease conn = session.writer();
+    if (!conn) {
         LOGE("Database not initialized");
         return env->NewStringUTF("Database not initialized");
     }
-    std::string err = executeWithLog("DELETE FROM products");
+    sqlite3 *db = conn->db;
+    // One transaction, so a failure cannot leave shops without their products or the reverse
+    std::string err = executeWithLog(db, "BEGIN IMMEDIATE;");
     if (!err.empty()) return env->NewStringUTF(err.c_str());
-    err = executeWithLog("DELETE FROM shops");
+    err = executeWithLog(db, "DELETE FROM products;");
+    if (err.empty()) err = executeWithLog(db, "DELETE FROM shops;");
+    if (err.empty()) err = executeWithLog(db, "COMMIT;");
+    if (!err.empty()) executeWithLog(db, "ROLLBACK;");
     return env->NewStringUTF(err.c_str());
 }
 
 extern "C" JNIEXPORT jstring JNICALL
-Java_com_example_shoppinglistapp_MainActivity_executeSql(JNIEnv *env, jobject, jstring sql) {
-    if (!db) {
+Java_com_example_shoppinglistapp_NativeDb_executeSql(JNIEnv *env, jclass, jstring sql) {
+    OperationTimer timer(OP_EXECUTE_SQL);
+    Session::Lease conn = session.writer();
+    if (!conn) {
         LOGE("Database not initialized");
         return env->NewStringUTF("Database not initialized");
     }
     const char *sqlStr = env->GetStringUTFChars(sql, nullptr);
-    std::string err = executeWithLog(sqlStr);
+    std::string err = executeWithLog(conn->db, sqlStr);
     env->ReleaseStringUTFChars(sql, sqlStr);
     return env->NewStringUTF(err.c_str());
 }
 
 extern "C" JNIEXPORT jstring JNICALL
-Java_com_example_shoppinglistapp_ShopActivity_addProduct(JNIEnv *env, jobject, jint shopId, jstring name, jdouble price, jstring desc) {
-    if (!db) {
+Java_com_example_shoppinglistapp_NativeDb_addProduct(JNIEnv *env, jclass, jint shopId, jstring name, jdouble price, jstring desc) {
+    OperationTimer timer(OP_ADD_PRODUCT);
+    Session::Lease conn = session.writer();
+    if (!conn) {
         LOGE("Database not initialized");
         return env->NewStringUTF("Database not initialized");
     }
+    sqlite3 *db = conn->db;
     const char *nameStr = env->GetStringUTFChars(name, nullptr);
     const char *descStr = env->GetStringUTFChars(desc, nullptr);
     std::string sql = "INSERT INTO products (shop_id, name, price, description) VALUES (?, ?, ?, ?);";
-    logs.push_back(sql);
+    StatementTrace trace("write", sql);
     LOGD("Preparing SQL: %s", sql.c_str());
     sqlite3_stmt *stmt;
-    int rc = sqlite3_prepare_v2(db, sql.c_str(), -1, &stmt, nullptr);
+    int rc = conn->prepare(sql, &stmt);
     if (rc != SQLITE_OK) {
         std::string errmsg = sqlite3_errmsg(db);
-        logs.push_back("ERROR in prepare: " + errmsg);
+        trace.fail(rc, errmsg);
         LOGE("Prepare error: %s", errmsg.c_str());
         env->ReleaseStringUTFChars(name, nameStr);
         env->ReleaseStringUTFChars(desc, descStr);
@@ -182,7 +1248,7 @@ Java_com_example_shoppinglistapp_ShopActivity_addProduct(JNIEnv *env, jobject, j
     }
     sqlite3_bind_int(stmt, 1, shopId);
     sqlite3_bind_text(stmt, 2, nameStr, -1, SQLITE_TRANSIENT);
-    sqlite3_bind_double(stmt, 3, price);
+    sqlite3_bind_int64(stmt, 3, toMinorUnits(price));
     if (descStr == nullptr || strlen(descStr) == 0) {
         sqlite3_bind_null(stmt, 4);
     } else {
@@ -193,98 +1259,326 @@ Java_com_example_shoppinglistapp_ShopActivity_addProduct(JNIEnv *env, jobject, j
     rc = sqlite3_step(stmt);
     if (rc != SQLITE_DONE) {
         std::string errmsg = sqlite3_errmsg(db);
-        logs.push_back("ERROR in step: " + errmsg);
+        trace.fail(rc, errmsg);
         LOGE("Step error: %s", errmsg.c_str());
-        sqlite3_finalize(stmt);
+        StatementCache::release(stmt);
         return env->NewStringUTF(errmsg.c_str());
     }
-    sqlite3_finalize(stmt);
+    trace.setRows(sqlite3_changes(db));
+    StatementCache::release(stmt);
     return nullptr;
 }
 
-extern "C" JNIEXPORT jobjectArray JNICALL
-Java_com_example_shoppinglistapp_ShopActivity_getProducts(JNIEnv *env, jobject, jint shopId, jstring sort, jstring search) {
-    if (!db) {
+// Inserts `count` products packed in `rows` (double price, byte bought, text name, text description per row)
+// with one reused statement. Runs inside the caller's transaction if one is open
+// (see beginTransaction), otherwise in its own, so the batch costs a single commit.
+extern "C" JNIEXPORT jstring JNICALL
+Java_com_example_shoppinglistapp_NativeDb_addProducts(JNIEnv *env, jclass, jint shopId, jobject rows, jint length, jint count) {
+    OperationTimer timer(OP_ADD_PRODUCTS);
+    Session::Lease conn = session.writer();
+    if (!conn) {
         LOGE("Database not initialized");
-        return nullptr;
+        return env->NewStringUTF("Database not initialized");
     }
-    const char *sortStr = env->GetStringUTFChars(sort, nullptr);
-    const char *searchStr = env->GetStringUTFChars(search, nullptr);
-    std::string sql = "SELECT id, name, price, bought, description FROM products WHERE shop_id = ?";
-    std::string search_val = searchStr ? searchStr : "";
-    if (!search_val.empty()) {
-        sql += " AND name LIKE ?";
+    sqlite3 *db = conn->db;
+    auto *data = static_cast<const uint8_t *>(env->GetDirectBufferAddress(rows));
+    if (!data || length > env->GetDirectBufferCapacity(rows)) {
+        return env->NewStringUTF("Rows must be a direct buffer");
     }
-    sql += " ORDER BY " + std::string(sortStr) + ";";
-    logs.push_back(sql);
-    LOGD("Preparing SQL: %s", sql.c_str());
+    std::string sql = "INSERT INTO products (shop_id, name, price, bought, description) VALUES (?, ?, ?, ?, ?);";
+    StatementTrace trace("batch", sql);
     sqlite3_stmt *stmt;
-    int rc = sqlite3_prepare_v2(db, sql.c_str(), -1, &stmt, nullptr);
+    int rc = conn->prepare(sql, &stmt);
     if (rc != SQLITE_OK) {
         std::string errmsg = sqlite3_errmsg(db);
-        logs.push_back("ERROR in prepare: " + errmsg);
+        trace.fail(rc, errmsg);
         LOGE("Prepare error: %s", errmsg.c_str());
-        env->ReleaseStringUTFChars(sort, sortStr);
-        env->ReleaseStringUTFChars(search, searchStr);
-        return nullptr;
+        return env->NewStringUTF(errmsg.c_str());
+    }
+    bool ownTransaction = sqlite3_get_autocommit(db);
+    if (ownTransaction) {
+        std::string err = executeWithLog(db, "BEGIN IMMEDIATE;");
+        if (!err.empty()) return env->NewStringUTF(err.c_str());
+    }
+    std::string errmsg;
+    RowReader reader(data, length);
+    int inserted = 0;
+    for (; inserted < count; inserted++) {
+        double price;
+        uint8_t bought;
+        const char *name, *desc;
+        int32_t nameLen, descLen;
+        if (!reader.getDouble(&price) || !reader.getByte(&bought) || !reader.getText(&name, &nameLen)
+            || !reader.getText(&desc, &descLen)) {
+            rc = SQLITE_MISUSE;
+            errmsg = "Malformed product batch";
+            break;
+        }
+        sqlite3_bind_int(stmt, 1, shopId);
+        sqlite3_bind_text(stmt, 2, name ? name : "", name ? nameLen : 0, SQLITE_STATIC);
+        sqlite3_bind_int64(stmt, 3, toMinorUnits(price));
+        sqlite3_bind_int(stmt, 4, bought != 0);
+        if (desc == nullptr || descLen == 0) {
+            sqlite3_bind_null(stmt, 5);
+        } else {
+            sqlite3_bind_text(stmt, 5, desc, descLen, SQLITE_STATIC);
+        }
+        rc = sqlite3_step(stmt);
+        StatementCache::release(stmt);
+        if (rc != SQLITE_DONE) {
+            errmsg = sqlite3_errmsg(db);
+            break;
+        }
+    }
+    trace.setRows(inserted);
+    if (!errmsg.empty()) {
+        trace.fail(rc, errmsg);
+        LOGE("Batch insert error at row %d: %s", inserted, errmsg.c_str());
+        if (ownTransaction) executeWithLog(db, "ROLLBACK;");
+        return env->NewStringUTF(errmsg.c_str());
+    }
+    if (ownTransaction) {
+        std::string err = executeWithLog(db, "COMMIT;");
+        if (!err.empty()) {
+            executeWithLog(db, "ROLLBACK;");
+            return env->NewStringUTF(err.c_str());
+        }
+    }
+    return nullptr;
+}
+
+// Opens a write transaction on the writer connection that spans several calls, e.g. an
+// import fed in chunks. Only the repository's single writer thread may use it.
+extern "C" JNIEXPORT jstring JNICALL
+Java_com_example_shoppinglistapp_NativeDb_beginTransaction(JNIEnv *env, jclass) {
+    OperationTimer timer(OP_TRANSACTION);
+    Session::Lease conn = session.writer();
+    if (!conn) {
+        LOGE("Database not initialized");
+        return env->NewStringUTF("Database not initialized");
+    }
+    std::string err = executeWithLog(conn->db, "BEGIN IMMEDIATE;");
+    if (!err.empty()) return env->NewStringUTF(err.c_str());
+    return nullptr;
+}
+
+extern "C" JNIEXPORT jstring JNICALL
+Java_com_example_shoppinglistapp_NativeDb_endTransaction(JNIEnv *env, jclass, jboolean commit) {
+    OperationTimer timer(OP_TRANSACTION);
+    Session::Lease conn = session.writer();
+    if (!conn) {
+        LOGE("Database not initialized");
+        return env->NewStringUTF("Database not initialized");
+    }
+    sqlite3 *db = conn->db;
+    if (sqlite3_get_autocommit(db)) return nullptr;
+    std::string err = executeWithLog(db, commit ? "COMMIT;" : "ROLLBACK;");
+    if (!err.empty()) {
+        if (commit) executeWithLog(db, "ROLLBACK;");
+        return env->NewStringUTF(err.c_str());
+    }
+    return nullptr;
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_com_example_shoppinglistapp_NativeDb_getProducts(JNIEnv *env, jclass, jint shopId, jstring sort, jstring search, jlong token,
+                                                      jobject out) {
+    OperationTimer timer(OP_GET_PRODUCTS);
+    Session::Lease conn = session.reader();
+    if (!conn) {
+        LOGE("Database not initialized");
+        return ROWS_ERROR;
+    }
+    QueryScope query(conn.get(), token);
+    if (query.cancelled()) return queryCancelled();
+    sqlite3 *db = conn->db;
+    const char *sortStr = env->GetStringUTFChars(sort, nullptr);
+    const char *searchStr = env->GetStringUTFChars(search, nullptr);
+    std::string match = ftsQuery(searchStr ? searchStr : "");
+    std::string sql = productsSql(sortOrder(sortStr), !match.empty());
+    StatementTrace trace("query", sql);
+    LOGD("Preparing SQL: %s", sql.c_str());
+    sqlite3_stmt *stmt;
+    int rc = conn->prepare(sql, &stmt);
+    if (rc != SQLITE_OK) {
+        std::string errmsg = sqlite3_errmsg(db);
+        trace.fail(rc, errmsg);
+        LOGE("Prepare error: %s", errmsg.c_str());
+        env->ReleaseStringUTFChars(sort, sortStr);
+        env->ReleaseStringUTFChars(search, searchStr);
+        return ROWS_ERROR;
     }
     sqlite3_bind_int(stmt, 1, shopId);
     int param_idx = 2;
-    if (!search_val.empty()) {
-        std::string like = "%" + search_val + "%";
-        sqlite3_bind_text(stmt, param_idx++, like.c_str(), -1, SQLITE_TRANSIENT);
+    if (!match.empty()) {
+        sqlite3_bind_text(stmt, param_idx++, match.c_str(), -1, SQLITE_TRANSIENT);
     }
     env->ReleaseStringUTFChars(sort, sortStr);
     env->ReleaseStringUTFChars(search, searchStr);
-    std::vector<std::string> results;
+    RowWriter rows;
     while ((rc = sqlite3_step(stmt)) == SQLITE_ROW) {
-        std::string row;
-        int col_count = sqlite3_column_count(stmt);
-        for (int i = 0; i < col_count; i++) {
-            const char *val = (const char *)sqlite3_column_text(stmt, i);
-            row += (val ? val : "");
-            if (i < col_count - 1) row += ":";
+        writeProductRow(stmt, rows);
+    }
+    if (rc != SQLITE_DONE) {
+        std::string errmsg = sqlite3_errmsg(db);
+        trace.fail(rc, errmsg);
+        StatementCache::release(stmt);
+        if (query.cancelled()) return queryCancelled();
+        LOGE("Step error: %s", errmsg.c_str());
+        return ROWS_ERROR;
+    }
+    StatementCache::release(stmt);
+    trace.setRows(rows.count);
+    return rows.copyTo(env, out);
+}
+
+// Keyset pagination on (sort column, id): a page starts right after (or before) the row
+// the cursor describes, so the cost of a page does not depend on how deep it is.
+extern "C" JNIEXPORT jint JNICALL
+Java_com_example_shoppinglistapp_NativeDb_getProductsPage(JNIEnv *env, jclass, jint shopId, jstring sort, jstring search,
+                                                          jint cursorMode, jstring cursorName, jdouble cursorPrice,
+                                                          jint cursorBought, jint cursorId, jint limit, jlong token,
+                                                          jobject out) {
+    OperationTimer timer(OP_GET_PRODUCTS_PAGE);
+    Session::Lease conn = session.reader();
+    if (!conn) {
+        LOGE("Database not initialized");
+        return ROWS_ERROR;
+    }
+    QueryScope query(conn.get(), token);
+    if (query.cancelled()) return queryCancelled();
+    sqlite3 *db = conn->db;
+    const char *sortStr = env->GetStringUTFChars(sort, nullptr);
+    const SortOrder &order = sortOrder(sortStr);
+    env->ReleaseStringUTFChars(sort, sortStr);
+    const char *searchStr = env->GetStringUTFChars(search, nullptr);
+    std::string match = ftsQuery(searchStr ? searchStr : "");
+    env->ReleaseStringUTFChars(search, searchStr);
+
+    std::string column = order.column;
+    std::string sql = productsPageSql(order, !match.empty(), cursorMode);
+    StatementTrace trace("query", sql);
+    LOGD("Preparing SQL: %s", sql.c_str());
+    sqlite3_stmt *stmt;
+    int rc = conn->prepare(sql, &stmt);
+    if (rc != SQLITE_OK) {
+        std::string errmsg = sqlite3_errmsg(db);
+        trace.fail(rc, errmsg);
+        LOGE("Prepare error: %s", errmsg.c_str());
+        return ROWS_ERROR;
+    }
+    int param_idx = 1;
+    sqlite3_bind_int(stmt, param_idx++, shopId);
+    if (!match.empty()) {
+        sqlite3_bind_text(stmt, param_idx++, match.c_str(), -1, SQLITE_TRANSIENT);
+    }
+    if (cursorMode != CURSOR_NONE) {
+        if (column == "name") {
+            const char *nameStr = env->GetStringUTFChars(cursorName, nullptr);
+            sqlite3_bind_text(stmt, param_idx++, nameStr, -1, SQLITE_TRANSIENT);
+            env->ReleaseStringUTFChars(cursorName, nameStr);
+        } else if (column == "price") {
+            sqlite3_bind_int64(stmt, param_idx++, toMinorUnits(cursorPrice));
+        } else {
+            sqlite3_bind_int(stmt, param_idx++, cursorBought);
         }
-        results.push_back(row);
+        sqlite3_bind_int(stmt, param_idx++, cursorId);
+    }
+    sqlite3_bind_int(stmt, param_idx, limit);
+    RowWriter rows;
+    while ((rc = sqlite3_step(stmt)) == SQLITE_ROW) {
+        writeProductRow(stmt, rows);
     }
     if (rc != SQLITE_DONE) {
         std::string errmsg = sqlite3_errmsg(db);
-        logs.push_back("ERROR in step: " + errmsg);
+        trace.fail(rc, errmsg);
+        StatementCache::release(stmt);
+        if (query.cancelled()) return queryCancelled();
         LOGE("Step error: %s", errmsg.c_str());
-        sqlite3_finalize(stmt);
-        return nullptr;
+        return ROWS_ERROR;
+    }
+    StatementCache::release(stmt);
+    trace.setRows(rows.count);
+    return rows.copyTo(env, out);
+}
+
+// Rows are product rows followed by int shop id and text shop name.
+extern "C" JNIEXPORT jint JNICALL
+Java_com_example_shoppinglistapp_NativeDb_searchAllShops(JNIEnv *env, jclass, jstring search, jint limit, jlong token,
+                                                         jobject out) {
+    OperationTimer timer(OP_SEARCH_ALL_SHOPS);
+    Session::Lease conn = session.reader();
+    if (!conn) {
+        LOGE("Database not initialized");
+        return ROWS_ERROR;
     }
-    sqlite3_finalize(stmt);
-    jobjectArray ret = env->NewObjectArray(results.size(), env->FindClass("java/lang/String"), nullptr);
-    for (size_t i = 0; i < results.size(); ++i) {
-        env->SetObjectArrayElement(ret, i, env->NewStringUTF(results[i].c_str()));
+    QueryScope query(conn.get(), token);
+    if (query.cancelled()) return queryCancelled();
+    sqlite3 *db = conn->db;
+    const char *searchStr = env->GetStringUTFChars(search, nullptr);
+    std::string match = ftsQuery(searchStr ? searchStr : "");
+    env->ReleaseStringUTFChars(search, searchStr);
+    RowWriter rows;
+    if (match.empty()) {
+        return rows.copyTo(env, out);
     }
-    return ret;
+    std::string sql = SEARCH_ALL_SQL;
+    StatementTrace trace("query", sql);
+    LOGD("Preparing SQL: %s", sql.c_str());
+    sqlite3_stmt *stmt;
+    int rc = conn->prepare(sql, &stmt);
+    if (rc != SQLITE_OK) {
+        std::string errmsg = sqlite3_errmsg(db);
+        trace.fail(rc, errmsg);
+        LOGE("Prepare error: %s", errmsg.c_str());
+        return ROWS_ERROR;
+    }
+    sqlite3_bind_text(stmt, 1, match.c_str(), -1, SQLITE_TRANSIENT);
+    sqlite3_bind_int(stmt, 2, limit);
+    while ((rc = sqlite3_step(stmt)) == SQLITE_ROW) {
+        writeProductRow(stmt, rows);
+        rows.putInt(sqlite3_column_int(stmt, 5));
+        rows.putText(stmt, 6);
+    }
+    if (rc != SQLITE_DONE) {
+        std::string errmsg = sqlite3_errmsg(db);
+        trace.fail(rc, errmsg);
+        StatementCache::release(stmt);
+        if (query.cancelled()) return queryCancelled();
+        LOGE("Step error: %s", errmsg.c_str());
+        return ROWS_ERROR;
+    }
+    StatementCache::release(stmt);
+    trace.setRows(rows.count);
+    return rows.copyTo(env, out);
 }
 
 extern "C" JNIEXPORT jstring JNICALL
-Java_com_example_shoppinglistapp_ShopActivity_updateProduct(JNIEnv *env, jobject, jint id, jstring name, jdouble price, jint bought, jstring desc) {
-    if (!db) {
+Java_com_example_shoppinglistapp_NativeDb_updateProduct(JNIEnv *env, jclass, jint id, jstring name, jdouble price, jint bought, jstring desc) {
+    OperationTimer timer(OP_UPDATE_PRODUCT);
+    Session::Lease conn = session.writer();
+    if (!conn) {
         LOGE("Database not initialized");
         return env->NewStringUTF("Database not initialized");
     }
+    sqlite3 *db = conn->db;
     const char *nameStr = env->GetStringUTFChars(name, nullptr);
     const char *descStr = env->GetStringUTFChars(desc, nullptr);
     std::string sql = "UPDATE products SET name = ?, price = ?, bought = ?, description = ? WHERE id = ?;";
-    logs.push_back(sql);
+    StatementTrace trace("write", sql);
     LOGD("Preparing SQL: %s", sql.c_str());
     sqlite3_stmt *stmt;
-    int rc = sqlite3_prepare_v2(db, sql.c_str(), -1, &stmt, nullptr);
+    int rc = conn->prepare(sql, &stmt);
     if (rc != SQLITE_OK) {
         std::string errmsg = sqlite3_errmsg(db);
-        logs.push_back("ERROR in prepare: " + errmsg);
+        trace.fail(rc, errmsg);
         LOGE("Prepare error: %s", errmsg.c_str());
         env->ReleaseStringUTFChars(name, nameStr);
         env->ReleaseStringUTFChars(desc, descStr);
         return env->NewStringUTF(errmsg.c_str());
     }
     sqlite3_bind_text(stmt, 1, nameStr, -1, SQLITE_TRANSIENT);
-    sqlite3_bind_double(stmt, 2, price);
+    sqlite3_bind_int64(stmt, 2, toMinorUnits(price));
     sqlite3_bind_int(stmt, 3, bought);
     if (descStr == nullptr || strlen(descStr) == 0) {
         sqlite3_bind_null(stmt, 4);
@@ -297,57 +1591,982 @@ Java_com_example_shoppinglistapp_ShopActivity_updateProduct(JNIEnv *env, jobject
     rc = sqlite3_step(stmt);
     if (rc != SQLITE_DONE) {
         std::string errmsg = sqlite3_errmsg(db);
-        logs.push_back("ERROR in step: " + errmsg);
+        trace.fail(rc, errmsg);
         LOGE("Step error: %s", errmsg.c_str());
-        sqlite3_finalize(stmt);
+        StatementCache::release(stmt);
         return env->NewStringUTF(errmsg.c_str());
     }
-    sqlite3_finalize(stmt);
+    trace.setRows(sqlite3_changes(db));
+    StatementCache::release(stmt);
     return nullptr;
 }
 
+// Applies queued bought toggles in one transaction, touching only the bought column.
 extern "C" JNIEXPORT jstring JNICALL
-Java_com_example_shoppinglistapp_ShopActivity_deleteProduct(JNIEnv *env, jobject, jint id) {
-    if (!db) {
+Java_com_example_shoppinglistapp_NativeDb_setBought(JNIEnv *env, jclass, jintArray ids, jbooleanArray bought) {
+    OperationTimer timer(OP_SET_BOUGHT);
+    Session::Lease conn = session.writer();
+    if (!conn) {
         LOGE("Database not initialized");
         return env->NewStringUTF("Database not initialized");
     }
-    std::string sql = "DELETE FROM products WHERE id = ?;";
-    logs.push_back(sql);
-    LOGD("Preparing SQL: %s", sql.c_str());
+    sqlite3 *db = conn->db;
+    jsize count = env->GetArrayLength(ids);
+    if (env->GetArrayLength(bought) != count) {
+        return env->NewStringUTF("ids and bought differ in length");
+    }
+    std::vector<jint> idValues(count);
+    std::vector<jboolean> boughtValues(count);
+    env->GetIntArrayRegion(ids, 0, count, idValues.data());
+    env->GetBooleanArrayRegion(bought, 0, count, boughtValues.data());
+
+    std::string sql = "UPDATE products SET bought = ? WHERE id = ?;";
+    StatementTrace trace("write", sql);
     sqlite3_stmt *stmt;
-    int rc = sqlite3_prepare_v2(db, sql.c_str(), -1, &stmt, nullptr);
+    int rc = conn->prepare(sql, &stmt);
     if (rc != SQLITE_OK) {
         std::string errmsg = sqlite3_errmsg(db);
-        logs.push_back("ERROR in prepare: " + errmsg);
+        trace.fail(rc, errmsg);
         LOGE("Prepare error: %s", errmsg.c_str());
         return env->NewStringUTF(errmsg.c_str());
     }
-    sqlite3_bind_int(stmt, 1, id);
-    rc = sqlite3_step(stmt);
+    std::string err = executeWithLog(db, "BEGIN IMMEDIATE;");
+    if (!err.empty()) return env->NewStringUTF(err.c_str());
+    int changed = 0;
+    for (jsize i = 0; i < count; i++) {
+        sqlite3_bind_int(stmt, 1, boughtValues[i] ? 1 : 0);
+        sqlite3_bind_int(stmt, 2, idValues[i]);
+        rc = sqlite3_step(stmt);
+        StatementCache::release(stmt);
+        if (rc != SQLITE_DONE) {
+            std::string errmsg = sqlite3_errmsg(db);
+            trace.fail(rc, errmsg);
+            LOGE("Step error: %s", errmsg.c_str());
+            executeWithLog(db, "ROLLBACK;");
+            return env->NewStringUTF(errmsg.c_str());
+        }
+        changed += sqlite3_changes(db);
+    }
+    trace.setRows(changed);
+    err = executeWithLog(db, "COMMIT;");
+    if (!err.empty()) {
+        executeWithLog(db, "ROLLBACK;");
+        return env->NewStringUTF(err.c_str());
+    }
+    return nullptr;
+}
+
+// Export is JSON Lines, one object per line: all shops, then all products, each in id order.
+// Prices are written exactly from minor units; shop ids only link products to their shop.
+static const char *const EXPORT_SQL[] = {
+        "SELECT id, name FROM shops WHERE id > ? ORDER BY id;",
+        "SELECT id, shop_id, name, price, bought, description FROM products WHERE id > ? ORDER BY id;",
+};
+static const int EXPORT_DONE = sizeof(EXPORT_SQL) / sizeof(EXPORT_SQL[0]);
+
+static void appendJsonString(std::string &line, sqlite3_stmt *stmt, int col) {
+    if (sqlite3_column_type(stmt, col) == SQLITE_NULL) {
+        line += "null";
+        return;
+    }
+    const auto *text = reinterpret_cast<const char *>(sqlite3_column_text(stmt, col));
+    int len = sqlite3_column_bytes(stmt, col);
+    line += '"';
+    for (int i = 0; i < len; i++) {
+        unsigned char c = text[i];
+        if (c == '"' || c == '\\') {
+            line += '\\';
+            line += (char) c;
+        } else if (c < 0x20) {
+            char escaped[7];
+            snprintf(escaped, sizeof(escaped), "\\u%04x", c);
+            line += escaped;
+        } else {
+            line += (char) c;
+        }
+    }
+    line += '"';
+}
+
+static void appendMinorUnits(std::string &line, int64_t minor) {
+    if (minor < 0) {
+        line += '-';
+    }
+    uint64_t abs = minor < 0 ? 0 - (uint64_t) minor : (uint64_t) minor;
+    char digits[24];
+    snprintf(digits, sizeof(digits), "%llu.%02llu", (unsigned long long) (abs / PRICE_SCALE),
+             (unsigned long long) (abs % PRICE_SCALE));
+    line += digits;
+}
+
+static void exportLine(std::string &line, int phase, sqlite3_stmt *stmt) {
+    line.clear();
+    if (phase == 0) {
+        line += "{\"type\":\"shop\",\"id\":";
+        line += std::to_string(sqlite3_column_int64(stmt, 0));
+        line += ",\"name\":";
+        appendJsonString(line, stmt, 1);
+    } else {
+        line += "{\"type\":\"product\",\"id\":";
+        line += std::to_string(sqlite3_column_int64(stmt, 0));
+        line += ",\"shop\":";
+        line += std::to_string(sqlite3_column_int64(stmt, 1));
+        line += ",\"name\":";
+        appendJsonString(line, stmt, 2);
+        line += ",\"price\":";
+        appendMinorUnits(line, sqlite3_column_int64(stmt, 3));
+        line += sqlite3_column_int(stmt, 4) ? ",\"bought\":true" : ",\"bought\":false";
+        line += ",\"description\":";
+        appendJsonString(line, stmt, 5);
+    }
+    line += "}\n";
+}
+
+// Fills `out` with whole export lines starting after the position in `cursor`
+// ({phase, last id, lines so far}, all 0 for the start) and advances it. Returns bytes written, 0 once
+// everything is exported, -(bytes needed) when a single line does not fit, or ROWS_ERROR.
+// Each call is its own read transaction: the caller keeps writes out between calls.
+extern "C" JNIEXPORT jint JNICALL
+Java_com_example_shoppinglistapp_NativeDb_exportRows(JNIEnv *env, jclass, jlongArray cursor, jobject out) {
+    OperationTimer timer(OP_EXPORT_ROWS);
+    Session::Lease conn = session.reader();
+    if (!conn) {
+        LOGE("Database not initialized");
+        return ROWS_ERROR;
+    }
+    sqlite3 *db = conn->db;
+    jlong position[3];
+    env->GetLongArrayRegion(cursor, 0, 3, position);
+    auto *dst = static_cast<uint8_t *>(env->GetDirectBufferAddress(out));
+    jlong capacity = env->GetDirectBufferCapacity(out);
+    if (!dst) {
+        LOGE("Export buffer is not direct");
+        return ROWS_ERROR;
+    }
+    jlong written = 0;
+    std::string line;
+    bool full = false;
+    while (position[0] < EXPORT_DONE && !full) {
+        int phase = (int) position[0];
+        std::string sql = EXPORT_SQL[phase];
+        StatementTrace trace("query", sql);
+        LOGD("Preparing SQL: %s", sql.c_str());
+        sqlite3_stmt *stmt;
+        int rc = conn->prepare(sql, &stmt);
+        if (rc != SQLITE_OK) {
+            std::string errmsg = sqlite3_errmsg(db);
+            trace.fail(rc, errmsg);
+            LOGE("Prepare error: %s", errmsg.c_str());
+            return ROWS_ERROR;
+        }
+        sqlite3_bind_int64(stmt, 1, position[1]);
+        int count = 0;
+        while ((rc = sqlite3_step(stmt)) == SQLITE_ROW) {
+            exportLine(line, phase, stmt);
+            if (written + (jlong) line.size() > capacity) {
+                full = true;
+                break;
+            }
+            memcpy(dst + written, line.data(), line.size());
+            written += (jlong) line.size();
+            position[1] = sqlite3_column_int64(stmt, 0);
+            position[2]++;
+            count++;
+        }
+        if (!full && rc != SQLITE_DONE) {
+            std::string errmsg = sqlite3_errmsg(db);
+            trace.fail(rc, errmsg);
+            LOGE("Step error: %s", errmsg.c_str());
+            StatementCache::release(stmt);
+            return ROWS_ERROR;
+        }
+        StatementCache::release(stmt);
+        trace.setRows(count);
+        if (!full) {
+            position[0]++;
+            position[1] = 0;
+        }
+    }
+    env->SetLongArrayRegion(cursor, 0, 3, position);
+    if (full && written == 0) {
+        return -(jint) line.size();
+    }
+    return (jint) written;
+}
+
+// Runs `sql` once per id with one reused statement, binding `value` first when given and the
+// id last. Runs inside the caller's transaction if one is open, otherwise in its own, so a
+// bulk action on any number of rows costs a single commit. Returns the error, empty on success.
+static std::string writeEachId(JNIEnv *env, Connection *conn, const std::string &sql, jintArray ids,
+                               const jint *value) {
+    sqlite3 *db = conn->db;
+    jsize count = env->GetArrayLength(ids);
+    std::vector<jint> idValues(count);
+    env->GetIntArrayRegion(ids, 0, count, idValues.data());
+
+    StatementTrace trace("write", sql);
+    LOGD("Preparing SQL: %s", sql.c_str());
+    sqlite3_stmt *stmt;
+    int rc = conn->prepare(sql, &stmt);
+    if (rc != SQLITE_OK) {
+        std::string errmsg = sqlite3_errmsg(db);
+        trace.fail(rc, errmsg);
+        LOGE("Prepare error: %s", errmsg.c_str());
+        return errmsg;
+    }
+    bool ownTransaction = sqlite3_get_autocommit(db);
+    if (ownTransaction) {
+        std::string err = executeWithLog(db, "BEGIN IMMEDIATE;");
+        if (!err.empty()) return err;
+    }
+    int changed = 0;
+    for (jsize i = 0; i < count; i++) {
+        int param = 1;
+        if (value) sqlite3_bind_int(stmt, param++, *value);
+        sqlite3_bind_int(stmt, param, idValues[i]);
+        rc = sqlite3_step(stmt);
+        StatementCache::release(stmt);
+        if (rc != SQLITE_DONE) {
+            std::string errmsg = sqlite3_errmsg(db);
+            trace.fail(rc, errmsg);
+            LOGE("Step error: %s", errmsg.c_str());
+            if (ownTransaction) executeWithLog(db, "ROLLBACK;");
+            return errmsg;
+        }
+        changed += sqlite3_changes(db);
+    }
+    trace.setRows(changed);
+    if (ownTransaction) {
+        std::string err = executeWithLog(db, "COMMIT;");
+        if (!err.empty()) {
+            executeWithLog(db, "ROLLBACK;");
+            return err;
+        }
+    }
+    return "";
+}
+
+extern "C" JNIEXPORT jstring JNICALL
+Java_com_example_shoppinglistapp_NativeDb_deleteProducts(JNIEnv *env, jclass, jintArray ids) {
+    OperationTimer timer(OP_DELETE_PRODUCTS);
+    Session::Lease conn = session.writer();
+    if (!conn) {
+        LOGE("Database not initialized");
+        return env->NewStringUTF("Database not initialized");
+    }
+    std::string err = writeEachId(env, conn.get(), "DELETE FROM products WHERE id = ?;", ids, nullptr);
+    if (!err.empty()) return env->NewStringUTF(err.c_str());
+    return nullptr;
+}
+
+// shop_totals of both shops follow through the shop_totals_au trigger.
+extern "C" JNIEXPORT jstring JNICALL
+Java_com_example_shoppinglistapp_NativeDb_moveProducts(JNIEnv *env, jclass, jintArray ids, jint shopId) {
+    OperationTimer timer(OP_MOVE_PRODUCTS);
+    Session::Lease conn = session.writer();
+    if (!conn) {
+        LOGE("Database not initialized");
+        return env->NewStringUTF("Database not initialized");
+    }
+    std::string err = writeEachId(env, conn.get(), "UPDATE products SET shop_id = ? WHERE id = ?;", ids, &shopId);
+    if (!err.empty()) return env->NewStringUTF(err.c_str());
+    return nullptr;
+}
+
+// Products go with their shops through ON DELETE CASCADE.
+extern "C" JNIEXPORT jstring JNICALL
+Java_com_example_shoppinglistapp_NativeDb_deleteShops(JNIEnv *env, jclass, jintArray ids) {
+    OperationTimer timer(OP_DELETE_SHOPS);
+    Session::Lease conn = session.writer();
+    if (!conn) {
+        LOGE("Database not initialized");
+        return env->NewStringUTF("Database not initialized");
+    }
+    std::string err = writeEachId(env, conn.get(), "DELETE FROM shops WHERE id = ?;", ids, nullptr);
+    if (!err.empty()) return env->NewStringUTF(err.c_str());
+    return nullptr;
+}
+
+// Runs the single-row query once per id with one prepared statement: the id is bound
+// first, then the optional second value. Ids without a row are left out.
+static jint readEachId(JNIEnv *env, Connection *conn, const std::string &sql, jintArray ids, const jint *value,
+                       void (*writeRow)(sqlite3_stmt *, RowWriter &), jobject out) {
+    sqlite3 *db = conn->db;
+    jsize count = env->GetArrayLength(ids);
+    std::vector<jint> idValues(count);
+    env->GetIntArrayRegion(ids, 0, count, idValues.data());
+
+    StatementTrace trace("query", sql);
+    LOGD("Preparing SQL: %s", sql.c_str());
+    sqlite3_stmt *stmt;
+    int rc = conn->prepare(sql, &stmt);
+    if (rc != SQLITE_OK) {
+        std::string errmsg = sqlite3_errmsg(db);
+        trace.fail(rc, errmsg);
+        LOGE("Prepare error: %s", errmsg.c_str());
+        return ROWS_ERROR;
+    }
+    RowWriter rows;
+    for (jsize i = 0; i < count; i++) {
+        sqlite3_bind_int(stmt, 1, idValues[i]);
+        if (value) sqlite3_bind_int(stmt, 2, *value);
+        rc = sqlite3_step(stmt);
+        if (rc == SQLITE_ROW) {
+            writeRow(stmt, rows);
+        }
+        if (rc != SQLITE_ROW && rc != SQLITE_DONE) {
+            std::string errmsg = sqlite3_errmsg(db);
+            trace.fail(rc, errmsg);
+            LOGE("Step error: %s", errmsg.c_str());
+            StatementCache::release(stmt);
+            return ROWS_ERROR;
+        }
+        StatementCache::release(stmt);
+    }
+    trace.setRows(rows.count);
+    return rows.copyTo(env, out);
+}
+
+// Current rows of the given shops in getShops format, for patching a list after a change.
+extern "C" JNIEXPORT jint JNICALL
+Java_com_example_shoppinglistapp_NativeDb_getShopsById(JNIEnv *env, jclass, jintArray ids, jobject out) {
+    OperationTimer timer(OP_GET_SHOPS_BY_ID);
+    Session::Lease conn = session.reader();
+    if (!conn) {
+        LOGE("Database not initialized");
+        return ROWS_ERROR;
+    }
+    return readEachId(env, conn.get(), SHOP_BY_ID_SQL, ids, nullptr, writeShopRow, out);
+}
+
+// Current rows of those of the given products that belong to the shop.
+extern "C" JNIEXPORT jint JNICALL
+Java_com_example_shoppinglistapp_NativeDb_getProductsById(JNIEnv *env, jclass, jintArray ids, jint shopId,
+                                                          jobject out) {
+    OperationTimer timer(OP_GET_PRODUCTS_BY_ID);
+    Session::Lease conn = session.reader();
+    if (!conn) {
+        LOGE("Database not initialized");
+        return ROWS_ERROR;
+    }
+    return readEachId(env, conn.get(), PRODUCT_BY_ID_SQL, ids, &shopId, writeProductRow, out);
+}
+
+// Fields of the report filled by runMaintenance, mirrored in MaintenanceReport.java
+enum MaintenanceField {
+    MAINT_PAGE_SIZE,
+    MAINT_PAGES_BEFORE,
+    MAINT_FREE_PAGES_BEFORE,
+    MAINT_WAL_BYTES_BEFORE,
+    MAINT_PAGES_AFTER,
+    MAINT_FREE_PAGES_AFTER,
+    MAINT_WAL_BYTES_AFTER,
+    MAINT_OPTIMIZE_MICROS,
+    MAINT_VACUUM_MICROS,
+    MAINT_CHECKPOINT_MICROS,
+    MAINT_FULL_VACUUM,
+    MAINT_CHECKPOINT_BUSY,
+    MAINT_FIELD_COUNT
+};
+
+// Rows the planner samples per index when PRAGMA optimize re-analyzes a table
+static const int ANALYSIS_LIMIT = 400;
+
+static sqlite3_int64 pragmaValue(sqlite3 *db, const char *pragma) {
+    sqlite3_stmt *stmt;
+    sqlite3_int64 value = -1;
+    if (sqlite3_prepare_v2(db, pragma, -1, &stmt, nullptr) == SQLITE_OK) {
+        if (sqlite3_step(stmt) == SQLITE_ROW) value = sqlite3_column_int64(stmt, 0);
+        sqlite3_finalize(stmt);
+    }
+    return value;
+}
+
+static sqlite3_int64 walBytes(sqlite3 *db) {
+    const char *path = sqlite3_db_filename(db, "main");
+    struct stat st;
+    if (!path || !*path || stat((std::string(path) + "-wal").c_str(), &st) != 0) return 0;
+    return st.st_size;
+}
+
+// Idle-time upkeep on the writer: merges the full-text index and refreshes planner
+// statistics, returns free pages to the file system and checkpoints the WAL into the
+// database, truncating it. A database created before incremental vacuum was enabled is
+// rebuilt once with VACUUM to switch it over. Fills report (MaintenanceField) with the
+// file size and free pages before and after and the time of each step; returns the error,
+// null on success. Must not run inside a transaction.
+extern "C" JNIEXPORT jstring JNICALL
+Java_com_example_shoppinglistapp_NativeDb_runMaintenance(JNIEnv *env, jclass, jlongArray report) {
+    OperationTimer timer(OP_MAINTENANCE);
+    Session::Lease conn = session.writer();
+    if (!conn) {
+        LOGE("Database not initialized");
+        return env->NewStringUTF("Database not initialized");
+    }
+    sqlite3 *db = conn->db;
+    if (!sqlite3_get_autocommit(db)) {
+        return env->NewStringUTF("Maintenance cannot run inside a transaction");
+    }
+    jlong fields[MAINT_FIELD_COUNT] = {};
+    fields[MAINT_PAGE_SIZE] = pragmaValue(db, "PRAGMA page_size;");
+    fields[MAINT_PAGES_BEFORE] = pragmaValue(db, "PRAGMA page_count;");
+    fields[MAINT_FREE_PAGES_BEFORE] = pragmaValue(db, "PRAGMA freelist_count;");
+    fields[MAINT_WAL_BYTES_BEFORE] = walBytes(db);
+
+    int64_t start = steadyMicros();
+    std::string err = executeWithLog(db, "INSERT INTO products_fts (products_fts) VALUES ('optimize');");
+    if (err.empty()) err = executeWithLog(db, "PRAGMA analysis_limit = " + std::to_string(ANALYSIS_LIMIT) + ";");
+    if (err.empty()) err = executeWithLog(db, "PRAGMA optimize;");
+    fields[MAINT_OPTIMIZE_MICROS] = steadyMicros() - start;
+
+    if (err.empty()) {
+        start = steadyMicros();
+        if (pragmaValue(db, "PRAGMA auto_vacuum;") != 2) {
+            // open already asked for INCREMENTAL; VACUUM applies it
+            err = executeWithLog(db, "VACUUM;");
+            fields[MAINT_FULL_VACUUM] = 1;
+        } else {
+            err = executeWithLog(db, "PRAGMA incremental_vacuum;");
+        }
+        fields[MAINT_VACUUM_MICROS] = steadyMicros() - start;
+    }
+
+    if (err.empty()) {
+        start = steadyMicros();
+        StatementTrace trace("exec", "PRAGMA wal_checkpoint(TRUNCATE);");
+        int rc = sqlite3_wal_checkpoint_v2(db, nullptr, SQLITE_CHECKPOINT_TRUNCATE, nullptr, nullptr);
+        if (rc == SQLITE_BUSY) {
+            // A reader still uses old frames; they are copied by a later checkpoint
+            fields[MAINT_CHECKPOINT_BUSY] = 1;
+        } else if (rc != SQLITE_OK) {
+            err = sqlite3_errmsg(db);
+            trace.fail(rc, err);
+        }
+        fields[MAINT_CHECKPOINT_MICROS] = steadyMicros() - start;
+    }
+
+    fields[MAINT_PAGES_AFTER] = pragmaValue(db, "PRAGMA page_count;");
+    fields[MAINT_FREE_PAGES_AFTER] = pragmaValue(db, "PRAGMA freelist_count;");
+    fields[MAINT_WAL_BYTES_AFTER] = walBytes(db);
+    env->SetLongArrayRegion(report, 0, MAINT_FIELD_COUNT, fields);
+    LOGD("Maintenance: %lld -> %lld pages, %lld -> %lld free",
+         (long long) fields[MAINT_PAGES_BEFORE], (long long) fields[MAINT_PAGES_AFTER],
+         (long long) fields[MAINT_FREE_PAGES_BEFORE], (long long) fields[MAINT_FREE_PAGES_AFTER]);
+    if (!err.empty()) {
+        LOGE("Maintenance error: %s", err.c_str());
+        return env->NewStringUTF(err.c_str());
+    }
+    return nullptr;
+}
+
+// Sync (SyncEngine.java). Changes travel as rows of: long version, int entity (ChangeTable),
+// byte deleted, text global id, text origin device, text global id of the product's shop,
+// text name, long price in minor units, byte bought, text description. A deletion carries
+// only the first five. Mirrored in SyncChange.java.
+
+// Local changes not yet pushed, oldest first; the shop of a product is referred to by its global id
+static const char *const SYNC_EXPORT_SQL =
+        "SELECT j.version, j.entity, j.deleted, j.gid, j.origin, sj.gid, COALESCE(s.name, p.name), p.price,"
+        " p.bought, p.description FROM sync_journal j"
+        " LEFT JOIN shops s ON j.entity = 0 AND s.id = j.row_id"
+        " LEFT JOIN products p ON j.entity = 1 AND p.id = j.row_id"
+        " LEFT JOIN sync_journal sj ON sj.entity = 0 AND sj.row_id = p.shop_id"
+        " WHERE j.version > ?1 AND j.origin = (SELECT device FROM sync_state) ORDER BY j.version LIMIT ?2;";
+
+// Fills `out` with up to `limit` local changes newer than cursor[0], a version, and moves the
+// cursor to the last one. Returns bytes written, -(bytes needed) without moving the cursor
+// when they do not fit, or ROWS_ERROR.
+extern "C" JNIEXPORT jint JNICALL
+Java_com_example_shoppinglistapp_NativeDb_exportChanges(JNIEnv *env, jclass, jlongArray cursor, jint limit,
+                                                        jobject out) {
+    OperationTimer timer(OP_EXPORT_CHANGES);
+    Session::Lease conn = session.reader();
+    if (!conn) {
+        LOGE("Database not initialized");
+        return ROWS_ERROR;
+    }
+    sqlite3 *db = conn->db;
+    jlong version;
+    env->GetLongArrayRegion(cursor, 0, 1, &version);
+    std::string sql = SYNC_EXPORT_SQL;
+    StatementTrace trace("query", sql);
+    sqlite3_stmt *stmt;
+    int rc = conn->prepare(sql, &stmt);
+    if (rc != SQLITE_OK) {
+        std::string errmsg = sqlite3_errmsg(db);
+        trace.fail(rc, errmsg);
+        LOGE("Prepare error: %s", errmsg.c_str());
+        return ROWS_ERROR;
+    }
+    sqlite3_bind_int64(stmt, 1, version);
+    sqlite3_bind_int(stmt, 2, limit);
+    RowWriter rows;
+    jlong last = version;
+    while ((rc = sqlite3_step(stmt)) == SQLITE_ROW) {
+        last = sqlite3_column_int64(stmt, 0);
+        rows.putLong(last);
+        rows.putInt(sqlite3_column_int(stmt, 1));
+        rows.putByte(sqlite3_column_int(stmt, 2) != 0);
+        rows.putText(stmt, 3);
+        rows.putText(stmt, 4);
+        rows.putText(stmt, 5);
+        rows.putText(stmt, 6);
+        rows.putLong(sqlite3_column_int64(stmt, 7));
+        rows.putByte(sqlite3_column_int(stmt, 8) != 0);
+        rows.putText(stmt, 9);
+        rows.endRow();
+    }
+    StatementCache::release(stmt);
     if (rc != SQLITE_DONE) {
         std::string errmsg = sqlite3_errmsg(db);
-        logs.push_back("ERROR in step: " + errmsg);
+        trace.fail(rc, errmsg);
         LOGE("Step error: %s", errmsg.c_str());
-        sqlite3_finalize(stmt);
+        return ROWS_ERROR;
+    }
+    trace.setRows(rows.count);
+    jint written = rows.copyTo(env, out);
+    if (written >= 0) env->SetLongArrayRegion(cursor, 0, 1, &last);
+    return written;
+}
+
+// The journal row of a global id
+struct JournalEntry {
+    bool found = false;
+    sqlite3_int64 rowId = 0;
+    bool hasRow = false;
+    sqlite3_int64 version = 0;
+    std::string origin;
+    bool deleted = false;
+};
+
+// Cached statements on sync_state, sync_journal and the rows changes are applied to, run on
+// one connection; the first error is kept. Which of two changes of a row wins is decided the
+// same way on every device and on the server (SyncChange.supersedes): a deletion is final,
+// otherwise the higher version wins and the greater origin breaks a tie.
+class SyncStore {
+public:
+    explicit SyncStore(Connection *conn) : conn_(conn) {}
+
+    const std::string &error() const { return error_; }
+    sqlite3 *db() const { return conn_->db; }
+
+    // Steps the statement to the end, passing each result row to readRow
+
+    bool run(const char *sql, const std::function<void(sqlite3_stmt *)> &bind,
+             const std::function<void(sqlite3_stmt *)> &readRow = nullptr) {
+        sqlite3_stmt *stmt;
+        int rc = conn_->prepare(sql, &stmt);
+        if (rc != SQLITE_OK) return fail();
+        bind(stmt);
+        while ((rc = sqlite3_step(stmt)) == SQLITE_ROW) {
+            if (readRow) readRow(stmt);
+        }
+        StatementCache::release(stmt);
+        return rc == SQLITE_DONE || fail();
+    }
+
+    bool lookup(const char *gid, int32_t gidLen, JournalEntry *entry) {
+        *entry = JournalEntry();
+        return run("SELECT row_id, version, origin, deleted FROM sync_journal WHERE gid = ?;",
+                   [&](sqlite3_stmt *stmt) { sqlite3_bind_text(stmt, 1, gid, gidLen, SQLITE_STATIC); },
+                   [&](sqlite3_stmt *stmt) {
+                       entry->found = true;
+                       entry->hasRow = sqlite3_column_type(stmt, 0) != SQLITE_NULL;
+                       entry->rowId = sqlite3_column_int64(stmt, 0);
+                       entry->version = sqlite3_column_int64(stmt, 1);
+                       entry->origin = reinterpret_cast<const char *>(sqlite3_column_text(stmt, 2));
+                       entry->deleted = sqlite3_column_int(stmt, 3) != 0;
+                   });
+    }
+
+    bool journal(const char *gid, int32_t gidLen, int entity, const JournalEntry &row, sqlite3_int64 version,
+                 const char *origin, int32_t originLen, bool deleted) {
+        return run("INSERT OR REPLACE INTO sync_journal (gid, entity, row_id, version, origin, deleted)"
+                   " VALUES (?, ?, ?, ?, ?, ?);",
+                   [&](sqlite3_stmt *stmt) {
+                       sqlite3_bind_text(stmt, 1, gid, gidLen, SQLITE_STATIC);
+                       sqlite3_bind_int(stmt, 2, entity);
+                       if (row.hasRow) sqlite3_bind_int64(stmt, 3, row.rowId);
+                       sqlite3_bind_int64(stmt, 4, version);
+                       sqlite3_bind_text(stmt, 5, origin, originLen, SQLITE_STATIC);
+                       sqlite3_bind_int(stmt, 6, deleted);
+                   });
+    }
+
+    bool deleteRow(const char *sql, sqlite3_int64 id) {
+        return run(sql, [&](sqlite3_stmt *stmt) { sqlite3_bind_int64(stmt, 1, id); });
+    }
+
+    static bool supersedes(sqlite3_int64 version, const char *origin, int32_t originLen, bool deleted,
+                           const JournalEntry &local) {
+        if (!local.found) return true;
+        if (local.deleted) return false;
+        if (deleted) return true;
+        if (version != local.version) return version > local.version;
+        return std::string(origin, originLen) > local.origin;
+    }
+
+private:
+    bool fail() {
+        error_ = sqlite3_errmsg(conn_->db);
+        return false;
+    }
+
+    Connection *conn_;
+    std::string error_;
+};
+
+static bool applyChange(SyncStore &store, RowReader &reader, bool *malformed) {
+    int64_t version, price;
+    int32_t entity, gidLen, originLen, shopGidLen, nameLen, descLen;
+    uint8_t deletedByte, bought;
+    const char *gid, *origin, *shopGid, *name, *desc;
+    if (!reader.getLong(&version) || !reader.getInt(&entity) || !reader.getByte(&deletedByte)
+        || !reader.getText(&gid, &gidLen) || !reader.getText(&origin, &originLen)
+        || !reader.getText(&shopGid, &shopGidLen) || !reader.getText(&name, &nameLen)
+        || !reader.getLong(&price) || !reader.getByte(&bought) || !reader.getText(&desc, &descLen)
+        || !gid || !origin || (entity != CHANGE_SHOPS && entity != CHANGE_PRODUCTS)) {
+        *malformed = true;
+        return false;
+    }
+    bool deleted = deletedByte != 0;
+    if (!deleted && (!name || (entity == CHANGE_PRODUCTS && !shopGid))) {
+        *malformed = true;
+        return false;
+    }
+    JournalEntry local;
+    if (!store.lookup(gid, gidLen, &local)) return false;
+    if (!SyncStore::supersedes(version, origin, originLen, deleted, local)) return true;
+
+    if (entity == CHANGE_SHOPS) {
+        if (deleted) {
+            if (local.hasRow) {
+                // Cascaded deletes are not journaled while applying; the shop's tombstone stands for them
+                if (!store.run("UPDATE sync_journal SET deleted = 1 WHERE entity = 1"
+                                 " AND row_id IN (SELECT id FROM products WHERE shop_id = ?);",
+                                 [&](sqlite3_stmt *stmt) { sqlite3_bind_int64(stmt, 1, local.rowId); })
+                    || !store.deleteRow("DELETE FROM shops WHERE id = ?;", local.rowId)) {
+                    return false;
+                }
+            }
+        } else if (local.hasRow) {
+            if (!store.run("UPDATE shops SET name = ? WHERE id = ?;", [&](sqlite3_stmt *stmt) {
+                sqlite3_bind_text(stmt, 1, name, nameLen, SQLITE_STATIC);
+                sqlite3_bind_int64(stmt, 2, local.rowId);
+            })) {
+                return false;
+            }
+        } else {
+            if (!store.run("INSERT INTO shops (name) VALUES (?);",
+                             [&](sqlite3_stmt *stmt) { sqlite3_bind_text(stmt, 1, name, nameLen, SQLITE_STATIC); })) {
+                return false;
+            }
+            local.rowId = sqlite3_last_insert_rowid(store.db());
+            local.hasRow = true;
+        }
+        return store.journal(gid, gidLen, CHANGE_SHOPS, local, version, origin, originLen, deleted);
+    }
+
+    sqlite3_int64 shopId = 0;
+    if (!deleted) {
+        JournalEntry shop;
+        if (!store.lookup(shopGid, shopGidLen, &shop)) return false;
+        if (!shop.found) {
+            // The shop's own change comes in a later batch; until then it is an unnamed shop
+            // at version 0, which any change of it supersedes
+            if (!store.run("INSERT INTO shops (name) VALUES ('');", [](sqlite3_stmt *) {})) return false;
+            shop.rowId = sqlite3_last_insert_rowid(store.db());
+            shop.hasRow = true;
+            if (!store.journal(shopGid, shopGidLen, CHANGE_SHOPS, shop, 0, "", 0, false)) return false;
+        }
+        // A product of a deleted shop is deleted with it
+        deleted = shop.deleted || !shop.hasRow;
+        shopId = shop.rowId;
+    }
+    if (deleted) {
+        if (local.hasRow && !store.deleteRow("DELETE FROM products WHERE id = ?;", local.rowId)) return false;
+    } else if (local.hasRow) {
+        if (!store.run("UPDATE products SET shop_id = ?, name = ?, price = ?, bought = ?, description = ? WHERE id = ?;",
+                         [&](sqlite3_stmt *stmt) {
+                             sqlite3_bind_int64(stmt, 1, shopId);
+                             sqlite3_bind_text(stmt, 2, name, nameLen, SQLITE_STATIC);
+                             sqlite3_bind_int64(stmt, 3, price);
+                             sqlite3_bind_int(stmt, 4, bought != 0);
+                             if (desc) sqlite3_bind_text(stmt, 5, desc, descLen, SQLITE_STATIC);
+                             sqlite3_bind_int64(stmt, 6, local.rowId);
+                         })) {
+            return false;
+        }
+    } else {
+        if (!store.run("INSERT INTO products (shop_id, name, price, bought, description) VALUES (?, ?, ?, ?, ?);",
+                         [&](sqlite3_stmt *stmt) {
+                             sqlite3_bind_int64(stmt, 1, shopId);
+                             sqlite3_bind_text(stmt, 2, name, nameLen, SQLITE_STATIC);
+                             sqlite3_bind_int64(stmt, 3, price);
+                             sqlite3_bind_int(stmt, 4, bought != 0);
+                             if (desc) sqlite3_bind_text(stmt, 5, desc, descLen, SQLITE_STATIC);
+                         })) {
+            return false;
+        }
+        local.rowId = sqlite3_last_insert_rowid(store.db());
+        local.hasRow = true;
+    }
+    return store.journal(gid, gidLen, CHANGE_PRODUCTS, local, version, origin, originLen, deleted);
+}
+
+// Applies changes pulled from the server (int count, then rows as written by exportChanges)
+// and stores pullCursor, the server's position after them, in the same transaction. Changes
+// a row already has, or that lose to its current version, are skipped, so a batch can be
+// applied twice. Returns the error, null on success.
+extern "C" JNIEXPORT jstring JNICALL
+Java_com_example_shoppinglistapp_NativeDb_applyChanges(JNIEnv *env, jclass, jobject rows, jint length,
+                                                       jlong pullCursor) {
+    OperationTimer timer(OP_APPLY_CHANGES);
+    Session::Lease conn = session.writer();
+    if (!conn) {
+        LOGE("Database not initialized");
+        return env->NewStringUTF("Database not initialized");
+    }
+    sqlite3 *db = conn->db;
+    auto *data = static_cast<const uint8_t *>(env->GetDirectBufferAddress(rows));
+    if (!data || length > env->GetDirectBufferCapacity(rows)) {
+        return env->NewStringUTF("Rows must be a direct buffer");
+    }
+    RowReader reader(data, length);
+    int32_t count;
+    if (!reader.getInt(&count)) {
+        return env->NewStringUTF("Malformed change batch");
+    }
+    StatementTrace trace("batch", "applyChanges");
+    bool ownTransaction = sqlite3_get_autocommit(db);
+    if (ownTransaction) {
+        std::string err = executeWithLog(db, "BEGIN IMMEDIATE;");
+        if (!err.empty()) return env->NewStringUTF(err.c_str());
+    }
+    SyncStore store(conn.get());
+    std::string errmsg;
+    bool malformed = false;
+    int applied = 0;
+    if (!store.run("UPDATE sync_state SET applying = 1;", [](sqlite3_stmt *) {})) {
+        errmsg = store.error();
+    }
+    for (; errmsg.empty() && applied < count; applied++) {
+        if (!applyChange(store, reader, &malformed)) {
+            errmsg = malformed ? "Malformed change batch" : store.error();
+            break;
+        }
+    }
+    if (errmsg.empty() && !store.run("UPDATE sync_state SET applying = 0, pull_cursor = ?;", [&](sqlite3_stmt *stmt) {
+        sqlite3_bind_int64(stmt, 1, pullCursor);
+    })) {
+        errmsg = store.error();
+    }
+    trace.setRows(applied);
+    if (!errmsg.empty()) {
+        trace.fail(malformed ? SQLITE_MISUSE : sqlite3_errcode(db), errmsg);
+        LOGE("Apply error at change %d: %s", applied, errmsg.c_str());
+        if (ownTransaction) {
+            executeWithLog(db, "ROLLBACK;");
+        } else {
+            executeWithLog(db, "UPDATE sync_state SET applying = 0;");
+        }
         return env->NewStringUTF(errmsg.c_str());
     }
-    sqlite3_finalize(stmt);
+    if (ownTransaction) {
+        std::string err = executeWithLog(db, "COMMIT;");
+        if (!err.empty()) {
+            executeWithLog(db, "ROLLBACK;");
+            return env->NewStringUTF(err.c_str());
+        }
+    }
     return nullptr;
 }
 
+// This device's id in the global ids and origins of its changes, or null.
+extern "C" JNIEXPORT jstring JNICALL
+Java_com_example_shoppinglistapp_NativeDb_getDeviceId(JNIEnv *env, jclass) {
+    OperationTimer timer(OP_SYNC_STATE);
+    Session::Lease conn = session.reader();
+    if (!conn) {
+        LOGE("Database not initialized");
+        return nullptr;
+    }
+    std::string device;
+    SyncStore store(conn.get());
+    if (!store.run("SELECT device FROM sync_state;", [](sqlite3_stmt *) {}, [&](sqlite3_stmt *stmt) {
+        device = reinterpret_cast<const char *>(sqlite3_column_text(stmt, 0));
+    }) || device.empty()) {
+        return nullptr;
+    }
+    return env->NewStringUTF(device.c_str());
+}
+
+// {push cursor, pull cursor}: the version of the last local change the server has and the
+// server's position after the last change applied here; null on failure.
+extern "C" JNIEXPORT jlongArray JNICALL
+Java_com_example_shoppinglistapp_NativeDb_getSyncCursors(JNIEnv *env, jclass) {
+    OperationTimer timer(OP_SYNC_STATE);
+    Session::Lease conn = session.reader();
+    if (!conn) {
+        LOGE("Database not initialized");
+        return nullptr;
+    }
+    jlong cursors[2];
+    bool found = false;
+    SyncStore store(conn.get());
+    if (!store.run("SELECT push_cursor, pull_cursor FROM sync_state;", [](sqlite3_stmt *) {},
+                    [&](sqlite3_stmt *stmt) {
+                        cursors[0] = sqlite3_column_int64(stmt, 0);
+                        cursors[1] = sqlite3_column_int64(stmt, 1);
+                        found = true;
+                    }) || !found) {
+        return nullptr;
+    }
+    jlongArray ret = env->NewLongArray(2);
+    env->SetLongArrayRegion(ret, 0, 2, cursors);
+    return ret;
+}
+
+// Records that the server has every local change up to this version.
+extern "C" JNIEXPORT jstring JNICALL
+Java_com_example_shoppinglistapp_NativeDb_setPushCursor(JNIEnv *env, jclass, jlong version) {
+    OperationTimer timer(OP_SYNC_STATE);
+    Session::Lease conn = session.writer();
+    if (!conn) {
+        LOGE("Database not initialized");
+        return env->NewStringUTF("Database not initialized");
+    }
+    SyncStore store(conn.get());
+    if (!store.run("UPDATE sync_state SET push_cursor = ?;",
+                    [&](sqlite3_stmt *stmt) { sqlite3_bind_int64(stmt, 1, version); })) {
+        return env->NewStringUTF(store.error().c_str());
+    }
+    return nullptr;
+}
+
+// Changes committed since the previous call; see ChangeLog.
+extern "C" JNIEXPORT jint JNICALL
+Java_com_example_shoppinglistapp_NativeDb_takeChanges(JNIEnv *env, jclass, jobject out) {
+    Session::Lease conn = session.writer();
+    if (!conn) {
+        return ROWS_ERROR;
+    }
+    return session.changes().drain(env, out);
+}
+
 extern "C" JNIEXPORT jobjectArray JNICALL
-Java_com_example_shoppinglistapp_MainActivity_getLogs(JNIEnv *env, jobject) {
-    LOGD("Fetching logs, size: %zu", logs.size());
-    jobjectArray ret = env->NewObjectArray(logs.size(), env->FindClass("java/lang/String"), nullptr);
-    for (size_t i = 0; i < logs.size(); ++i) {
-        env->SetObjectArrayElement(ret, i, env->NewStringUTF(logs[i].c_str()));
+Java_com_example_shoppinglistapp_NativeDb_getLogs(JNIEnv *env, jclass) {
+    std::vector<std::string> entries = sqlTrace.format();
+    LOGD("Fetching logs, size: %zu", entries.size());
+    jobjectArray ret = env->NewObjectArray(entries.size(), env->FindClass("java/lang/String"), nullptr);
+    for (size_t i = 0; i < entries.size(); ++i) {
+        jstring line = env->NewStringUTF(entries[i].c_str());
+        env->SetObjectArrayElement(ret, i, line);
+        env->DeleteLocalRef(line);
     }
     return ret;
 }
 
+// Clears the trace, the latency histograms and the cancelled query count
 extern "C" JNIEXPORT void JNICALL
-Java_com_example_shoppinglistapp_MainActivity_clearLogs(JNIEnv *env, jobject) {
+Java_com_example_shoppinglistapp_NativeDb_clearLogs(JNIEnv *env, jclass) {
     LOGD("Clearing logs");
-    logs.clear();
-}
\ No newline at end of file
+    sqlTrace.clear();
+    for (auto &histogram : latencies) histogram.reset();
+    cancelledQueries = 0;
+}
+
+extern "C" JNIEXPORT jobjectArray JNICALL
+Java_com_example_shoppinglistapp_NativeDb_getOperationNames(JNIEnv *env, jclass) {
+    jobjectArray ret = env->NewObjectArray(OP_COUNT, env->FindClass("java/lang/String"), nullptr);
+    for (int i = 0; i < OP_COUNT; i++) {
+        jstring name = env->NewStringUTF(OPERATION_NAMES[i]);
+        env->SetObjectArrayElement(ret, i, name);
+        env->DeleteLocalRef(name);
+    }
+    return ret;
+}
+
+// Per operation, in getOperationNames order: count, p50, p95, p99, max (microseconds)
+extern "C" JNIEXPORT jlongArray JNICALL
+Java_com_example_shoppinglistapp_NativeDb_getLatencyStats(JNIEnv *env, jclass) {
+    const int fields = 5;
+    jlong stats[OP_COUNT * fields];
+    for (int i = 0; i < OP_COUNT; i++) {
+        const LatencyHistogram &histogram = latencies[i];
+        stats[i * fields] = histogram.count();
+        stats[i * fields + 1] = histogram.percentile(0.50);
+        stats[i * fields + 2] = histogram.percentile(0.95);
+        stats[i * fields + 3] = histogram.percentile(0.99);
+        stats[i * fields + 4] = histogram.max();
+    }
+    jlongArray ret = env->NewLongArray(OP_COUNT * fields);
+    env->SetLongArrayRegion(ret, 0, OP_COUNT * fields, stats);
+    return ret;
+}
+
+// Stops getProducts, getProductsPage or searchAllShops started with this token, whether it
+// is running or still waiting for a reader. Safe to call from any thread at any time.
+extern "C" JNIEXPORT void JNICALL
+Java_com_example_shoppinglistapp_NativeDb_cancelQuery(JNIEnv *, jclass, jlong token) {
+    if (token != 0) session.cancel(token);
+}
+
+extern "C" JNIEXPORT jlong JNICALL
+Java_com_example_shoppinglistapp_NativeDb_getCancelledQueryCount(JNIEnv *, jclass) {
+    return cancelledQueries.load();
+}
+
+extern "C" JNIEXPORT jlongArray JNICALL
+Java_com_example_shoppinglistapp_NativeDb_getStatementCacheStats(JNIEnv *env, jclass) {
+    jlong stats[3];
+    session.cacheStats(stats);
+    jlongArray ret = env->NewLongArray(3);
+    env->SetLongArrayRegion(ret, 0, 3, stats);
+    return ret;
+}
+
+// EXPLAIN QUERY PLAN for every query shape the app issues, to verify index usage.
+extern "C" JNIEXPORT jobjectArray JNICALL
+Java_com_example_shoppinglistapp_NativeDb_explainQueryPlans(JNIEnv *env, jclass) {
+    OperationTimer timer(OP_EXPLAIN_QUERY_PLANS);
+    Session::Lease conn = session.reader();
+    if (!conn) {
+        LOGE("Database not initialized");
+        return nullptr;
+    }
+    sqlite3 *db = conn->db;
+    std::vector<std::string> queries = {SHOPS_SQL, "DELETE FROM products WHERE shop_id = ?; -- ON DELETE CASCADE"};
+    for (const SortOrder &order : SORT_ORDERS) {
+        for (bool hasSearch : {false, true}) {
+            queries.push_back(productsSql(order, hasSearch));
+            for (int mode : {CURSOR_NONE, CURSOR_AFTER, CURSOR_BEFORE}) {
+                queries.push_back(productsPageSql(order, hasSearch, mode));
+            }
+        }
+    }
+    queries.push_back(SEARCH_ALL_SQL);
+    queries.push_back(SHOP_BY_ID_SQL);
+    queries.push_back(PRODUCT_BY_ID_SQL);
+    queries.push_back(SYNC_EXPORT_SQL);
+    std::vector<std::string> lines;
+    lines.push_back("schema version " + std::to_string(userVersion(db)));
+    for (const std::string &query : queries) {
+        lines.push_back(query);
+        sqlite3_stmt *stmt;
+        if (sqlite3_prepare_v2(db, ("EXPLAIN QUERY PLAN " + query).c_str(), -1, &stmt, nullptr) != SQLITE_OK) {
+            lines.push_back("  ERROR: " + std::string(sqlite3_errmsg(db)));
+            continue;
+        }
+        while (sqlite3_step(stmt) == SQLITE_ROW) {
+            const char *detail = (const char *) sqlite3_column_text(stmt, 3);
+            lines.push_back("  " + std::string(detail ? detail : ""));
+        }
+        sqlite3_finalize(stmt);
+    }
+    jobjectArray ret = env->NewObjectArray(lines.size(), env->FindClass("java/lang/String"), nullptr);
+    for (size_t i = 0; i < lines.size(); ++i) {
+        env->SetObjectArrayElement(ret, i, env->NewStringUTF(lines[i].c_str()));
+    }
+    return ret;
+}
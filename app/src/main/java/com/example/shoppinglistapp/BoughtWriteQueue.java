@@ -0,0 +1,108 @@
+package com.example.shoppinglistapp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Write-behind buffer for bought toggles, used by {@link ShoppingRepository}. Toggles of
+ * the same product coalesce to the latest value, and a product toggled back to what the
+ * database holds drops out entirely. The repository drains the queue into one
+ * transaction; if that fails, products with no newer toggle are rolled back to the
+ * value the database still holds.
+ */
+class BoughtWriteQueue {
+    interface Rollback {
+        /** Called on the main thread with the value the database still holds. */
+        void onRollback(boolean bought, String error);
+    }
+
+    /** Toggles handed to the database together. */
+    static final class Batch {
+        final int[] ids;
+        final boolean[] bought;
+
+        Batch(int[] ids, boolean[] bought) {
+            this.ids = ids;
+            this.bought = bought;
+        }
+    }
+
+    // Wanted value per product, not yet handed to the database
+    private final Map<Integer, Boolean> pending = new LinkedHashMap<>();
+    // Value the database holds per product with a pending or in-flight toggle
+    private final Map<Integer, Boolean> stored = new HashMap<>();
+    // Number of in-flight batches per product
+    private final Map<Integer, Integer> inFlight = new HashMap<>();
+    // Latest rollback per product with a pending or in-flight toggle
+    private final Map<Integer, Rollback> rollbacks = new HashMap<>();
+
+    /** Returns true if this is the first pending toggle, i.e. a flush should be scheduled. */
+    synchronized boolean add(int productId, boolean previous, boolean bought, Rollback rollback) {
+        boolean wasEmpty = pending.isEmpty();
+        if (!stored.containsKey(productId)) {
+            stored.put(productId, previous);
+        }
+        rollbacks.put(productId, rollback);
+        if (bought == stored.get(productId) && !inFlight.containsKey(productId)) {
+            pending.remove(productId);
+            forget(productId);
+        } else {
+            pending.put(productId, bought);
+        }
+        return wasEmpty && !pending.isEmpty();
+    }
+
+    /** Takes every pending toggle, or returns null if there are none. */
+    synchronized Batch drain() {
+        if (pending.isEmpty()) {
+            return null;
+        }
+        int[] ids = new int[pending.size()];
+        boolean[] bought = new boolean[pending.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Boolean> entry : pending.entrySet()) {
+            ids[i] = entry.getKey();
+            bought[i] = entry.getValue();
+            Integer flights = inFlight.get(ids[i]);
+            inFlight.put(ids[i], flights == null ? 1 : flights + 1);
+            i++;
+        }
+        pending.clear();
+        return new Batch(ids, bought);
+    }
+
+    /** Settles a drained batch; returns the rollbacks to run, with the values to restore. */
+    synchronized List<Runnable> onWritten(Batch batch, String error) {
+        List<Runnable> undo = new ArrayList<>();
+        for (int i = 0; i < batch.ids.length; i++) {
+            int id = batch.ids[i];
+            if (error == null) {
+                stored.put(id, batch.bought[i]);
+            } else if (!pending.containsKey(id)) {
+                Rollback rollback = rollbacks.get(id);
+                boolean value = stored.get(id);
+                if (rollback != null) {
+                    undo.add(() -> rollback.onRollback(value, error));
+                }
+            }
+            int flights = inFlight.get(id) - 1;
+            if (flights > 0) {
+                inFlight.put(id, flights);
+            } else {
+                inFlight.remove(id);
+                if (!pending.containsKey(id)) {
+                    forget(id);
+                }
+            }
+        }
+        return undo;
+    }
+
+    private void forget(int productId) {
+        stored.remove(productId);
+        rollbacks.remove(productId);
+    }
+}
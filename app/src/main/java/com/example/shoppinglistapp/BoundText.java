@@ -0,0 +1,26 @@
+package com.example.shoppinglistapp;
+
+import android.widget.TextView;
+
+/**
+ * A list row's view and the {@link RowText} its text is assembled in. The view is given a
+ * char array slice, which it reads until the next {@link #show}.
+ */
+final class BoundText {
+    private final TextView view;
+    private final RowText text = new RowText();
+
+    BoundText(TextView view) {
+        this.view = view;
+    }
+
+    /** The buffers to assemble the text in, e.g. with {@link ProductRowText}. */
+    RowText text() {
+        return text;
+    }
+
+    /** Hands what was assembled in {@link #text} to the view. */
+    void show() {
+        view.setText(text.chars(), 0, text.finish());
+    }
+}
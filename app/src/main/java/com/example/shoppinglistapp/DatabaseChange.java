@@ -0,0 +1,90 @@
+package com.example.shoppinglistapp;
+
+import java.util.Arrays;
+
+/**
+ * Rows changed by one write, published by {@link ShoppingRepository} once the write has
+ * committed. Every event is a table, an operation and a row id. A product's price, bought
+ * flag or shop also changes its shop's totals, which is reported as an update of the shop.
+ * When a write changes too many rows of a table to list, the table is reported with
+ * {@link #ALL} and observers should reload it.
+ */
+public class DatabaseChange {
+    // Tables and operations, mirrored in native-lib
+    public static final int SHOPS = 0;
+    public static final int PRODUCTS = 1;
+
+    public static final int ALL = 0;
+    public static final int INSERT = 1;
+    public static final int UPDATE = 2;
+    public static final int DELETE = 3;
+
+    private final int[] tables;
+    private final int[] operations;
+    private final long[] rowIds;
+
+    DatabaseChange(int[] tables, int[] operations, long[] rowIds) {
+        this.tables = tables;
+        this.operations = operations;
+        this.rowIds = rowIds;
+    }
+
+    /** Number of events. */
+    public int size() {
+        return tables.length;
+    }
+
+    public boolean isEmpty() {
+        return tables.length == 0;
+    }
+
+    public int table(int index) {
+        return tables[index];
+    }
+
+    public int operation(int index) {
+        return operations[index];
+    }
+
+    public long rowId(int index) {
+        return rowIds[index];
+    }
+
+    public boolean affects(int table) {
+        for (int t : tables) {
+            if (t == table) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** True if too many rows of the table changed to list them. */
+    public boolean affectsAll(int table) {
+        for (int i = 0; i < tables.length; i++) {
+            if (tables[i] == table && operations[i] == ALL) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Distinct ids of the table's changed rows in ascending order. */
+    public int[] ids(int table) {
+        int[] ids = new int[tables.length];
+        int count = 0;
+        for (int i = 0; i < tables.length; i++) {
+            if (tables[i] == table && operations[i] != ALL) {
+                ids[count++] = (int) rowIds[i];
+            }
+        }
+        Arrays.sort(ids, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || ids[distinct - 1] != ids[i]) {
+                ids[distinct++] = ids[i];
+            }
+        }
+        return Arrays.copyOf(ids, distinct);
+    }
+}
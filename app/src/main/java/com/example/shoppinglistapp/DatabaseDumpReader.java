@@ -0,0 +1,101 @@
+package com.example.shoppinglistapp;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Streams records out of a database export (see {@link ShoppingRepository#exportDatabase})
+ * one line at a time. The first line is the header; then every line is a shop or a product
+ * object. Lines that are not valid records are counted in {@link #getSkipped()}.
+ */
+public class DatabaseDumpReader implements Closeable {
+    public static final String FORMAT = "shoppinglist";
+    public static final int VERSION = 1;
+    /** First line of every export. */
+    public static final String HEADER = "{\"format\":\"" + FORMAT + "\",\"version\":" + VERSION + "}\n";
+
+    public static final int END = 0;
+    public static final int SHOP = 1;
+    public static final int PRODUCT = 2;
+
+    private final BufferedReader in;
+    private boolean headerRead;
+    private int skipped;
+
+    // The current record; shop records use id and name only
+    public int id;
+    public int shopId;
+    public String name;
+    public double price;
+    public boolean bought;
+    public String description;
+
+    public DatabaseDumpReader(Reader reader) {
+        in = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+    }
+
+    /**
+     * Reads the next record into the public fields and returns its type, {@link #END} at
+     * the end of the input. Throws if the input is not an export this version can read.
+     */
+    public int next() throws IOException {
+        if (!headerRead) {
+            readHeader();
+        }
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                JSONObject record = new JSONObject(line);
+                String type = record.getString("type");
+                id = record.getInt("id");
+                name = record.getString("name");
+                if ("shop".equals(type)) {
+                    return SHOP;
+                }
+                if ("product".equals(type)) {
+                    shopId = record.getInt("shop");
+                    price = record.getDouble("price");
+                    bought = record.optBoolean("bought");
+                    description = record.isNull("description") ? null : record.getString("description");
+                    return PRODUCT;
+                }
+            } catch (JSONException e) {
+                // Counted below
+            }
+            skipped++;
+        }
+        return END;
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void readHeader() throws IOException {
+        headerRead = true;
+        String line = in.readLine();
+        try {
+            JSONObject header = new JSONObject(line != null ? line : "");
+            if (!FORMAT.equals(header.optString("format"))) {
+                throw new IOException("Not a shopping list export");
+            }
+            if (header.optInt("version") > VERSION) {
+                throw new IOException("Unsupported export version " + header.optInt("version"));
+            }
+        } catch (JSONException e) {
+            throw new IOException("Not a shopping list export", e);
+        }
+    }
+}
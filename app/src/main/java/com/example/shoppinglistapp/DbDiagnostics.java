@@ -0,0 +1,54 @@
+package com.example.shoppinglistapp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** Snapshot of the native layer's SQL trace and counters for the logs dialog. */
+public class DbDiagnostics {
+    // Fields per operation in NativeDb.getLatencyStats
+    private static final int LATENCY_FIELDS = 5;
+
+    public final String[] logs;
+    public final long statementCacheHits;
+    public final long statementCacheMisses;
+    public final long statementCacheSize;
+    /** Operations that ran at least once. */
+    public final List<OperationLatency> latencies;
+    /** Queries stopped because their results were no longer wanted. */
+    public final long cancelledQueries;
+    public final long productCacheHits;
+    public final long productCacheMisses;
+    public final long productCacheEvictions;
+    public final int productCacheShops;
+    public final long productCacheBytes;
+    /** Startup phases in the order they were recorded. */
+    public final List<StartupTrace.Phase> startup;
+    /** The latest maintenance run in this process, null if none has run. */
+    public final MaintenanceReport maintenance;
+
+    public DbDiagnostics(String[] logs, long[] statementCacheStats, String[] operationNames, long[] latencyStats,
+                         long cancelledQueries, ProductCache.Stats productCache, List<StartupTrace.Phase> startup,
+                         MaintenanceReport maintenance) {
+        this.logs = logs != null ? logs : new String[0];
+        this.statementCacheHits = statementCacheStats[0];
+        this.statementCacheMisses = statementCacheStats[1];
+        this.statementCacheSize = statementCacheStats[2];
+        List<OperationLatency> latencies = new ArrayList<>();
+        for (int i = 0; i < operationNames.length; i++) {
+            int base = i * LATENCY_FIELDS;
+            if (latencyStats[base] == 0) continue;
+            latencies.add(new OperationLatency(operationNames[i], latencyStats[base], latencyStats[base + 1],
+                    latencyStats[base + 2], latencyStats[base + 3], latencyStats[base + 4]));
+        }
+        this.latencies = Collections.unmodifiableList(latencies);
+        this.cancelledQueries = cancelledQueries;
+        this.productCacheHits = productCache.hits;
+        this.productCacheMisses = productCache.misses;
+        this.productCacheEvictions = productCache.evictions;
+        this.productCacheShops = productCache.entries;
+        this.productCacheBytes = productCache.bytes;
+        this.startup = startup;
+        this.maintenance = maintenance;
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.shoppinglistapp;
+
+/** Outcome of {@link ShoppingRepository#exportDatabase}. */
+public class ExportResult {
+    /** Shops and products written. */
+    public final long rows;
+    public final long bytes;
+    /** Null on success. */
+    public final String error;
+
+    public ExportResult(long rows, long bytes, String error) {
+        this.rows = rows;
+        this.bytes = bytes;
+        this.error = error;
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.shoppinglistapp;
+
+/** Outcome of {@link ShoppingRepository#importProducts} and {@link ShoppingRepository#importDatabase}. */
+public class ImportResult {
+    /**
+     * Products committed. 0 when a product import failed, since it is rolled back whole;
+     * a database import keeps the parts committed before the failure.
+     */
+    public final int imported;
+    /** Lines that were not valid products (empty name, bad price, unknown shop). */
+    public final int skipped;
+    /** Null on success. */
+    public final String error;
+
+    public ImportResult(int imported, int skipped, String error) {
+        this.imported = imported;
+        this.skipped = skipped;
+        this.error = error;
+    }
+}
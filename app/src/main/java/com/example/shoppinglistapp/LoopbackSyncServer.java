@@ -0,0 +1,76 @@
+package com.example.shoppinglistapp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * In-memory sync server, for tests and for syncing devices in one process. Keeps only the
+ * latest change of every row ({@link SyncChange#supersedes}) under a sequence number that
+ * grows with every accepted change, so a device that pulls after its cursor gets each row
+ * it is missing once, however often the row changed meanwhile. A real server does the same
+ * behind a {@link SyncTransport} that speaks to it.
+ */
+public class LoopbackSyncServer implements SyncTransport {
+    // Global id -> sequence number of its latest change
+    private final Map<String, Long> sequences = new HashMap<>();
+    private final TreeMap<Long, SyncChange> changes = new TreeMap<>();
+    private long sequence;
+    private long bytesReceived;
+    private long bytesSent;
+
+    @Override
+    public synchronized void push(String device, byte[] batch) throws IOException {
+        bytesReceived += batch.length;
+        for (SyncChange change : SyncCodec.decode(SyncCodec.decompress(batch, null))) {
+            Long current = sequences.get(change.gid);
+            if (!change.supersedes(current != null ? changes.get(current) : null)) {
+                continue;
+            }
+            if (current != null) {
+                changes.remove(current);
+            }
+            sequences.put(change.gid, ++sequence);
+            changes.put(sequence, change);
+        }
+    }
+
+    @Override
+    public synchronized Pulled pull(String device, long cursor, int limit) {
+        List<SyncChange> out = new ArrayList<>(Math.min(limit, changes.size()));
+        long next = cursor;
+        boolean more = false;
+        for (Map.Entry<Long, SyncChange> entry : changes.tailMap(cursor, false).entrySet()) {
+            if (out.size() == limit) {
+                more = true;
+                break;
+            }
+            next = entry.getKey();
+            // The device already has its own changes
+            if (!device.equals(entry.getValue().origin)) {
+                out.add(entry.getValue());
+            }
+        }
+        ByteBuffer rows = SyncCodec.encode(out);
+        byte[] batch = SyncCodec.compress(rows, rows.limit());
+        bytesSent += batch.length;
+        return new Pulled(batch, next, more);
+    }
+
+    /** Rows the server holds, deletions included. */
+    public synchronized int size() {
+        return changes.size();
+    }
+
+    public synchronized long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public synchronized long getBytesSent() {
+        return bytesSent;
+    }
+}
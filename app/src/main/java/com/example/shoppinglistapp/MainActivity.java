@@ -1,29 +1,45 @@
 package com.example.shoppinglistapp;
 
-import android.annotation.SuppressLint;
 import android.app.AlertDialog;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.EditText;
+import android.widget.ProgressBar;
 import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.view.ActionMode;
+import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
-import java.io.File;
+import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Objects;
 
 public class MainActivity extends AppCompatActivity {
     private static final String TAG = "MainActivity";
+    private static final int REQUEST_EXPORT = 1;
+    private static final int REQUEST_IMPORT = 2;
+    private static final String EXPORT_MIME_TYPE = "application/x-ndjson";
     private ShopAdapter adapter;
-    private final List<Shop> shops = new ArrayList<>();
+    // Follows every write, including those made in ShopActivity
+    private ShopListLoader shopList;
+    private boolean shopsShown;
+    private ProgressBar progress;
+    // Shown while shops are selected
+    private ActionMode selectionMode;
+    // Export and import of the whole database; kept across rotations
+    private MainViewModel viewModel;
+    // Shown while an export or import runs; they are modal, so at most one at a time
+    private AlertDialog progressDialog;
+    private final ShoppingRepository repository = ShoppingRepository.getInstance();
     private static List<String> sqlLogs = new ArrayList<>();
 
     public static List<String> getSqlLogs() {
@@ -34,84 +50,93 @@ public class MainActivity extends AppCompatActivity {
         MainActivity.sqlLogs = sqlLogs;
     }
 
-    public native String initDatabase(String dbPath);
-    public native String addShop(String name);
-    public native String[] getShops();
-    public native String deleteAll();
-    public native String executeSql(String sql);
-    public native String[] getLogs();
-    public native void clearLogs();
-
-    static {
-        try {
-            System.loadLibrary("native-lib");
-            Log.d(TAG, "Native library loaded successfully");
-        } catch (UnsatisfiedLinkError e) {
-            Log.e(TAG, "Failed to load native library", e);
-        }
-    }
-
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        long begin = StartupTrace.begin("MainActivity.onCreate");
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        // Логирование ресурсов для диагностики
-        Log.d(TAG, "Resource recycler_shops: " + R.id.recycler_shops);
-        Log.d(TAG, "Resource fab_add_shop: " + R.id.fab_add_shop);
-        Log.d(TAG, "Resource background: " + R.color.background);
-        Log.d(TAG, "Resource text_primary: " + R.color.text_primary);
-        Log.d(TAG, "Resource card_bg: " + R.color.card_bg);
-        Log.d(TAG, "Resource shop_name: " + R.id.shop_name);
-
-        File dbFile = getDatabasePath("shopping.db");
-        if (!Objects.requireNonNull(dbFile.getParentFile()).exists()) {
-            boolean created = dbFile.getParentFile().mkdirs();
-            Log.d(TAG, "Database directory created: " + created);
-        }
-        String dbPath = dbFile.getAbsolutePath();
-        Log.d(TAG, "Database path: " + dbPath);
-
-        String dbError = initDatabase(dbPath);
-        if (dbError != null && !dbError.isEmpty()) {
-            Log.e(TAG, "Database initialization error: " + dbError);
-            Toast.makeText(this, getString(R.string.sql_error, dbError), Toast.LENGTH_LONG).show();
-            return;
-        }
-
         RecyclerView recyclerView = findViewById(R.id.recycler_shops);
         recyclerView.setLayoutManager(new LinearLayoutManager(this));
-        adapter = new ShopAdapter(shops, this::openShop, this::deleteShop);
+        adapter = new ShopAdapter(this::openShop);
+        adapter.selection().setListener(this::onSelectionChanged);
         recyclerView.setAdapter(adapter);
+        progress = findViewById(R.id.progress_shops);
+        shopList = new ShopListLoader(repository, new ShopListLoader.Listener() {
+            @Override
+            public void onShopsLoaded(List<Shop> shops) {
+                showShops(shops);
+            }
+
+            @Override
+            public void onLoadFailed() {
+                progress.setVisibility(View.GONE);
+                Log.e(TAG, "Failed to load shops");
+                Toast.makeText(MainActivity.this, R.string.error_load_shops, Toast.LENGTH_SHORT).show();
+            }
+        });
+
+        viewModel = new ViewModelProvider(this).get(MainViewModel.class);
+        viewModel.getExport().attach(new ProgressOperation.Listener<ExportResult>() {
+            @Override
+            public void onProgress(long bytes) {
+                showProgress(R.string.export_db, getString(R.string.export_progress, bytes / 1024));
+            }
+
+            @Override
+            public void onFinished(ExportResult result) {
+                showExportResult(result);
+            }
+        });
+        viewModel.getImport().attach(new ProgressOperation.Listener<ImportResult>() {
+            @Override
+            public void onProgress(long count) {
+                showProgress(R.string.import_db, getString(R.string.import_progress, (int) count));
+            }
+
+            @Override
+            public void onFinished(ImportResult result) {
+                showImportResult(result);
+            }
+        });
 
         FloatingActionButton fab = findViewById(R.id.fab_add_shop);
         fab.setOnClickListener(v -> showAddShopDialog());
 
-        loadShops();
-    }
+        // The first frame shows the progress bar; posted work runs after that frame's layout
+        getWindow().getDecorView().post(() -> StartupTrace.mark("firstFrame"));
 
-    @SuppressLint("NotifyDataSetChanged")
-    private void loadShops() {
-        String[] shopData = getShops();
-        if (shopData == null) {
-            Log.e(TAG, "Failed to load shops: null returned");
-            Toast.makeText(this, R.string.error_load_shops, Toast.LENGTH_SHORT).show();
-            return;
-        }
-        shops.clear();
-        for (String data : shopData) {
-            String[] parts = data.split(":");
-            if (parts.length == 2) {
-                try {
-                    shops.add(new Shop(Integer.parseInt(parts[0]), parts[1]));
-                } catch (NumberFormatException e) {
-                    Log.e(TAG, "Error parsing shop data: " + data, e);
-                }
-            } else {
-                Log.e(TAG, "Invalid shop data format: " + data);
+        // Usually already under way since ShoppingApp.onCreate; this only waits for it
+        repository.open(getDatabasePath(ShoppingApp.DATABASE_NAME), StorageProfile.forDevice(this), dbError -> {
+            if (dbError != null && !dbError.isEmpty()) {
+                Log.e(TAG, "Database initialization error: " + dbError);
+                progress.setVisibility(View.GONE);
+                Toast.makeText(this, getString(R.string.sql_error, dbError), Toast.LENGTH_LONG).show();
+                return;
             }
+            shopList.start();
+        });
+        StartupTrace.end("MainActivity.onCreate", begin);
+    }
+
+    @Override
+    protected void onDestroy() {
+        shopList.stop();
+        viewModel.getExport().detach();
+        viewModel.getImport().detach();
+        // An export or import keeps running; a recreated screen shows its dialog again
+        dismissProgress();
+        super.onDestroy();
+    }
+
+    private void showShops(List<Shop> shops) {
+        progress.setVisibility(View.GONE);
+        adapter.submitList(shops);
+        if (!shopsShown) {
+            shopsShown = true;
+            StartupTrace.mark("shopsShown");
+            reportFullyDrawn();
         }
-        adapter.notifyDataSetChanged();
     }
 
     private void showAddShopDialog() {
@@ -126,13 +151,12 @@ public class MainActivity extends AppCompatActivity {
                         Toast.makeText(this, R.string.error_empty, Toast.LENGTH_SHORT).show();
                         return;
                     }
-                    String error = addShop(name);
-                    if (error != null && !error.isEmpty()) {
-                        Log.e(TAG, "Error adding shop: " + error);
-                        Toast.makeText(this, getString(R.string.sql_error, error), Toast.LENGTH_LONG).show();
-                    } else {
-                        loadShops();
-                    }
+                    repository.addShop(name, error -> {
+                        if (error != null && !error.isEmpty()) {
+                            Log.e(TAG, "Error adding shop: " + error);
+                            Toast.makeText(this, getString(R.string.sql_error, error), Toast.LENGTH_LONG).show();
+                        }
+                    });
                 })
                 .setNegativeButton(android.R.string.cancel, null)
                 .show();
@@ -150,18 +174,58 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    private void deleteShop(Shop shop) {
+    private void onSelectionChanged(int count) {
+        if (count == 0) {
+            if (selectionMode != null) selectionMode.finish();
+            return;
+        }
+        if (selectionMode == null) {
+            selectionMode = startSupportActionMode(selectionCallback);
+        }
+        selectionMode.setTitle(getString(R.string.selected_count, count));
+    }
+
+    private final ActionMode.Callback selectionCallback = new ActionMode.Callback() {
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.shop_selection_menu, menu);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            if (item.getItemId() == R.id.delete_selected) {
+                deleteShops(adapter.selection().toArray());
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            selectionMode = null;
+            adapter.selection().clear();
+        }
+    };
+
+    /** All selected shops go in one transaction; the list follows through ShopListLoader. */
+    private void deleteShops(int[] shopIds) {
         new AlertDialog.Builder(this)
-                .setTitle("Удалить магазин?")
-                .setMessage("Все продукты в нём будут удалены.")
+                .setTitle(getString(R.string.delete_shops_confirm, shopIds.length))
+                .setMessage(R.string.delete_shops_message)
                 .setPositiveButton(android.R.string.yes, (dialog, which) -> {
-                    String error = executeSql("DELETE FROM shops WHERE id = " + shop.id);
-                    if (error != null && !error.isEmpty()) {
-                        Log.e(TAG, "Error deleting shop: " + error);
-                        Toast.makeText(this, getString(R.string.sql_error, error), Toast.LENGTH_LONG).show();
-                    } else {
-                        loadShops();
-                    }
+                    if (selectionMode != null) selectionMode.finish();
+                    repository.deleteShops(shopIds, error -> {
+                        if (error != null && !error.isEmpty()) {
+                            Log.e(TAG, "Error deleting shops: " + error);
+                            Toast.makeText(this, getString(R.string.sql_error, error), Toast.LENGTH_LONG).show();
+                        }
+                    });
                 })
                 .setNegativeButton(android.R.string.no, null)
                 .show();
@@ -181,17 +245,29 @@ public class MainActivity extends AppCompatActivity {
                     .setTitle(R.string.clear_db)
                     .setMessage("Удалить все данные?")
                     .setPositiveButton(android.R.string.yes, (dialog, which) -> {
-                        String error = deleteAll();
-                        if (error != null && !error.isEmpty()) {
-                            Log.e(TAG, "Error clearing database: " + error);
-                            Toast.makeText(this, getString(R.string.sql_error, error), Toast.LENGTH_LONG).show();
-                        } else {
-                            loadShops();
-                        }
+                        repository.deleteAll(error -> {
+                            if (error != null && !error.isEmpty()) {
+                                Log.e(TAG, "Error clearing database: " + error);
+                                Toast.makeText(this, getString(R.string.sql_error, error), Toast.LENGTH_LONG).show();
+                            }
+                        });
                     })
                     .setNegativeButton(android.R.string.no, null)
                     .show();
             return true;
+        } else if (id == R.id.export_db) {
+            Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType(EXPORT_MIME_TYPE);
+            intent.putExtra(Intent.EXTRA_TITLE, "shopping.jsonl");
+            startActivityForResult(intent, REQUEST_EXPORT);
+            return true;
+        } else if (id == R.id.import_db) {
+            Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType("*/*");
+            startActivityForResult(intent, REQUEST_IMPORT);
+            return true;
         } else if (id == R.id.author) {
             new AlertDialog.Builder(this)
                     .setTitle(R.string.author)
@@ -202,24 +278,141 @@ public class MainActivity extends AppCompatActivity {
         } else if (id == R.id.logs) {
             showLogsDialog();
             return true;
+        } else if (id == R.id.query_plans) {
+            repository.explainQueryPlans(plans -> new AlertDialog.Builder(this)
+                    .setTitle(R.string.query_plans)
+                    .setMessage(plans != null ? String.join("\n", plans) : "База данных не открыта")
+                    .setPositiveButton(android.R.string.ok, null)
+                    .show());
+            return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (resultCode != RESULT_OK || data == null || data.getData() == null) {
+            return;
+        }
+        if (requestCode == REQUEST_EXPORT) {
+            exportDatabase(data.getData());
+        } else if (requestCode == REQUEST_IMPORT) {
+            importDatabase(data.getData());
+        }
+    }
+
+    /** Rows go from the native cursor to the file a buffer at a time, on the writer thread. */
+    private void exportDatabase(Uri uri) {
+        ParcelFileDescriptor file = openFile(uri, "wt");
+        if (file == null) {
+            return;
+        }
+        viewModel.exportDatabase(new ParcelFileDescriptor.AutoCloseOutputStream(file).getChannel());
+    }
+
+    private void showExportResult(ExportResult result) {
+        dismissProgress();
+        if (result.error != null) {
+            Log.e(TAG, "Error exporting database: " + result.error);
+            Toast.makeText(this, getString(R.string.sql_error, result.error), Toast.LENGTH_LONG).show();
+            return;
+        }
+        Toast.makeText(this, getString(R.string.export_done, result.rows, result.bytes / 1024),
+                Toast.LENGTH_LONG).show();
+    }
+
+    private void importDatabase(Uri uri) {
+        ParcelFileDescriptor file = openFile(uri, "r");
+        if (file == null) {
+            return;
+        }
+        viewModel.importDatabase(new ParcelFileDescriptor.AutoCloseInputStream(file).getChannel());
+    }
+
+    private void showImportResult(ImportResult result) {
+        dismissProgress();
+        if (result.error != null) {
+            // Parts committed before the error stay
+            Log.e(TAG, "Error importing database: " + result.error);
+            Toast.makeText(this, getString(R.string.import_db_failed, result.error, result.imported),
+                    Toast.LENGTH_LONG).show();
+        } else {
+            Toast.makeText(this, getString(R.string.import_done, result.imported, result.skipped),
+                    Toast.LENGTH_LONG).show();
+        }
+    }
+
+    private void showProgress(int title, String message) {
+        if (progressDialog == null) {
+            progressDialog = new AlertDialog.Builder(this)
+                    .setTitle(title)
+                    .setMessage(message)
+                    .setCancelable(false)
+                    .show();
+        } else {
+            progressDialog.setMessage(message);
+        }
+    }
+
+    private void dismissProgress() {
+        if (progressDialog != null) {
+            progressDialog.dismiss();
+            progressDialog = null;
+        }
+    }
+
+    private ParcelFileDescriptor openFile(Uri uri, String mode) {
+        ParcelFileDescriptor file;
+        try {
+            file = getContentResolver().openFileDescriptor(uri, mode);
+        } catch (FileNotFoundException e) {
+            file = null;
+        }
+        if (file == null) {
+            Log.e(TAG, "Failed to open file: " + uri);
+            Toast.makeText(this, R.string.error_open_file, Toast.LENGTH_SHORT).show();
+        }
+        return file;
+    }
+
     private void showLogsDialog() {
-        String[] logsArray = getLogs();
-        String logsText = "";
-        if (logsArray != null) {
-            logsText = String.join("\n", logsArray);
+        repository.getDiagnostics(this::showLogsDialog);
+    }
+
+    private void showLogsDialog(DbDiagnostics diagnostics) {
+        String logsText = String.join("\n", diagnostics.logs);
+        String cacheText = getString(R.string.statement_cache_stats, diagnostics.statementCacheHits,
+                diagnostics.statementCacheMisses, diagnostics.statementCacheSize);
+        String productCacheText = getString(R.string.product_cache_stats, diagnostics.productCacheHits,
+                diagnostics.productCacheMisses, diagnostics.productCacheEvictions, diagnostics.productCacheShops,
+                diagnostics.productCacheBytes / 1024);
+        String cancelledText = getString(R.string.cancelled_queries, diagnostics.cancelledQueries);
+        MaintenanceReport maintenance = diagnostics.maintenance;
+        String maintenanceText = maintenance == null ? getString(R.string.maintenance_never)
+                : getString(R.string.maintenance_stats, maintenance.bytesBefore() / 1024, maintenance.bytesAfter() / 1024,
+                maintenance.freePagesBefore, maintenance.freePagesAfter, maintenance.walBytesBefore / 1024,
+                maintenance.walBytesAfter / 1024, maintenance.totalMicros() / 1000)
+                + (maintenance.error != null ? "\n" + getString(R.string.sql_error, maintenance.error) : "");
+        StringBuilder startupText = new StringBuilder(getString(R.string.startup_header));
+        for (StartupTrace.Phase phase : diagnostics.startup) {
+            startupText.append('\n').append(phase.milestone
+                    ? getString(R.string.startup_milestone, phase.name, phase.startMillis)
+                    : getString(R.string.startup_phase, phase.name, phase.startMillis, phase.durationMillis));
+        }
+        StringBuilder latencyText = new StringBuilder(getString(R.string.latency_header));
+        for (OperationLatency latency : diagnostics.latencies) {
+            latencyText.append('\n').append(getString(R.string.latency_stats, latency.name, latency.count,
+                    latency.p50Micros / 1000.0, latency.p95Micros / 1000.0, latency.p99Micros / 1000.0,
+                    latency.maxMicros / 1000.0));
         }
         new AlertDialog.Builder(this)
                 .setTitle(R.string.logs)
-                .setMessage(logsText.isEmpty() ? "Нет логов" : logsText)
+                .setMessage(startupText + "\n\n" + latencyText + "\n\n" + cacheText + "\n" + productCacheText + "\n" + cancelledText + "\n" + maintenanceText + "\n\n" + (logsText.isEmpty() ? "Нет логов" : logsText))
                 .setPositiveButton(android.R.string.ok, null)
-                .setNegativeButton("Очистить", (dialog, which) -> {
-                    clearLogs();
-                    showLogsDialog();
-                })
+                .setNegativeButton("Очистить", (dialog, which) -> repository.clearLogs(ignored -> showLogsDialog()))
+                .setNeutralButton(R.string.run_maintenance, (dialog, which) ->
+                        repository.runMaintenance(report -> showLogsDialog()))
                 .show();
     }
 }
\ No newline at end of file
@@ -0,0 +1,43 @@
+package com.example.shoppinglistapp;
+
+import androidx.lifecycle.ViewModel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Export and import of the whole database started from {@link MainActivity}. They are the
+ * longest operations in the app, so their progress and results are kept here rather than in
+ * the Activity: a rotation while one runs shows the same progress again, and the count of
+ * rows an import committed before failing still reaches the screen.
+ */
+public class MainViewModel extends ViewModel {
+    private final ShoppingRepository repository = ShoppingRepository.getInstance();
+    private final ProgressOperation<ExportResult> exportOperation = new ProgressOperation<>();
+    private final ProgressOperation<ImportResult> importOperation = new ProgressOperation<>();
+
+    /** Writes the database to {@code out}; the progress is in bytes. Closes {@code out}. */
+    public void exportDatabase(WritableByteChannel out) {
+        exportOperation.start();
+        repository.exportDatabase(out, exportOperation::setProgress, exportOperation::finish);
+    }
+
+    /** Adds the rows of an export read from {@code in}; the progress is in products. Closes {@code in}. */
+    public void importDatabase(ReadableByteChannel in) {
+        importOperation.start();
+        repository.importDatabase(in, importOperation::setProgress, importOperation::finish);
+    }
+
+    public ProgressOperation<ExportResult> getExport() {
+        return exportOperation;
+    }
+
+    public ProgressOperation<ImportResult> getImport() {
+        return importOperation;
+    }
+
+    @Override
+    protected void onCleared() {
+        exportOperation.detach();
+        importOperation.detach();
+    }
+}
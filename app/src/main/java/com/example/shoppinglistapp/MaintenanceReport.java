@@ -0,0 +1,71 @@
+package com.example.shoppinglistapp;
+
+import java.util.Locale;
+
+/**
+ * Outcome of {@link ShoppingRepository#runMaintenance}: the size of the database file and its
+ * free pages before and after, and the time spent on each step.
+ */
+public class MaintenanceReport {
+    // Layout of the array filled by NativeDb.runMaintenance
+    static final int FIELDS = 12;
+
+    public final long pageSize;
+    public final long pagesBefore;
+    public final long freePagesBefore;
+    public final long walBytesBefore;
+    public final long pagesAfter;
+    public final long freePagesAfter;
+    public final long walBytesAfter;
+    /** Merging the full-text index and PRAGMA optimize. */
+    public final long optimizeMicros;
+    public final long vacuumMicros;
+    public final long checkpointMicros;
+    /** The database was rebuilt once to switch it to incremental vacuum. */
+    public final boolean fullVacuum;
+    /** A reader kept the WAL from being checkpointed completely. */
+    public final boolean checkpointBusy;
+    /** Wall-clock time the run finished. */
+    public final long finishedAt;
+    /** Null on success. */
+    public final String error;
+
+    MaintenanceReport(long[] fields, long finishedAt, String error) {
+        pageSize = fields[0];
+        pagesBefore = fields[1];
+        freePagesBefore = fields[2];
+        walBytesBefore = fields[3];
+        pagesAfter = fields[4];
+        freePagesAfter = fields[5];
+        walBytesAfter = fields[6];
+        optimizeMicros = fields[7];
+        vacuumMicros = fields[8];
+        checkpointMicros = fields[9];
+        fullVacuum = fields[10] != 0;
+        checkpointBusy = fields[11] != 0;
+        this.finishedAt = finishedAt;
+        this.error = error;
+    }
+
+    public long bytesBefore() {
+        return pagesBefore * pageSize;
+    }
+
+    public long bytesAfter() {
+        return pagesAfter * pageSize;
+    }
+
+    public long totalMicros() {
+        return optimizeMicros + vacuumMicros + checkpointMicros;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "file %d -> %d KB, free pages %d -> %d, WAL %d -> %d KB, optimize %d ms, %s %d ms, checkpoint %d ms%s%s",
+                bytesBefore() / 1024, bytesAfter() / 1024, freePagesBefore, freePagesAfter,
+                walBytesBefore / 1024, walBytesAfter / 1024, optimizeMicros / 1000,
+                fullVacuum ? "full vacuum" : "incremental vacuum", vacuumMicros / 1000, checkpointMicros / 1000,
+                checkpointBusy ? " (busy)" : "", error != null ? ", error: " + error : "");
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.shoppinglistapp;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Runs {@link ShoppingRepository#runMaintenance} while the app is idle: once no activity has
+ * been visible for {@link #IDLE_DELAY_MS}, and at most once per {@link #MIN_INTERVAL_MS}.
+ * Returning to the app before the delay postpones the run. The time of the last run is kept
+ * in shared preferences, so the interval holds across process restarts; every report is
+ * logged, so file size and free pages can be followed from run to run.
+ */
+final class MaintenanceScheduler implements Application.ActivityLifecycleCallbacks {
+    private static final String TAG = "MaintenanceScheduler";
+    private static final String PREFERENCES = "maintenance";
+    private static final String KEY_LAST_RUN = "last_run";
+    private static final long IDLE_DELAY_MS = 30_000;
+    private static final long MIN_INTERVAL_MS = 24 * 60 * 60 * 1000L;
+
+    private final ShoppingRepository repository;
+    private final SharedPreferences preferences;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable runIfDue = this::runIfDue;
+    private int startedActivities;
+
+    MaintenanceScheduler(Context context, ShoppingRepository repository) {
+        this.repository = repository;
+        preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    private void runIfDue() {
+        long now = System.currentTimeMillis();
+        if (now - preferences.getLong(KEY_LAST_RUN, 0) < MIN_INTERVAL_MS) {
+            return;
+        }
+        // Recorded up front, so a run that fails or is killed is not retried on every idle period
+        preferences.edit().putLong(KEY_LAST_RUN, now).apply();
+        repository.runMaintenance(report -> {
+            if (report.error != null) {
+                Log.e(TAG, "Maintenance failed: " + report);
+            } else {
+                Log.i(TAG, "Maintenance: " + report);
+            }
+        });
+    }
+
+    @Override
+    public void onActivityStarted(Activity activity) {
+        if (startedActivities++ == 0) {
+            handler.removeCallbacks(runIfDue);
+        }
+    }
+
+    @Override
+    public void onActivityStopped(Activity activity) {
+        if (--startedActivities == 0) {
+            handler.postDelayed(runIfDue, IDLE_DELAY_MS);
+        }
+    }
+
+    @Override
+    public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+    }
+
+    @Override
+    public void onActivityResumed(Activity activity) {
+    }
+
+    @Override
+    public void onActivityPaused(Activity activity) {
+    }
+
+    @Override
+    public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+    }
+
+    @Override
+    public void onActivityDestroyed(Activity activity) {
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.shoppinglistapp;
+
+import android.util.Log;
+import java.nio.ByteBuffer;
+
+/**
+ * JNI bindings to native-lib. Every call blocks on SQLite, so they are only
+ * invoked from the executors of {@link ShoppingRepository}, never from the UI thread.
+ */
+final class NativeDb {
+    private static final String TAG = "NativeDb";
+
+    private static final boolean loaded;
+
+    static {
+        boolean ok;
+        try {
+            System.loadLibrary("native-lib");
+            Log.d(TAG, "Native library loaded successfully");
+            ok = true;
+        } catch (UnsatisfiedLinkError e) {
+            Log.e(TAG, "Failed to load native library", e);
+            ok = false;
+        }
+        loaded = ok;
+    }
+
+    private NativeDb() {
+    }
+
+    /**
+     * Runs the static initializer that loads the library, so that its cost is measured on
+     * its own. Throws {@link UnsatisfiedLinkError} if the library could not be loaded.
+     */
+    static void load() {
+        if (!loaded) {
+            throw new UnsatisfiedLinkError("native-lib is not available");
+        }
+    }
+
+    // storageProfile: one of the StorageProfile constants
+    static native String initDatabase(String dbPath, int storageProfile);
+    static native String addShop(String name);
+    static native String insertShop(String name, int[] id);
+    static native int getShops(ByteBuffer out);
+    static native String deleteAll();
+    static native String executeSql(String sql);
+    static native String addProduct(int shopId, String name, double price, String desc);
+    static native String addProducts(int shopId, ByteBuffer rows, int length, int count);
+    static native String beginTransaction();
+    static native String endTransaction(boolean commit);
+    // token: non-zero to allow cancelQuery(token) to stop the query
+    static native int getProducts(int shopId, String sort, String search, long token, ByteBuffer out);
+    static native int getProductsPage(int shopId, String sort, String search, int cursorMode, String cursorName,
+                                      double cursorPrice, int cursorBought, int cursorId, int limit, long token,
+                                      ByteBuffer out);
+    static native int searchAllShops(String search, int limit, long token, ByteBuffer out);
+    static native int getShopsById(int[] ids, ByteBuffer out);
+    static native int getProductsById(int[] ids, int shopId, ByteBuffer out);
+    static native void cancelQuery(long token);
+    static native String updateProduct(int id, String name, double price, int bought, String desc);
+    static native String setBought(int[] ids, boolean[] bought);
+    static native String deleteProducts(int[] ids);
+    static native String moveProducts(int[] ids, int shopId);
+    static native String deleteShops(int[] ids);
+    static native int exportRows(long[] cursor, ByteBuffer out);
+    static native int takeChanges(ByteBuffer out);
+    // Sync (SyncEngine): cursor[0] is the last exported version, moved past the rows written
+    static native String getDeviceId();
+    static native long[] getSyncCursors();
+    static native int exportChanges(long[] cursor, int limit, ByteBuffer out);
+    static native String applyChanges(ByteBuffer rows, int length, long pullCursor);
+    static native String setPushCursor(long version);
+    // report: MaintenanceReport.FIELDS values, filled even when an error is returned
+    static native String runMaintenance(long[] report);
+    static native String[] getLogs();
+    static native void clearLogs();
+    static native long[] getStatementCacheStats();
+    static native long getCancelledQueryCount();
+    static native String[] getOperationNames();
+    static native long[] getLatencyStats();
+    static native String[] explainQueryPlans();
+}
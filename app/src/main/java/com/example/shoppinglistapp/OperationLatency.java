@@ -0,0 +1,20 @@
+package com.example.shoppinglistapp;
+
+/** Latency percentiles of one native operation, in microseconds, since the logs were last cleared. */
+public class OperationLatency {
+    public final String name;
+    public final long count;
+    public final long p50Micros;
+    public final long p95Micros;
+    public final long p99Micros;
+    public final long maxMicros;
+
+    public OperationLatency(String name, long count, long p50Micros, long p95Micros, long p99Micros, long maxMicros) {
+        this.name = name;
+        this.count = count;
+        this.p50Micros = p50Micros;
+        this.p95Micros = p95Micros;
+        this.p99Micros = p99Micros;
+        this.maxMicros = maxMicros;
+    }
+}
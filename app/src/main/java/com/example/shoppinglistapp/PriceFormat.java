@@ -0,0 +1,57 @@
+package com.example.shoppinglistapp;
+
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Formats prices as "-1234.50" with the locale's decimal separator into a caller's char
+ * array, without allocating, for use while binding list rows. Digits are always ASCII and
+ * there is no grouping, like {@code String.format("%.2f")} in the locales the app supports.
+ * Output arrays must hold at least {@link #MAX_LENGTH} chars.
+ */
+final class PriceFormat {
+    /** Longest output: sign, 19 digits of a long and the separator. */
+    static final int MAX_LENGTH = 21;
+    private static final int PRICE_SCALE = 100;
+
+    private final char separator;
+
+    PriceFormat(Locale locale) {
+        separator = DecimalFormatSymbols.getInstance(locale).getDecimalSeparator();
+    }
+
+    /** Writes a price held as a double, e.g. {@link Product#price}; returns the length written. */
+    int format(double price, char[] out) {
+        return format(Math.round(price * PRICE_SCALE), out);
+    }
+
+    /** Writes a price in minor units (kopecks); returns the length written. */
+    int format(long minor, char[] out) {
+        boolean negative = minor < 0;
+        // Negated so that Long.MIN_VALUE does not overflow
+        long rest = negative ? minor : -minor;
+        // Written right to left at the end of the array, then moved to the front
+        int i = MAX_LENGTH;
+        for (int n = 0; n < 2; n++) {
+            out[--i] = (char) ('0' - rest % 10);
+            rest /= 10;
+        }
+        out[--i] = separator;
+        do {
+            out[--i] = (char) ('0' - rest % 10);
+            rest /= 10;
+        } while (rest != 0);
+        if (negative) {
+            out[--i] = '-';
+        }
+        int length = MAX_LENGTH - i;
+        System.arraycopy(out, i, out, 0, length);
+        return length;
+    }
+
+    /** Convenience for code outside the bind path. */
+    String toString(long minor) {
+        char[] out = new char[MAX_LENGTH];
+        return new String(out, 0, format(minor, out));
+    }
+}
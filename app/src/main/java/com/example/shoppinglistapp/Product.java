@@ -1,11 +1,13 @@
 package com.example.shoppinglistapp;
 
+import java.util.Objects;
+
 public class Product {
-    public int id;
-    public String name;
-    public double price;
-    public boolean bought;
-    public String description;
+    public final int id;
+    public final String name;
+    public final double price;
+    public final boolean bought;
+    public final String description;
 
     public Product(int id, String name, double price, boolean bought, String description) {
         this.id = id;
@@ -14,4 +16,16 @@ public class Product {
         this.bought = bought;
         this.description = description;
     }
-}
\ No newline at end of file
+
+    public Product withBought(boolean bought) {
+        return new Product(id, name, price, bought, description);
+    }
+
+    public boolean sameContent(Product other) {
+        return id == other.id
+                && Double.compare(price, other.price) == 0
+                && bought == other.bought
+                && Objects.equals(name, other.name)
+                && Objects.equals(description, other.description);
+    }
+}
@@ -1,83 +1,246 @@
 package com.example.shoppinglistapp;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.CheckBox;
 import android.widget.TextView;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
-public class ProductAdapter extends RecyclerView.Adapter<ProductAdapter.ViewHolder> {
+public class ProductAdapter extends RecyclerView.Adapter<ProductAdapter.ViewHolder> implements ProductPager.Display {
     private static final String TAG = "ProductAdapter";
-    private final List<Product> products;
+    // Snapshots are diffed here, one at a time, off the main thread
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor(r -> new Thread(r, "product-diff"));
+    private static final int MAX_SPARE_TABLES = 2;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
     private final OnProductEditListener editListener;
-    private final OnProductDeleteListener deleteListener;
     private final OnProductToggleListener toggleListener;
+    private final Selection selection = new Selection(this);
+    private ProductPager pager;
+    // Created with the first row, in the locale the list is shown in
+    private PriceFormat priceFormat;
+    // The snapshot on screen; never modified once submitted
+    private ProductTable current = new ProductTable();
+    // Set while showing results from every shop: product id -> shop name
+    private Map<Integer, String> shopNames = Collections.emptyMap();
+    private int submitGeneration;
+    // Tables replaced on screen are reused once no diff can still be reading them
+    private int diffsInFlight;
+    private final List<ProductTable> retired = new ArrayList<>();
+    private final ArrayDeque<ProductTable> spare = new ArrayDeque<>();
 
     public interface OnProductEditListener {
         void onEdit(Product product);
     }
 
-    public interface OnProductDeleteListener {
-        void onDelete(Product product);
-    }
-
     public interface OnProductToggleListener {
         void onToggle(Product product, boolean isChecked);
     }
 
-    public ProductAdapter(List<Product> products, OnProductEditListener editListener,
-                          OnProductDeleteListener deleteListener, OnProductToggleListener toggleListener) {
-        this.products = products;
+    private static final class TableDiff extends DiffUtil.Callback {
+        private final ProductTable oldTable;
+        private final ProductTable newTable;
+
+        TableDiff(ProductTable oldTable, ProductTable newTable) {
+            this.oldTable = oldTable;
+            this.newTable = newTable;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldTable.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newTable.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return oldTable.id(oldPosition) == newTable.id(newPosition);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            return oldTable.sameContent(oldPosition, newTable, newPosition);
+        }
+    }
+
+    public ProductAdapter(OnProductEditListener editListener, OnProductToggleListener toggleListener) {
         this.editListener = editListener;
-        this.deleteListener = deleteListener;
         this.toggleListener = toggleListener;
+        setHasStableIds(true);
+    }
+
+    /** Products picked for a bulk action; a long press starts the selection. */
+    Selection selection() {
+        return selection;
     }
 
+    /** Lets the pager fetch neighbouring pages as rows near the window edges are bound. */
     @Override
-    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
-        View view = LayoutInflater.from(parent.getContext())
-                .inflate(R.layout.item_product, parent, false);
-        return new ViewHolder(view);
+    public void setPager(ProductPager pager) {
+        this.pager = pager;
     }
 
+    /** An empty table to fill and pass to {@link #submitTable}, reused from earlier snapshots when possible. */
     @Override
-    public void onBindViewHolder(ViewHolder holder, int position) {
-        Product product = products.get(position);
-        Log.d(TAG, "Binding product: " + product.name);
-        holder.name.setText(product.name);
-        holder.price.setText(String.format("%.2f", product.price));
-        holder.bought.setChecked(product.bought);
-        holder.description.setText(product.description != null ? product.description : "");
-        holder.itemView.setOnClickListener(v -> editListener.onEdit(product));
-        holder.itemView.setOnLongClickListener(v -> {
-            deleteListener.onDelete(product);
+    public ProductTable obtainTable() {
+        ProductTable table = spare.poll();
+        return table != null ? table : new ProductTable();
+    }
+
+    /** Replaces the displayed rows; the table belongs to the adapter from now on. */
+    @Override
+    public void submitTable(ProductTable table) {
+        submit(table, Collections.emptyMap());
+    }
+
+    /** Shows search hits from every shop, labelled with the shop each product belongs to. */
+    public void submitSearchResults(SearchResults results) {
+        submit(results.products, results.shopNames);
+    }
+
+    private void submit(ProductTable table, Map<Integer, String> names) {
+        int requested = ++submitGeneration;
+        ProductTable previous = current;
+        diffsInFlight++;
+        DIFF_EXECUTOR.execute(() -> {
+            DiffUtil.DiffResult result = DiffUtil.calculateDiff(new TableDiff(previous, table));
+            mainHandler.post(() -> {
+                diffsInFlight--;
+                if (requested == submitGeneration) {
+                    retired.add(current);
+                    current = table;
+                    shopNames = names;
+                    result.dispatchUpdatesTo(this);
+                } else {
+                    retired.add(table);
+                }
+                if (diffsInFlight == 0) {
+                    for (ProductTable old : retired) {
+                        if (spare.size() < MAX_SPARE_TABLES) {
+                            old.clear();
+                            spare.push(old);
+                        }
+                    }
+                    retired.clear();
+                }
+            });
+        });
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.item_product, parent, false);
+        if (priceFormat == null) {
+            priceFormat = new PriceFormat(Locale.getDefault());
+        }
+        ViewHolder holder = new ViewHolder(view);
+        // Listeners live as long as the holder and look the row up when invoked; rows are
+        // copied out as objects only then
+        view.setOnClickListener(v -> {
+            int position = holder.getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION) return;
+            if (selection.isActive()) {
+                selection.toggle(current.id(position), position);
+            } else {
+                editListener.onEdit(current.product(position));
+            }
+        });
+        view.setOnLongClickListener(v -> {
+            int position = holder.getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) selection.toggle(current.id(position), position);
             return true;
         });
-        holder.bought.setOnCheckedChangeListener(null); // Отключаем слушатель для предотвращения рекурсии
-        holder.bought.setChecked(product.bought);
         holder.bought.setOnCheckedChangeListener((buttonView, isChecked) -> {
-            toggleListener.onToggle(product, isChecked);
+            if (holder.binding) return;
+            Product product = productAt(holder);
+            if (product != null) toggleListener.onToggle(product, isChecked);
         });
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        ProductTable products = current;
+        if (pager != null) {
+            pager.onItemBound(position, getItemCount());
+        }
+        String name = products.name(position);
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "Binding product: " + name);
+        }
+        holder.name.setText(name);
+        ProductRowText.price(holder.price.text(), priceFormat, products.price(position));
+        holder.price.show();
+        String shopName = shopNames.get(products.id(position));
+        if (shopName != null) {
+            ProductRowText.searchHitDescription(holder.description.text(), shopName, products.description(position));
+            holder.description.show();
+        } else {
+            holder.descriptionView.setText(products.description(position));
+        }
+        holder.binding = true;
+        holder.bought.setChecked(products.isBought(position));
+        holder.binding = false;
+        holder.itemView.setActivated(selection.contains(products.id(position)));
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position, List<Object> payloads) {
+        if (Selection.onlySelectionChanged(payloads)) {
+            holder.itemView.setActivated(selection.contains(current.id(position)));
+        } else {
+            onBindViewHolder(holder, position);
+        }
+    }
+
+    /** The holder's row as an object, or null while the row is being removed. */
+    private Product productAt(ViewHolder holder) {
+        int position = holder.getAdapterPosition();
+        return position != RecyclerView.NO_POSITION ? current.product(position) : null;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return current.id(position);
     }
 
     @Override
     public int getItemCount() {
-        return products.size();
+        return current.size();
     }
 
     static class ViewHolder extends RecyclerView.ViewHolder {
-        TextView name, price, description;
-        CheckBox bought;
+        final TextView name, descriptionView;
+        final BoundText price, description;
+        final CheckBox bought;
+        // Set while the checkbox is updated from the data, so that it is not taken for a click
+        boolean binding;
 
         ViewHolder(View itemView) {
             super(itemView);
             name = itemView.findViewById(R.id.product_name);
-            price = itemView.findViewById(R.id.product_price);
-            description = itemView.findViewById(R.id.product_description);
+            price = new BoundText(itemView.findViewById(R.id.product_price));
+            descriptionView = itemView.findViewById(R.id.product_description);
+            description = new BoundText(descriptionView);
             bought = itemView.findViewById(R.id.product_bought);
         }
     }
-}
\ No newline at end of file
+}
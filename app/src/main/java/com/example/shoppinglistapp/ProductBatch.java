@@ -0,0 +1,73 @@
+package com.example.shoppinglistapp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reusable direct buffer of products for {@link NativeDb#addProducts}.
+ * Layout (native byte order), per row: double price, byte bought, then name and
+ * description as int byte length (-1 for NULL) + UTF-8 bytes, as in {@link RowBuffer}.
+ */
+public class ProductBatch {
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    private ByteBuffer buffer = allocate(INITIAL_CAPACITY);
+    private int count;
+
+    public void add(String name, double price, String description) {
+        add(name, price, false, description);
+    }
+
+    public void add(String name, double price, boolean bought, String description) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        byte[] descBytes = description != null ? description.getBytes(StandardCharsets.UTF_8) : null;
+        ensureRemaining(Double.BYTES + 1 + 2 * Integer.BYTES + nameBytes.length + (descBytes != null ? descBytes.length : 0));
+        buffer.putDouble(price);
+        buffer.put((byte) (bought ? 1 : 0));
+        putText(nameBytes);
+        putText(descBytes);
+        count++;
+    }
+
+    public void clear() {
+        buffer.clear();
+        count = 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /** Bytes written so far. */
+    public int length() {
+        return buffer.position();
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    private void putText(byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void ensureRemaining(int needed) {
+        if (buffer.remaining() >= needed) {
+            return;
+        }
+        ByteBuffer grown = allocate(Integer.highestOneBit(buffer.position() + needed) << 1);
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+
+    private static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+    }
+}
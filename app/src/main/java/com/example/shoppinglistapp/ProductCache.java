@@ -0,0 +1,194 @@
+package com.example.shoppinglistapp;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide cache of whole product lists by shop, owned by {@link ShoppingRepository}.
+ * Only shops with at most {@link #MAX_SHOP_PRODUCTS} products are kept; larger ones are
+ * remembered as such and paged from the database. Entries are evicted least recently used
+ * first once their estimated size exceeds {@link #MAX_BYTES}. Lists are stored as
+ * {@link ProductTable}s in load order and copied out and sorted in place on request, with
+ * the same order as the SQL (column, then id).
+ * <p>
+ * Writes patch or drop entries when they are submitted. Every change bumps an epoch, and
+ * a list loaded from the database is only stored if no change happened while it loaded.
+ */
+class ProductCache {
+    static final int MAX_SHOP_PRODUCTS = 2000;
+    private static final long MAX_BYTES = 4L * 1024 * 1024;
+    private static final int ENTRY_OVERHEAD = 64;
+
+    static final class Stats {
+        final long hits;
+        final long misses;
+        final long evictions;
+        final int entries;
+        final long bytes;
+
+        Stats(long hits, long misses, long evictions, int entries, long bytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.entries = entries;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final class Entry {
+        // Null for shops with more than MAX_SHOP_PRODUCTS products
+        final ProductTable products;
+        long bytes;
+
+        Entry(ProductTable products) {
+            this.products = products;
+            measure();
+        }
+
+        /** Updates {@link #bytes} and returns the change. */
+        long measure() {
+            long old = bytes;
+            bytes = ENTRY_OVERHEAD + (products != null ? products.sizeInBytes() : 0);
+            return bytes - old;
+        }
+    }
+
+    // Access order, so iteration starts at the least recently used shop
+    private final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Epochs only grow: each change takes the next value of the counter
+    private final Map<Integer, Long> shopEpochs = new HashMap<>();
+    private long epochCounter;
+    private long clearedEpoch;
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /** Copies the shop's products into {@code out} in the given order; false if the shop's list is not cached. */
+    synchronized boolean get(int shopId, String sort, ProductTable out) {
+        Entry entry = entries.get(shopId);
+        if (entry == null || entry.products == null) {
+            misses++;
+            return false;
+        }
+        hits++;
+        out.copyFrom(entry.products);
+        out.sort(sort);
+        return true;
+    }
+
+    synchronized boolean isTooLarge(int shopId) {
+        Entry entry = entries.get(shopId);
+        return entry != null && entry.products == null;
+    }
+
+    /** Token to pass to {@link #put}; a put with a stale token is dropped. */
+    synchronized long epoch(int shopId) {
+        Long epoch = shopEpochs.get(shopId);
+        return epoch != null ? Math.max(epoch, clearedEpoch) : clearedEpoch;
+    }
+
+    /** Stores a copy of a freshly loaded list, or marks the shop as too large when {@code products} is null. */
+    synchronized void put(int shopId, ProductTable products, long epoch) {
+        if (epoch != epoch(shopId)) {
+            return;
+        }
+        ProductTable copy = null;
+        if (products != null) {
+            copy = new ProductTable();
+            copy.copyFrom(products);
+        }
+        Entry entry = new Entry(copy);
+        Entry old = entries.put(shopId, entry);
+        if (old != null) {
+            bytes -= old.bytes;
+        }
+        bytes += entry.bytes;
+        evict();
+    }
+
+    /** Replaces a cached product, e.g. after an edit. */
+    synchronized void update(Product product) {
+        Map.Entry<Integer, Entry> owner = findOwner(product.id);
+        if (owner == null) {
+            return;
+        }
+        Entry entry = owner.getValue();
+        entry.products.set(entry.products.indexOf(product.id), product);
+        bytes += entry.measure();
+        bump(owner.getKey());
+        evict();
+    }
+
+    synchronized void setBought(int productId, boolean bought) {
+        Map.Entry<Integer, Entry> owner = findOwner(productId);
+        if (owner != null) {
+            ProductTable products = owner.getValue().products;
+            products.setBought(products.indexOf(productId), bought);
+            bump(owner.getKey());
+        }
+    }
+
+    synchronized void remove(int productId) {
+        Map.Entry<Integer, Entry> owner = findOwner(productId);
+        if (owner != null) {
+            Entry entry = owner.getValue();
+            entry.products.remove(entry.products.indexOf(productId));
+            bytes += entry.measure();
+            bump(owner.getKey());
+        }
+    }
+
+    /** Drops a shop, e.g. after products were inserted into it. */
+    synchronized void invalidate(int shopId) {
+        Entry old = entries.remove(shopId);
+        if (old != null) {
+            bytes -= old.bytes;
+        }
+        bump(shopId);
+    }
+
+    /** Drops the shop holding the product, e.g. after a write by product id failed. */
+    synchronized void invalidateProduct(int productId) {
+        Map.Entry<Integer, Entry> owner = findOwner(productId);
+        if (owner != null) {
+            invalidate(owner.getKey());
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        shopEpochs.clear();
+        bytes = 0;
+        clearedEpoch = ++epochCounter;
+    }
+
+    synchronized Stats stats() {
+        return new Stats(hits, misses, evictions, entries.size(), bytes);
+    }
+
+    private Map.Entry<Integer, Entry> findOwner(int productId) {
+        for (Map.Entry<Integer, Entry> e : entries.entrySet()) {
+            ProductTable products = e.getValue().products;
+            if (products != null && products.indexOf(productId) >= 0) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    private void bump(int shopId) {
+        shopEpochs.put(shopId, ++epochCounter);
+    }
+
+    private void evict() {
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (bytes > MAX_BYTES && eldest.hasNext()) {
+            bytes -= eldest.next().bytes;
+            eldest.remove();
+            evictions++;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.shoppinglistapp;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streams products out of a CSV or plain-text file one record at a time, so the file is
+ * never held in memory. Columns are name, price, description; a line with only a name
+ * (plain text) is a product with price 0. The delimiter (comma, semicolon or tab) is
+ * taken from the first line, and a first line whose price is not a number is a header.
+ */
+public class ProductCsvReader implements Closeable {
+    // Longest first line inspected for the delimiter
+    private static final int DETECT_LIMIT = 8192;
+
+    private final BufferedReader in;
+    private final List<String> fields = new ArrayList<>();
+    private final StringBuilder field = new StringBuilder();
+    private char delimiter;
+    private boolean firstRecord = true;
+    private int skipped;
+
+    public ProductCsvReader(Reader reader) {
+        in = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+    }
+
+    /** Appends up to {@code max} products to the batch; returns how many, 0 at the end of the input. */
+    public int read(ProductBatch batch, int max) throws IOException {
+        int read = 0;
+        while (read < max && next(batch)) {
+            read++;
+        }
+        return read;
+    }
+
+    private boolean next(ProductBatch batch) throws IOException {
+        if (delimiter == 0) {
+            delimiter = detectDelimiter();
+        }
+        while (readRecord()) {
+            boolean header = firstRecord;
+            firstRecord = false;
+            if (fields.size() == 1 && fields.get(0).trim().isEmpty()) {
+                continue;
+            }
+            String name = fields.get(0).trim();
+            double price = fields.size() > 1 ? parsePrice(fields.get(1)) : 0;
+            if (name.isEmpty() || Double.isNaN(price)) {
+                if (!header) {
+                    skipped++;
+                }
+                continue;
+            }
+            String description = fields.size() > 2 ? fields.get(2).trim() : "";
+            batch.add(name, price, description);
+            return true;
+        }
+        return false;
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private char detectDelimiter() throws IOException {
+        in.mark(DETECT_LIMIT);
+        int commas = 0, semicolons = 0, tabs = 0;
+        for (int i = 0, c; i < DETECT_LIMIT && (c = in.read()) != -1 && c != '\n'; i++) {
+            if (c == ',') commas++;
+            else if (c == ';') semicolons++;
+            else if (c == '\t') tabs++;
+        }
+        in.reset();
+        if (tabs > 0 && tabs >= semicolons && tabs >= commas) return '\t';
+        if (semicolons > 0 && semicolons >= commas) return ';';
+        return ',';
+    }
+
+    /** Reads one record into {@link #fields}; quoted fields may contain delimiters, "" and newlines. */
+    private boolean readRecord() throws IOException {
+        fields.clear();
+        field.setLength(0);
+        boolean quoted = false;
+        boolean any = false;
+        int c;
+        while ((c = in.read()) != -1) {
+            any = true;
+            if (quoted) {
+                if (c == '"') {
+                    in.mark(1);
+                    if (in.read() == '"') {
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                        in.reset();
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == delimiter) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n') {
+                break;
+            } else if (c != '\r' && c != '\uFEFF') {
+                field.append((char) c);
+            }
+        }
+        if (!any) {
+            return false;
+        }
+        fields.add(field.toString());
+        return true;
+    }
+
+    /** Accepts "12.50", "12,50" and "1 234,50"; NaN when the text is not a valid price. */
+    private static double parsePrice(String text) {
+        String normalized = text.trim().replace(" ", "").replace("\u00A0", "").replace(',', '.');
+        if (normalized.isEmpty()) {
+            return 0;
+        }
+        try {
+            double price = Double.parseDouble(normalized);
+            return price >= 0 && !Double.isInfinite(price) ? price : Double.NaN;
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,411 @@
+package com.example.shoppinglistapp;
+
+import android.os.CancellationSignal;
+import android.util.Log;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Objects;
+
+/**
+ * Loads a shop's products in fixed-size pages with keyset pagination (sort key, then id)
+ * as the list is scrolled. At most {@link #MAX_PAGES} pages are kept; pages that scroll
+ * far out of view are dropped and fetched again when the user scrolls back to them.
+ * Unfiltered lists of shops small enough for {@link ProductCache} are shown whole from
+ * the cache instead, so changing the sort does not query the database. Pages are
+ * {@link ProductTable}s that are refilled rather than reallocated as the window moves.
+ * Starting over cancels the query still running for the previous window. After a write
+ * the rows it changed are read again and patched into the window, see
+ * {@link #onProductsChanged}. The pager outlives the screens that show it: a
+ * {@link Display}, the adapter, is {@link #attach attached} while one is on screen, and a
+ * new one is shown the window already in memory.
+ */
+public class ProductPager {
+    private static final String TAG = "ProductPager";
+    // Cursor modes understood by NativeDb.getProductsPage
+    static final int CURSOR_NONE = 0;
+    static final int CURSOR_AFTER = 1;
+    static final int CURSOR_AFTER_INCLUSIVE = 2;
+    static final int CURSOR_BEFORE = 3;
+
+    static final int PAGE_SIZE = 100;
+    private static final int MAX_PAGES = 5;
+    private static final int PREFETCH_DISTANCE = PAGE_SIZE / 2;
+    // Outcomes of patching the window after a write
+    private static final int UNCHANGED = 0;
+    private static final int PATCHED = 1;
+    private static final int RELOAD = 2;
+
+    /** Where the window is shown; {@link ProductAdapter} on screen. */
+    public interface Display {
+        void setPager(ProductPager pager);
+
+        /** An empty table to fill and pass to {@link #submitTable}. */
+        ProductTable obtainTable();
+
+        /** Replaces the shown rows; the table belongs to the display from now on. */
+        void submitTable(ProductTable table);
+    }
+
+    private final ShoppingRepository repository;
+    private final ArrayDeque<ProductTable> pages = new ArrayDeque<>();
+    // Tables of dropped pages and stale loads, refilled by later loads
+    private final ArrayDeque<ProductTable> spare = new ArrayDeque<>();
+    private int shopId;
+    private String sort;
+    private String search;
+    private boolean hasBefore;
+    private boolean hasAfter;
+    private boolean loading;
+    // The window is the shop's whole list, served by the repository's cache
+    private boolean whole;
+    // Bumped on every reload so that pages requested for an older query are ignored
+    private int generation;
+    // Cancelled when the generation changes, so that SQLite stops working on stale pages
+    private CancellationSignal signal = new CancellationSignal();
+    // Null while no screen shows the list; pages keep loading and patching meanwhile
+    private Display adapter;
+
+    public ProductPager(ShoppingRepository repository) {
+        this.repository = repository;
+    }
+
+    /** Shows the list in {@code adapter} from now on, starting with the window already loaded. */
+    public void attach(Display adapter) {
+        this.adapter = adapter;
+        adapter.setPager(this);
+        if (!pages.isEmpty()) {
+            publish();
+        }
+    }
+
+    public void detach() {
+        if (adapter != null) {
+            adapter.setPager(null);
+            adapter = null;
+        }
+    }
+
+    /** Starts over from the first page of the given query. */
+    public void load(int shopId, String sort, String search) {
+        this.shopId = shopId;
+        this.sort = sort;
+        this.search = search;
+        int requested = nextGeneration();
+        loading = true;
+        if (!search.isEmpty()) {
+            loadFirstPage(requested);
+            return;
+        }
+        ProductTable into = obtain();
+        repository.getCachedProducts(shopId, sort, into, signal, result -> {
+            if (requested != generation) {
+                recycle(into);
+                return;
+            }
+            if (result == null) {
+                recycle(into);
+                loadFirstPage(requested);
+                return;
+            }
+            loading = false;
+            whole = true;
+            recycleAll();
+            pages.addLast(result);
+            hasBefore = false;
+            hasAfter = false;
+            publish();
+        });
+    }
+
+    private void loadFirstPage(int requested) {
+        ProductTable into = obtain();
+        repository.getProductsPage(shopId, sort, search, CURSOR_NONE, null, PAGE_SIZE, into, signal, result -> {
+            if (requested != generation) {
+                recycle(into);
+                return;
+            }
+            whole = false;
+            recycleAll();
+            hasBefore = false;
+            hasAfter = false;
+            onWindowLoaded(into, result != null, PAGE_SIZE);
+        });
+    }
+
+    /** Drops the window and cancels pages still in flight, e.g. while another list is shown or the screen is gone. */
+    public void clear() {
+        nextGeneration();
+        whole = false;
+        loading = false;
+        recycleAll();
+        hasBefore = false;
+        hasAfter = false;
+    }
+
+    /** Re-reads the pages currently in memory, e.g. after an edit or delete. */
+    public void refresh() {
+        if (whole) {
+            load(shopId, sort, search);
+        } else if (pages.isEmpty() || !hasBefore) {
+            reloadWindow(CURSOR_NONE, null);
+        } else {
+            reloadWindow(CURSOR_AFTER_INCLUSIVE, pages.getFirst().product(0));
+        }
+    }
+
+    /**
+     * Brings the window up to date after a write. Rows it shows are patched or dropped in
+     * place; it is re-read only when a row may have moved into it or within it.
+     */
+    public void onProductsChanged(DatabaseChange change) {
+        if (!change.affects(DatabaseChange.PRODUCTS)) {
+            return;
+        }
+        // A load in flight may have been issued before the write
+        if (loading || change.affectsAll(DatabaseChange.PRODUCTS)) {
+            refresh();
+            return;
+        }
+        int[] ids = change.ids(DatabaseChange.PRODUCTS);
+        int requested = generation;
+        loading = true;
+        ProductTable into = obtain();
+        repository.getProductsById(shopId, ids, into, result -> {
+            if (requested != generation) {
+                recycle(into);
+                return;
+            }
+            loading = false;
+            int outcome = result != null ? patch(ids, result) : RELOAD;
+            recycle(into);
+            if (outcome == PATCHED) {
+                publish();
+            } else if (outcome == RELOAD) {
+                refresh();
+            }
+        });
+    }
+
+    /** True while a page is being read or the window is being patched after a write. */
+    public boolean isLoading() {
+        return loading;
+    }
+
+    /** Called by the adapter for every bound row; fetches the neighbouring page when close to an edge. */
+    public void onItemBound(int position, int count) {
+        if (loading) return;
+        if (hasAfter && position >= count - PREFETCH_DISTANCE) {
+            loadAfter();
+        } else if (hasBefore && position < PREFETCH_DISTANCE) {
+            loadBefore();
+        }
+    }
+
+    /** Patches a row's bought flag in memory so the change shows without waiting for the database. */
+    public void setBought(int productId, boolean bought) {
+        for (ProductTable page : pages) {
+            int position = page.indexOf(productId);
+            if (position >= 0) {
+                if (page.isBought(position) != bought) {
+                    page.setBought(position, bought);
+                    publish();
+                }
+                return;
+            }
+        }
+    }
+
+    private void reloadWindow(int cursorMode, Product cursor) {
+        int limit = Math.max(1, pages.size()) * PAGE_SIZE;
+        int requested = nextGeneration();
+        loading = true;
+        ProductTable into = obtain();
+        repository.getProductsPage(shopId, sort, search, cursorMode, cursor, limit, into, signal, result -> {
+            if (requested != generation) {
+                recycle(into);
+                return;
+            }
+            recycleAll();
+            onWindowLoaded(into, result != null, limit);
+        });
+    }
+
+    /**
+     * Applies the current rows of the changed products in this shop to the window. Returns
+     * {@link #RELOAD} if that cannot be done in place and the window has to be re-read.
+     */
+    private int patch(int[] ids, ProductTable current) {
+        boolean changed = false;
+        for (int id : ids) {
+            int row = current.indexOf(id);
+            ProductTable page = null;
+            int position = -1;
+            for (ProductTable candidate : pages) {
+                position = candidate.indexOf(id);
+                if (position >= 0) {
+                    page = candidate;
+                    break;
+                }
+            }
+            if (page == null) {
+                if (row >= 0) {
+                    // Added, moved here or changed outside the window: its place is unknown
+                    return RELOAD;
+                }
+            } else if (row < 0) {
+                // Deleted or moved to another shop
+                page.remove(position);
+                changed = true;
+            } else if (!page.sameContent(position, current, row)) {
+                Product before = page.product(position);
+                Product after = current.product(row);
+                if (!sameSortKey(before, after) || !search.isEmpty() && !sameText(before, after)) {
+                    return RELOAD;
+                }
+                page.set(position, after);
+                changed = true;
+            }
+        }
+        for (Iterator<ProductTable> it = pages.iterator(); it.hasNext(); ) {
+            ProductTable page = it.next();
+            if (page.isEmpty()) {
+                it.remove();
+                recycle(page);
+            }
+        }
+        // An emptied window has no cursor to page from
+        if (pages.isEmpty() && (hasBefore || hasAfter)) {
+            return RELOAD;
+        }
+        return changed ? PATCHED : UNCHANGED;
+    }
+
+    private boolean sameSortKey(Product a, Product b) {
+        if (sort.startsWith("price")) {
+            return Double.compare(a.price, b.price) == 0;
+        }
+        if (sort.startsWith("bought")) {
+            return a.bought == b.bought;
+        }
+        return a.name.equals(b.name);
+    }
+
+    // Full-text search matches on name and description
+    private static boolean sameText(Product a, Product b) {
+        return a.name.equals(b.name) && Objects.equals(a.description, b.description);
+    }
+
+    /** Splits a freshly loaded window into pages. */
+    private void onWindowLoaded(ProductTable window, boolean loaded, int limit) {
+        loading = false;
+        if (!loaded) {
+            recycle(window);
+            Log.e(TAG, "Failed to load products");
+            return;
+        }
+        int size = window.size();
+        for (int start = 0; start < size; start += PAGE_SIZE) {
+            ProductTable page = obtain();
+            page.appendFrom(window, start, Math.min(size, start + PAGE_SIZE));
+            pages.addLast(page);
+        }
+        recycle(window);
+        hasAfter = size == limit;
+        publish();
+    }
+
+    private void loadAfter() {
+        ProductTable last = pages.getLast();
+        int requested = generation;
+        loading = true;
+        ProductTable into = obtain();
+        repository.getProductsPage(shopId, sort, search, CURSOR_AFTER, last.product(last.size() - 1), PAGE_SIZE, into,
+                signal, result -> {
+                    if (requested != generation) {
+                        recycle(into);
+                        return;
+                    }
+                    loading = false;
+                    if (result == null) {
+                        recycle(into);
+                        Log.e(TAG, "Failed to load next page");
+                        return;
+                    }
+                    hasAfter = result.size() == PAGE_SIZE;
+                    if (result.isEmpty()) {
+                        recycle(into);
+                        return;
+                    }
+                    pages.addLast(result);
+                    if (pages.size() > MAX_PAGES) {
+                        recycle(pages.removeFirst());
+                        hasBefore = true;
+                    }
+                    publish();
+                });
+    }
+
+    private void loadBefore() {
+        int requested = generation;
+        loading = true;
+        ProductTable into = obtain();
+        repository.getProductsPage(shopId, sort, search, CURSOR_BEFORE, pages.getFirst().product(0), PAGE_SIZE, into,
+                signal, result -> {
+                    if (requested != generation) {
+                        recycle(into);
+                        return;
+                    }
+                    loading = false;
+                    if (result == null) {
+                        recycle(into);
+                        Log.e(TAG, "Failed to load previous page");
+                        return;
+                    }
+                    hasBefore = result.size() == PAGE_SIZE;
+                    if (result.isEmpty()) {
+                        recycle(into);
+                        return;
+                    }
+                    pages.addFirst(result);
+                    if (pages.size() > MAX_PAGES) {
+                        recycle(pages.removeLast());
+                        hasAfter = true;
+                    }
+                    publish();
+                });
+    }
+
+    private int nextGeneration() {
+        signal.cancel();
+        signal = new CancellationSignal();
+        return ++generation;
+    }
+
+    private ProductTable obtain() {
+        ProductTable table = spare.poll();
+        return table != null ? table : new ProductTable();
+    }
+
+    private void recycle(ProductTable table) {
+        if (spare.size() <= MAX_PAGES) {
+            table.clear();
+            spare.push(table);
+        }
+    }
+
+    private void recycleAll() {
+        while (!pages.isEmpty()) {
+            recycle(pages.poll());
+        }
+    }
+
+    /** Copies the pages into a table the adapter no longer shows and hands it over. */
+    private void publish() {
+        if (adapter == null) return;
+        ProductTable window = adapter.obtainTable();
+        for (ProductTable page : pages) {
+            window.appendFrom(page, 0, page.size());
+        }
+        adapter.submitTable(window);
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.shoppinglistapp;
+
+/** Text of {@link ProductAdapter}'s rows, assembled without allocating; see {@link RowText}. */
+final class ProductRowText {
+    private ProductRowText() {
+    }
+
+    static void price(RowText text, PriceFormat format, double price) {
+        text.start();
+        text.appendPrice(format, price);
+    }
+
+    /** A search hit from any shop is described as "shop · description". */
+    static void searchHitDescription(RowText text, String shopName, String description) {
+        text.start().append(shopName).append(" · ").append(description);
+    }
+}
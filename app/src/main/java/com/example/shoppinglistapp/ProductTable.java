@@ -0,0 +1,423 @@
+package com.example.shoppinglistapp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Products stored column by column: ids and prices in primitive arrays, bought flags in a
+ * bitset, and names and descriptions as UTF-8 ranges of one shared byte array that are
+ * decoded to String only when a row is first read. A table is refilled in place, so
+ * reloading a list reuses its arrays instead of allocating objects per row.
+ * <p>
+ * Rows are addressed by position in the current view, which {@link #sort} reorders and
+ * {@link #filter} narrows without moving row data. A table is not thread-safe; it is
+ * filled on one thread and then handed over whole.
+ */
+public class ProductTable {
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int AVERAGE_TEXT_BYTES = 48;
+    // Array bytes per row of capacity, used to estimate the size of cached tables
+    private static final int ROW_BYTES = 4 + 8 + 4 + 4 * 4 + 2 * 4;
+
+    public interface RowFilter {
+        boolean accept(ProductTable table, int position);
+    }
+
+    private int rows;
+    private int size;
+    // Row index for each position in the view
+    private int[] order = new int[INITIAL_CAPACITY];
+    private int[] ids = new int[INITIAL_CAPACITY];
+    private double[] prices = new double[INITIAL_CAPACITY];
+    private long[] bought = new long[words(INITIAL_CAPACITY)];
+    // Offset and length in text; a negative length is NULL
+    private int[] nameOffsets = new int[INITIAL_CAPACITY];
+    private int[] nameLengths = new int[INITIAL_CAPACITY];
+    private int[] descriptionOffsets = new int[INITIAL_CAPACITY];
+    private int[] descriptionLengths = new int[INITIAL_CAPACITY];
+    // Decoded on first access
+    private String[] names = new String[INITIAL_CAPACITY];
+    private String[] descriptions = new String[INITIAL_CAPACITY];
+    private byte[] text = new byte[INITIAL_CAPACITY * AVERAGE_TEXT_BYTES];
+    private int textLength;
+
+    /** Number of rows in the view. */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Empties the table, keeping its arrays for the next fill. */
+    public void clear() {
+        Arrays.fill(names, 0, rows, null);
+        Arrays.fill(descriptions, 0, rows, null);
+        Arrays.fill(bought, 0, words(rows), 0);
+        rows = 0;
+        size = 0;
+        textLength = 0;
+    }
+
+    public int id(int position) {
+        return ids[order[position]];
+    }
+
+    public double price(int position) {
+        return prices[order[position]];
+    }
+
+    public boolean isBought(int position) {
+        return bit(order[position]);
+    }
+
+    public String name(int position) {
+        int row = order[position];
+        if (names[row] == null) {
+            names[row] = decode(nameOffsets[row], nameLengths[row]);
+        }
+        return names[row];
+    }
+
+    public String description(int position) {
+        int row = order[position];
+        if (descriptions[row] == null) {
+            descriptions[row] = decode(descriptionOffsets[row], descriptionLengths[row]);
+        }
+        return descriptions[row];
+    }
+
+    /** Copies a row out as an object, e.g. to hand it to a click listener. */
+    public Product product(int position) {
+        return new Product(id(position), name(position), price(position), isBought(position), description(position));
+    }
+
+    /** Position of the product in the view, or -1. */
+    public int indexOf(int productId) {
+        for (int i = 0; i < size; i++) {
+            if (ids[order[i]] == productId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public void setBought(int position, boolean value) {
+        setBit(order[position], value);
+    }
+
+    /** Replaces a row's values; the old text stays in the pool until the table is cleared. */
+    public void set(int position, Product product) {
+        int row = order[position];
+        ids[row] = product.id;
+        prices[row] = product.price;
+        setBit(row, product.bought);
+        putName(row, product.name);
+        putDescription(row, product.description);
+    }
+
+    /**
+     * Appends a row and puts it at the end of the view. Its texts are set with
+     * {@link #readName} and {@link #readDescription}.
+     */
+    public int append(int id, double price, boolean isBought) {
+        ensureCapacity(rows + 1);
+        int row = rows++;
+        ids[row] = id;
+        prices[row] = price;
+        setBit(row, isBought);
+        nameLengths[row] = -1;
+        descriptionLengths[row] = -1;
+        order[size++] = row;
+        return row;
+    }
+
+    /** Copies the next {@code length} bytes of {@code in} as the row's name; negative is NULL. */
+    void readName(int row, ByteBuffer in, int length) {
+        nameOffsets[row] = read(in, length);
+        nameLengths[row] = length;
+        names[row] = null;
+    }
+
+    void readDescription(int row, ByteBuffer in, int length) {
+        descriptionOffsets[row] = read(in, length);
+        descriptionLengths[row] = length;
+        descriptions[row] = null;
+    }
+
+    /** Appends the rows at positions {@code from} to {@code to} of another table's view. */
+    public void appendFrom(ProductTable source, int from, int to) {
+        ensureCapacity(rows + to - from);
+        for (int i = from; i < to; i++) {
+            int src = source.order[i];
+            int row = append(source.ids[src], source.prices[src], source.bit(src));
+            nameOffsets[row] = copyText(source, source.nameOffsets[src], source.nameLengths[src]);
+            nameLengths[row] = source.nameLengths[src];
+            descriptionOffsets[row] = copyText(source, source.descriptionOffsets[src], source.descriptionLengths[src]);
+            descriptionLengths[row] = source.descriptionLengths[src];
+            names[row] = source.names[src];
+            descriptions[row] = source.descriptions[src];
+        }
+    }
+
+    /** Replaces this table's contents with the other table's view. */
+    public void copyFrom(ProductTable source) {
+        clear();
+        appendFrom(source, 0, source.size);
+    }
+
+    /** Removes the row at the position from the table altogether. */
+    public void remove(int position) {
+        int row = order[position];
+        int tail = rows - row - 1;
+        System.arraycopy(ids, row + 1, ids, row, tail);
+        System.arraycopy(prices, row + 1, prices, row, tail);
+        System.arraycopy(nameOffsets, row + 1, nameOffsets, row, tail);
+        System.arraycopy(nameLengths, row + 1, nameLengths, row, tail);
+        System.arraycopy(descriptionOffsets, row + 1, descriptionOffsets, row, tail);
+        System.arraycopy(descriptionLengths, row + 1, descriptionLengths, row, tail);
+        System.arraycopy(names, row + 1, names, row, tail);
+        System.arraycopy(descriptions, row + 1, descriptions, row, tail);
+        for (int r = row; r < rows - 1; r++) {
+            setBit(r, bit(r + 1));
+        }
+        rows--;
+        setBit(rows, false);
+        names[rows] = null;
+        descriptions[rows] = null;
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            int r = order[i];
+            if (r != row) {
+                order[kept++] = r > row ? r - 1 : r;
+            }
+        }
+        size = kept;
+    }
+
+    /** Keeps the rows of the view that the filter accepts, in their current order. */
+    public void filter(RowFilter filter) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (filter.accept(this, i)) {
+                order[kept++] = order[i];
+            }
+        }
+        size = kept;
+    }
+
+    /** Puts every row back into the view in the order it was added. */
+    public void clearFilter() {
+        for (int row = 0; row < rows; row++) {
+            order[row] = row;
+        }
+        size = rows;
+    }
+
+    /**
+     * Orders the view like ORDER BY {@code column [DESC], id [DESC]} in native-lib, for the
+     * sort strings passed to {@link NativeDb#getProductsPage}.
+     */
+    public void sort(String sort) {
+        int column = sort.startsWith("price") ? 1 : sort.startsWith("bought") ? 2 : 0;
+        int direction = sort.endsWith("DESC") ? -1 : 1;
+        quickSort(column, direction, 0, size - 1);
+    }
+
+    /** Reverses the order of the view. */
+    public void reverse() {
+        for (int i = 0, j = size - 1; i < j; i++, j--) {
+            swap(i, j);
+        }
+    }
+
+    /** Same id, price, bought flag and text bytes as the other table's row. */
+    public boolean sameContent(int position, ProductTable other, int otherPosition) {
+        int row = order[position];
+        int otherRow = other.order[otherPosition];
+        return ids[row] == other.ids[otherRow]
+                && Double.compare(prices[row], other.prices[otherRow]) == 0
+                && bit(row) == other.bit(otherRow)
+                && sameText(nameOffsets[row], nameLengths[row], other, other.nameOffsets[otherRow], other.nameLengths[otherRow])
+                && sameText(descriptionOffsets[row], descriptionLengths[row],
+                        other, other.descriptionOffsets[otherRow], other.descriptionLengths[otherRow]);
+    }
+
+    /** Rough heap cost of the arrays, excluding decoded strings. */
+    public long sizeInBytes() {
+        return (long) ids.length * ROW_BYTES + bought.length * 8L + text.length;
+    }
+
+    private void quickSort(int column, int direction, int low, int high) {
+        while (high - low > 16) {
+            int mid = (low + high) >>> 1;
+            // Median of three as the pivot, moved to high
+            if (compare(column, direction, order[mid], order[low]) < 0) swap(mid, low);
+            if (compare(column, direction, order[high], order[low]) < 0) swap(high, low);
+            if (compare(column, direction, order[mid], order[high]) < 0) swap(mid, high);
+            int pivot = order[high];
+            int store = low;
+            for (int i = low; i < high; i++) {
+                if (compare(column, direction, order[i], pivot) < 0) {
+                    swap(i, store++);
+                }
+            }
+            swap(store, high);
+            // Recurse into the smaller half to bound the stack depth
+            if (store - low < high - store) {
+                quickSort(column, direction, low, store - 1);
+                low = store + 1;
+            } else {
+                quickSort(column, direction, store + 1, high);
+                high = store - 1;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            int row = order[i];
+            int j = i - 1;
+            while (j >= low && compare(column, direction, order[j], row) > 0) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = row;
+        }
+    }
+
+    private int compare(int column, int direction, int a, int b) {
+        int result;
+        if (column == 1) {
+            result = Double.compare(prices[a], prices[b]);
+        } else if (column == 2) {
+            result = Boolean.compare(bit(a), bit(b));
+        } else {
+            result = compareText(nameOffsets[a], nameLengths[a], nameOffsets[b], nameLengths[b]);
+        }
+        if (result == 0) {
+            result = Integer.compare(ids[a], ids[b]);
+        }
+        return direction * result;
+    }
+
+    /** SQLite's BINARY collation: unsigned UTF-8 bytes, NULL first. */
+    private int compareText(int offsetA, int lengthA, int offsetB, int lengthB) {
+        if (lengthA < 0 || lengthB < 0) {
+            return Integer.compare(lengthA < 0 ? 0 : 1, lengthB < 0 ? 0 : 1);
+        }
+        int n = Math.min(lengthA, lengthB);
+        for (int i = 0; i < n; i++) {
+            int a = text[offsetA + i] & 0xFF;
+            int b = text[offsetB + i] & 0xFF;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return Integer.compare(lengthA, lengthB);
+    }
+
+    private boolean sameText(int offset, int length, ProductTable other, int otherOffset, int otherLength) {
+        if (length != otherLength) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (text[offset + i] != other.text[otherOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void swap(int i, int j) {
+        int row = order[i];
+        order[i] = order[j];
+        order[j] = row;
+    }
+
+    private String decode(int offset, int length) {
+        return length < 0 ? "" : new String(text, offset, length, StandardCharsets.UTF_8);
+    }
+
+    private int read(ByteBuffer in, int length) {
+        if (length <= 0) {
+            return textLength;
+        }
+        ensureText(length);
+        in.get(text, textLength, length);
+        textLength += length;
+        return textLength - length;
+    }
+
+    private int copyText(ProductTable source, int offset, int length) {
+        if (length <= 0) {
+            return textLength;
+        }
+        ensureText(length);
+        System.arraycopy(source.text, offset, text, textLength, length);
+        textLength += length;
+        return textLength - length;
+    }
+
+    private void putName(int row, String value) {
+        byte[] bytes = value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+        nameOffsets[row] = put(bytes);
+        nameLengths[row] = bytes != null ? bytes.length : -1;
+        names[row] = value;
+    }
+
+    private void putDescription(int row, String value) {
+        byte[] bytes = value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+        descriptionOffsets[row] = put(bytes);
+        descriptionLengths[row] = bytes != null ? bytes.length : -1;
+        descriptions[row] = value;
+    }
+
+    private int put(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            return textLength;
+        }
+        ensureText(bytes.length);
+        System.arraycopy(bytes, 0, text, textLength, bytes.length);
+        textLength += bytes.length;
+        return textLength - bytes.length;
+    }
+
+    private boolean bit(int row) {
+        return (bought[row >>> 6] & (1L << row)) != 0;
+    }
+
+    private void setBit(int row, boolean value) {
+        if (value) {
+            bought[row >>> 6] |= 1L << row;
+        } else {
+            bought[row >>> 6] &= ~(1L << row);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length) {
+            return;
+        }
+        int grown = Math.max(capacity, ids.length * 2);
+        order = Arrays.copyOf(order, grown);
+        ids = Arrays.copyOf(ids, grown);
+        prices = Arrays.copyOf(prices, grown);
+        bought = Arrays.copyOf(bought, words(grown));
+        nameOffsets = Arrays.copyOf(nameOffsets, grown);
+        nameLengths = Arrays.copyOf(nameLengths, grown);
+        descriptionOffsets = Arrays.copyOf(descriptionOffsets, grown);
+        descriptionLengths = Arrays.copyOf(descriptionLengths, grown);
+        names = Arrays.copyOf(names, grown);
+        descriptions = Arrays.copyOf(descriptions, grown);
+    }
+
+    private void ensureText(int extra) {
+        if (textLength + extra > text.length) {
+            text = Arrays.copyOf(text, Math.max(textLength + extra, text.length * 2));
+        }
+    }
+
+    private static int words(int bits) {
+        return (bits + 63) >>> 6;
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.shoppinglistapp;
+
+/**
+ * Progress and result of a long repository operation, such as an import, kept apart from the
+ * Activity that started it. It lives in a ViewModel; the Activity on screen attaches to it and
+ * shows its state, so a rotation during the operation neither leaks the progress dialog nor
+ * loses the result: a result that arrives with no Activity attached is delivered to the next
+ * one that attaches. Main thread only.
+ */
+public class ProgressOperation<R> {
+    public interface Listener<R> {
+        /** Called on attach while running, then after every step. */
+        void onProgress(long progress);
+
+        void onFinished(R result);
+    }
+
+    private boolean running;
+    private long progress;
+    // Finished while no listener was attached
+    private R pendingResult;
+    private boolean hasPendingResult;
+    private Listener<R> listener;
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** Marks the operation started; pass {@link #setProgress} and {@link #finish} to the repository. */
+    public void start() {
+        running = true;
+        progress = 0;
+        hasPendingResult = false;
+        pendingResult = null;
+        if (listener != null) {
+            listener.onProgress(0);
+        }
+    }
+
+    public void setProgress(long progress) {
+        this.progress = progress;
+        if (listener != null) {
+            listener.onProgress(progress);
+        }
+    }
+
+    public void finish(R result) {
+        running = false;
+        if (listener != null) {
+            listener.onFinished(result);
+        } else {
+            pendingResult = result;
+            hasPendingResult = true;
+        }
+    }
+
+    /** Shows the state in {@code listener} until {@link #detach}. */
+    public void attach(Listener<R> listener) {
+        this.listener = listener;
+        if (running) {
+            listener.onProgress(progress);
+        } else if (hasPendingResult) {
+            R result = pendingResult;
+            hasPendingResult = false;
+            pendingResult = null;
+            listener.onFinished(result);
+        }
+    }
+
+    public void detach() {
+        listener = null;
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.shoppinglistapp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reusable direct buffer for rows returned by the native layer.
+ * Layout (native byte order): int row count, then per row the fixed-width
+ * columns followed by text columns as int byte length (-1 for NULL) + UTF-8 bytes.
+ * Products: int id, double price, byte bought, text name, text description.
+ * Shops: int id, int item count, int bought count, long total price, long remaining price
+ * (prices in minor units), text name.
+ * Search hits: a product row followed by int shop id and text shop name.
+ * Changes: int table, int operation, long row id (see {@link DatabaseChange}).
+ */
+public class RowBuffer {
+    /** Returned by native queries when the SQL failed. */
+    public static final int ERROR = Integer.MIN_VALUE;
+    /** Returned by native queries stopped with {@link NativeDb#cancelQuery}. */
+    public static final int CANCELLED = Integer.MIN_VALUE + 1;
+    private static final int INITIAL_CAPACITY = 16 * 1024;
+
+    public interface Query {
+        /** Fills the buffer and returns bytes written, -(bytes needed), {@link #ERROR} or {@link #CANCELLED}. */
+        int fill(ByteBuffer out);
+    }
+
+    private ByteBuffer buffer = allocate(INITIAL_CAPACITY);
+    private byte[] scratch = new byte[256];
+
+    /** Runs the query, growing the buffer once if the result did not fit. */
+    public boolean load(Query query) {
+        int written = query.fill(buffer);
+        if (written < 0 && written != ERROR && written != CANCELLED) {
+            buffer = allocate(Integer.highestOneBit(-written) << 1);
+            written = query.fill(buffer);
+        }
+        if (written < 0) {
+            return false;
+        }
+        buffer.clear();
+        buffer.limit(written);
+        return true;
+    }
+
+    /** Appends the rows to the table without creating objects per row. */
+    public void decodeProducts(ProductTable out) {
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            readProduct(out);
+        }
+    }
+
+    public void decodeShops(List<Shop> out) {
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            int id = buffer.getInt();
+            int itemCount = buffer.getInt();
+            int boughtCount = buffer.getInt();
+            long totalPrice = buffer.getLong();
+            long remainingPrice = buffer.getLong();
+            out.add(new Shop(id, readText(), itemCount, boughtCount, totalPrice, remainingPrice));
+        }
+    }
+
+    public void decodeSearchHits(ProductTable products, Map<Integer, String> shopNames) {
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            int row = readProduct(products);
+            buffer.getInt(); // shop id
+            shopNames.put(products.id(row), readText());
+        }
+    }
+
+    public DatabaseChange decodeChanges() {
+        int count = buffer.getInt();
+        int[] tables = new int[count];
+        int[] operations = new int[count];
+        long[] rowIds = new long[count];
+        for (int i = 0; i < count; i++) {
+            tables[i] = buffer.getInt();
+            operations[i] = buffer.getInt();
+            rowIds[i] = buffer.getLong();
+        }
+        return new DatabaseChange(tables, operations, rowIds);
+    }
+
+    private int readProduct(ProductTable out) {
+        int id = buffer.getInt();
+        double price = buffer.getDouble();
+        boolean bought = buffer.get() != 0;
+        int row = out.append(id, price, bought);
+        out.readName(row, buffer, buffer.getInt());
+        out.readDescription(row, buffer, buffer.getInt());
+        return out.size() - 1;
+    }
+
+    private String readText() {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (scratch.length < length) {
+            scratch = new byte[Integer.highestOneBit(length) << 1];
+        }
+        buffer.get(scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+    }
+}
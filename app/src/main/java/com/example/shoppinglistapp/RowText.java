@@ -0,0 +1,42 @@
+package com.example.shoppinglistapp;
+
+/**
+ * Text of one view in a list row, assembled again on every bind into buffers the row
+ * keeps, so binding does not allocate once the buffers have grown. Plain Java, so the
+ * benchmarks run the same code as the adapters; {@link BoundText} hands the result to the
+ * view.
+ */
+final class RowText {
+    private final StringBuilder builder = new StringBuilder(64);
+    private final char[] price = new char[PriceFormat.MAX_LENGTH];
+    private char[] chars = new char[64];
+
+    /** Clears the text and returns the builder to append to. */
+    StringBuilder start() {
+        builder.setLength(0);
+        return builder;
+    }
+
+    void appendPrice(PriceFormat format, long minor) {
+        builder.append(price, 0, format.format(minor, price));
+    }
+
+    void appendPrice(PriceFormat format, double value) {
+        builder.append(price, 0, format.format(value, price));
+    }
+
+    /** Copies what was appended since {@link #start} to {@link #chars} and returns its length. */
+    int finish() {
+        int length = builder.length();
+        if (chars.length < length) {
+            chars = new char[Integer.highestOneBit(length) << 1];
+        }
+        builder.getChars(0, length, chars, 0);
+        return length;
+    }
+
+    /** Valid until the next {@link #finish}. */
+    char[] chars() {
+        return chars;
+    }
+}
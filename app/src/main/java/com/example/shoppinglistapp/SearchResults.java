@@ -0,0 +1,17 @@
+package com.example.shoppinglistapp;
+
+import java.util.Map;
+
+/** Ranked products matching a search across all shops, with the shop each one belongs to. */
+public class SearchResults {
+    /** Most hits a search across all shops shows. */
+    public static final int MAX_HITS = 200;
+
+    public final ProductTable products;
+    public final Map<Integer, String> shopNames;
+
+    public SearchResults(ProductTable products, Map<Integer, String> shopNames) {
+        this.products = products;
+        this.shopNames = shopNames;
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.shoppinglistapp;
+
+import android.util.SparseBooleanArray;
+import androidx.recyclerview.widget.RecyclerView;
+import java.util.List;
+
+/**
+ * Ids of the rows selected in a list. Selection mode is on while anything is selected.
+ * Ids are kept in a {@link SparseBooleanArray}, so checking a row while binding does not
+ * box its id. Changed rows are rebound with {@link #PAYLOAD}, which only updates their
+ * selected state.
+ */
+final class Selection {
+    static final Object PAYLOAD = new Object();
+
+    interface Listener {
+        void onSelectionChanged(int count);
+    }
+
+    private final RecyclerView.Adapter<?> adapter;
+    private final SparseBooleanArray ids = new SparseBooleanArray();
+    private Listener listener;
+
+    Selection(RecyclerView.Adapter<?> adapter) {
+        this.adapter = adapter;
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    boolean isActive() {
+        return ids.size() > 0;
+    }
+
+    boolean contains(int id) {
+        return ids.get(id);
+    }
+
+    int size() {
+        return ids.size();
+    }
+
+    /** Selects or deselects the row at {@code position}. */
+    void toggle(int id, int position) {
+        if (ids.get(id)) {
+            ids.delete(id);
+        } else {
+            ids.put(id, true);
+        }
+        adapter.notifyItemChanged(position, PAYLOAD);
+        notifyListener();
+    }
+
+    void clear() {
+        if (ids.size() == 0) {
+            return;
+        }
+        ids.clear();
+        adapter.notifyItemRangeChanged(0, adapter.getItemCount(), PAYLOAD);
+        notifyListener();
+    }
+
+    int[] toArray() {
+        int[] result = new int[ids.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ids.keyAt(i);
+        }
+        return result;
+    }
+
+    /** True if {@code payloads} only asks to update the selected state. */
+    static boolean onlySelectionChanged(List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            return false;
+        }
+        for (Object payload : payloads) {
+            if (payload != PAYLOAD) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void notifyListener() {
+        if (listener != null) {
+            listener.onSelectionChanged(ids.size());
+        }
+    }
+}
@@ -1,9 +1,26 @@
 package com.example.shoppinglistapp;
 public class Shop {
-    int id;
-    String name;
-    public Shop(int id, String name) {
+    final int id;
+    final String name;
+    // Maintained by SQLite triggers in shop_totals; prices in minor units (kopecks)
+    final int itemCount;
+    final int boughtCount;
+    final long totalPrice;
+    final long remainingPrice;
+    public Shop(int id, String name, int itemCount, int boughtCount, long totalPrice, long remainingPrice) {
         this.id = id;
         this.name = name;
+        this.itemCount = itemCount;
+        this.boughtCount = boughtCount;
+        this.totalPrice = totalPrice;
+        this.remainingPrice = remainingPrice;
     }
-}
\ No newline at end of file
+    public boolean sameContent(Shop other) {
+        return id == other.id
+                && name.equals(other.name)
+                && itemCount == other.itemCount
+                && boughtCount == other.boughtCount
+                && totalPrice == other.totalPrice
+                && remainingPrice == other.remainingPrice;
+    }
+}
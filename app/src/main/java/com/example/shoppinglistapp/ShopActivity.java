@@ -1,18 +1,29 @@
 package com.example.shoppinglistapp;
 
 import android.app.AlertDialog;
+import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.CheckBox;
 import android.widget.EditText;
 import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.view.ActionMode;
+import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -22,23 +33,14 @@ public class ShopActivity extends AppCompatActivity {
     private String shopName;
     private RecyclerView recyclerView;
     private ProductAdapter adapter;
-    private List<Product> products = new ArrayList<>();
-    private String currentSort = "name ASC";
-    private String searchQuery = "";
-
-    public native String addProduct(int shopId, String name, double price, String desc);
-    public native String[] getProducts(int shopId, String sort, String search);
-    public native String updateProduct(int id, String name, double price, int bought, String desc);
-    public native String deleteProduct(int id);
-
-    static {
-        try {
-            System.loadLibrary("native-lib");
-            Log.d(TAG, "Native library loaded successfully");
-        } catch (UnsatisfiedLinkError e) {
-            Log.e(TAG, "Failed to load native library", e);
-        }
-    }
+    // The loaded list and its query; kept across rotations
+    private ShopViewModel viewModel;
+    // Shown while products are selected
+    private ActionMode selectionMode;
+    // Shown while viewModel's import runs
+    private AlertDialog importDialog;
+    private final ShoppingRepository repository = ShoppingRepository.getInstance();
+    private static final int REQUEST_IMPORT = 1;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -62,42 +64,66 @@ public class ShopActivity extends AppCompatActivity {
 
         recyclerView = findViewById(R.id.recycler_products);
         recyclerView.setLayoutManager(new LinearLayoutManager(this));
-        adapter = new ProductAdapter(products, this::editProduct, this::deleteProduct, this::toggleBought);
+        adapter = new ProductAdapter(this::editProduct, this::toggleBought);
+        adapter.selection().setListener(this::onSelectionChanged);
         recyclerView.setAdapter(adapter);
+        viewModel = new ViewModelProvider(this).get(ShopViewModel.class);
+        viewModel.attach(adapter, error -> Toast.makeText(this, getString(R.string.sql_error, error),
+                Toast.LENGTH_LONG).show());
 
         FloatingActionButton fab = findViewById(R.id.fab_add_product);
         fab.setOnClickListener(v -> showAddProductDialog());
 
-        loadProducts();
-    }
+        EditText searchEt = findViewById(R.id.et_search);
+        searchEt.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
 
-    private void loadProducts() {
-        products.clear();
-        String[] prodData = getProducts(shopId, currentSort, searchQuery);
-        if (prodData != null) {
-            for (String data : prodData) {
-                String[] parts = data.split(":");
-                if (parts.length >= 4) {
-                    try {
-                        String description = parts.length > 4 ? parts[4] : "";
-                        products.add(new Product(
-                            Integer.parseInt(parts[0]),
-                            parts[1],
-                            Double.parseDouble(parts[2]),
-                            Integer.parseInt(parts[3]) == 1,
-                            description
-                        ));
-                    } catch (NumberFormatException e) {
-                        Log.e(TAG, "Error parsing product data: " + data, e);
-                    }
-                } else {
-                    Log.e(TAG, "Invalid product data format: " + data);
-                }
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
             }
-        } else {
-            Log.e(TAG, "Failed to load products: null returned");
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                // Also called when the restored text is set again after a rotation; the same query is ignored
+                viewModel.setQuery(s.toString().trim());
+            }
+        });
+        CheckBox searchAllCb = findViewById(R.id.cb_search_all_shops);
+        searchAllCb.setOnCheckedChangeListener((buttonView, isChecked) -> viewModel.setSearchAllShops(isChecked));
+
+        viewModel.start(shopId);
+        viewModel.getImport().attach(new ProgressOperation.Listener<ImportResult>() {
+            @Override
+            public void onProgress(long count) {
+                showImportProgress(count);
+            }
+
+            @Override
+            public void onFinished(ImportResult result) {
+                showImportResult(result);
+            }
+        });
+    }
+
+    @Override
+    protected void onPause() {
+        repository.flushWrites();
+        super.onPause();
+    }
+
+    @Override
+    protected void onDestroy() {
+        // The view model keeps loading; a recreated screen attaches its own adapter
+        viewModel.detach();
+        viewModel.getImport().detach();
+        // The import keeps running; a recreated screen shows its dialog again
+        if (importDialog != null) {
+            importDialog.dismiss();
+            importDialog = null;
         }
-        adapter.notifyDataSetChanged();
+        super.onDestroy();
     }
 
     private void showAddProductDialog() {
@@ -127,13 +153,12 @@ public class ShopActivity extends AppCompatActivity {
                         return;
                     }
 
-                    String error = addProduct(shopId, name, price, desc);
-                    if (error != null && !error.isEmpty()) {
-                        Log.e(TAG, "Error adding product: " + error);
-                        Toast.makeText(this, getString(R.string.sql_error, error), Toast.LENGTH_LONG).show();
-                    } else {
-                        loadProducts();
-                    }
+                    repository.addProduct(shopId, name, price, desc, error -> {
+                        if (error != null && !error.isEmpty()) {
+                            Log.e(TAG, "Error adding product: " + error);
+                            Toast.makeText(this, getString(R.string.sql_error, error), Toast.LENGTH_LONG).show();
+                        }
+                    });
                 })
                 .setNegativeButton(android.R.string.cancel, null)
                 .show();
@@ -170,46 +195,176 @@ public class ShopActivity extends AppCompatActivity {
                         return;
                     }
 
-                    String error = updateProduct(product.id, name, price, product.bought ? 1 : 0, desc);
-                    if (error != null && !error.isEmpty()) {
-                        Log.e(TAG, "Error updating product: " + error);
-                        Toast.makeText(this, getString(R.string.sql_error, error), Toast.LENGTH_LONG).show();
-                    } else {
-                        loadProducts();
-                    }
+                    repository.updateProduct(product.id, name, price, product.bought, desc, error -> {
+                        if (error != null && !error.isEmpty()) {
+                            Log.e(TAG, "Error updating product: " + error);
+                            Toast.makeText(this, getString(R.string.sql_error, error), Toast.LENGTH_LONG).show();
+                        }
+                    });
                 })
                 .setNegativeButton(android.R.string.cancel, null)
                 .show();
     }
 
-    private void deleteProduct(Product product) {
+    private void onSelectionChanged(int count) {
+        if (count == 0) {
+            if (selectionMode != null) selectionMode.finish();
+            return;
+        }
+        if (selectionMode == null) {
+            selectionMode = startSupportActionMode(selectionCallback);
+        }
+        selectionMode.setTitle(getString(R.string.selected_count, count));
+    }
+
+    private final ActionMode.Callback selectionCallback = new ActionMode.Callback() {
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.product_selection_menu, menu);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            int[] ids = adapter.selection().toArray();
+            int id = item.getItemId();
+            if (id == R.id.delete_selected) {
+                deleteProducts(ids);
+            } else if (id == R.id.mark_bought || id == R.id.mark_unbought) {
+                mode.finish();
+                repository.setBought(ids, id == R.id.mark_bought, afterBulkWrite("marking products"));
+            } else if (id == R.id.move_products) {
+                pickShopToMove(ids);
+            } else {
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            selectionMode = null;
+            adapter.selection().clear();
+        }
+    };
+
+    private void deleteProducts(int[] ids) {
         new AlertDialog.Builder(this)
-                .setTitle("Удалить продукт?")
+                .setTitle(getString(R.string.delete_products_confirm, ids.length))
                 .setPositiveButton(android.R.string.yes, (dialog, which) -> {
-                    String error = deleteProduct(product.id);
-                    if (error != null && !error.isEmpty()) {
-                        Log.e(TAG, "Error deleting product: " + error);
-                        Toast.makeText(this, getString(R.string.sql_error, error), Toast.LENGTH_LONG).show();
-                    } else {
-                        loadProducts();
-                    }
+                    if (selectionMode != null) selectionMode.finish();
+                    repository.deleteProducts(ids, afterBulkWrite("deleting products"));
                 })
                 .setNegativeButton(android.R.string.no, null)
                 .show();
     }
 
+    private void pickShopToMove(int[] ids) {
+        repository.getShops(shops -> {
+            if (shops == null) {
+                Toast.makeText(this, R.string.error_load_shops, Toast.LENGTH_SHORT).show();
+                return;
+            }
+            List<Shop> targets = new ArrayList<>();
+            for (Shop shop : shops) {
+                if (shop.id != shopId) targets.add(shop);
+            }
+            if (targets.isEmpty()) {
+                Toast.makeText(this, R.string.no_other_shops, Toast.LENGTH_SHORT).show();
+                return;
+            }
+            String[] names = new String[targets.size()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = targets.get(i).name;
+            }
+            new AlertDialog.Builder(this)
+                    .setTitle(R.string.move_products)
+                    .setItems(names, (dialog, which) -> {
+                        if (selectionMode != null) selectionMode.finish();
+                        repository.moveProducts(ids, targets.get(which).id, afterBulkWrite("moving products"));
+                    })
+                    .setNegativeButton(android.R.string.cancel, null)
+                    .show();
+        });
+    }
+
+    /** A bulk write is one transaction; the list follows from the change it publishes. */
+    private ShoppingRepository.Callback<String> afterBulkWrite(String action) {
+        return error -> {
+            if (error != null && !error.isEmpty()) {
+                Log.e(TAG, "Error " + action + ": " + error);
+                Toast.makeText(this, getString(R.string.sql_error, error), Toast.LENGTH_LONG).show();
+            }
+        };
+    }
+
+    /** Shown at once; the write is queued and batched with other toggles by the repository. */
     private void toggleBought(Product product, boolean isChecked) {
-        product.bought = isChecked;
-        String error = updateProduct(product.id, product.name, product.price, isChecked ? 1 : 0, product.description);
-        if (error != null && !error.isEmpty()) {
-            Log.e(TAG, "Error toggling product: " + error);
-            Toast.makeText(this, getString(R.string.sql_error, error), Toast.LENGTH_LONG).show();
+        viewModel.toggleBought(product, isChecked);
+    }
+
+    private void pickImportFile() {
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("text/*");
+        intent.putExtra(Intent.EXTRA_MIME_TYPES, new String[]{"text/*", "application/csv"});
+        startActivityForResult(intent, REQUEST_IMPORT);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == REQUEST_IMPORT && resultCode == RESULT_OK && data != null && data.getData() != null) {
+            importProducts(data.getData());
+        }
+    }
+
+    /** The file is read on the writer thread while it is inserted, never loaded whole. */
+    private void importProducts(Uri uri) {
+        InputStream in;
+        try {
+            in = getContentResolver().openInputStream(uri);
+        } catch (FileNotFoundException e) {
+            in = null;
+        }
+        if (in == null) {
+            Log.e(TAG, "Failed to open import file: " + uri);
+            Toast.makeText(this, R.string.error_open_file, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        viewModel.importProducts(new ProductCsvReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+    }
+
+    private void showImportProgress(long count) {
+        String message = getString(R.string.import_progress, (int) count);
+        if (importDialog == null) {
+            importDialog = new AlertDialog.Builder(this)
+                    .setTitle(R.string.import_products)
+                    .setMessage(message)
+                    .setCancelable(false)
+                    .show();
         } else {
-            int position = products.indexOf(product);
-            if (position != -1) {
-                adapter.notifyItemChanged(position);
-            }
+            importDialog.setMessage(message);
+        }
+    }
+
+    private void showImportResult(ImportResult result) {
+        if (importDialog != null) {
+            importDialog.dismiss();
+            importDialog = null;
+        }
+        if (result.error != null) {
+            Log.e(TAG, "Error importing products: " + result.error);
+            Toast.makeText(this, getString(R.string.sql_error, result.error), Toast.LENGTH_LONG).show();
+            return;
         }
+        Toast.makeText(this, getString(R.string.import_done, result.imported, result.skipped),
+                Toast.LENGTH_LONG).show();
     }
 
     @Override
@@ -225,31 +380,21 @@ public class ShopActivity extends AppCompatActivity {
             finish();
             return true;
         }
+        if (id == R.id.import_products) {
+            pickImportFile();
+            return true;
+        }
         if (id == R.id.sort_alpha_asc) {
-            currentSort = "name ASC";
+            viewModel.setSort("name ASC");
         } else if (id == R.id.sort_alpha_desc) {
-            currentSort = "name DESC";
+            viewModel.setSort("name DESC");
         } else if (id == R.id.sort_price_asc) {
-            currentSort = "price ASC";
+            viewModel.setSort("price ASC");
         } else if (id == R.id.sort_price_desc) {
-            currentSort = "price DESC";
+            viewModel.setSort("price DESC");
         } else if (id == R.id.sort_bought) {
-            currentSort = "bought DESC";
-        } else if (id == R.id.search) {
-            EditText input = new EditText(this);
-            input.setHint(R.string.search);
-            new AlertDialog.Builder(this)
-                    .setTitle(R.string.search)
-                    .setView(input)
-                    .setPositiveButton(android.R.string.ok, (dialog, which) -> {
-                        searchQuery = input.getText().toString().trim();
-                        loadProducts();
-                    })
-                    .setNegativeButton(android.R.string.cancel, null)
-                    .show();
-            return true;
+            viewModel.setSort("bought DESC");
         }
-        loadProducts();
         return super.onOptionsItemSelected(item);
     }
 }
\ No newline at end of file
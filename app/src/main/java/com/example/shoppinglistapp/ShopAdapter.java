@@ -5,58 +5,122 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import java.util.List;
+import java.util.Locale;
 
 public class ShopAdapter extends RecyclerView.Adapter<ShopAdapter.ViewHolder> {
     private static final String TAG = "ShopAdapter";
-    private final List<Shop> shops;
+    private final AsyncListDiffer<Shop> differ = new AsyncListDiffer<>(this, DIFF_CALLBACK);
     private final OnShopClickListener clickListener;
-    private final OnShopDeleteListener deleteListener;
+    private final Selection selection = new Selection(this);
+    // Created with the first row
+    private ShopSummaryFormat summary;
+    private PriceFormat priceFormat;
 
     public interface OnShopClickListener {
         void onShopClick(Shop shop);
     }
 
-    public interface OnShopDeleteListener {
-        void onShopDelete(Shop shop);
-    }
+    private static final DiffUtil.ItemCallback<Shop> DIFF_CALLBACK = new DiffUtil.ItemCallback<Shop>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Shop oldItem, @NonNull Shop newItem) {
+            return oldItem.id == newItem.id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Shop oldItem, @NonNull Shop newItem) {
+            return oldItem.sameContent(newItem);
+        }
+    };
 
-    public ShopAdapter(List<Shop> shops, OnShopClickListener clickListener, OnShopDeleteListener deleteListener) {
-        this.shops = shops;
+    public ShopAdapter(OnShopClickListener clickListener) {
         this.clickListener = clickListener;
-        this.deleteListener = deleteListener;
+        setHasStableIds(true);
+    }
+
+    /** Shops picked for a bulk action; a long press starts the selection. */
+    Selection selection() {
+        return selection;
+    }
+
+    /** Replaces the displayed list with an immutable snapshot. */
+    public void submitList(List<Shop> shops) {
+        differ.submitList(shops);
     }
 
     @Override
     public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
         View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_shop, parent, false);
-        return new ViewHolder(view);
+        if (summary == null) {
+            summary = new ShopSummaryFormat(parent.getContext().getString(R.string.shop_summary));
+            priceFormat = new PriceFormat(Locale.getDefault());
+        }
+        ViewHolder holder = new ViewHolder(view);
+        view.setOnClickListener(v -> {
+            Shop shop = shopAt(holder);
+            if (shop == null) return;
+            if (selection.isActive()) {
+                selection.toggle(shop.id, holder.getAdapterPosition());
+            } else {
+                clickListener.onShopClick(shop);
+            }
+        });
+        view.setOnLongClickListener(v -> {
+            Shop shop = shopAt(holder);
+            if (shop != null) selection.toggle(shop.id, holder.getAdapterPosition());
+            return true;
+        });
+        return holder;
     }
 
     @Override
     public void onBindViewHolder(ViewHolder holder, int position) {
-        Shop shop = shops.get(position);
-        Log.d(TAG, "Binding shop: " + shop.name);
+        Shop shop = differ.getCurrentList().get(position);
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "Binding shop: " + shop.name);
+        }
         holder.name.setText(shop.name);
-        holder.itemView.setOnClickListener(v -> clickListener.onShopClick(shop));
-        holder.itemView.setOnLongClickListener(v -> {
-            deleteListener.onShopDelete(shop);
-            return true;
-        });
+        summary.format(holder.summary.text(), priceFormat, shop);
+        holder.summary.show();
+        holder.itemView.setActivated(selection.contains(shop.id));
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position, List<Object> payloads) {
+        if (Selection.onlySelectionChanged(payloads)) {
+            holder.itemView.setActivated(selection.contains(differ.getCurrentList().get(position).id));
+        } else {
+            onBindViewHolder(holder, position);
+        }
+    }
+
+    private Shop shopAt(ViewHolder holder) {
+        int position = holder.getAdapterPosition();
+        return position != RecyclerView.NO_POSITION ? differ.getCurrentList().get(position) : null;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return differ.getCurrentList().get(position).id;
     }
 
     @Override
     public int getItemCount() {
-        return shops.size();
+        return differ.getCurrentList().size();
     }
 
     static class ViewHolder extends RecyclerView.ViewHolder {
-        TextView name;
+        final TextView name;
+        final BoundText summary;
 
         ViewHolder(View itemView) {
             super(itemView);
             name = itemView.findViewById(R.id.shop_name);
+            summary = new BoundText(itemView.findViewById(R.id.shop_summary));
         }
     }
 }
\ No newline at end of file
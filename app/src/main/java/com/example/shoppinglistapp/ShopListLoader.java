@@ -0,0 +1,113 @@
+package com.example.shoppinglistapp;
+
+import android.util.SparseBooleanArray;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Loads the shop list once and then keeps it current from {@link DatabaseChange}s: only the
+ * shops a write changed are read again and patched into the snapshot, whichever screen made
+ * the write. Shops that change while a read is in flight go into the next read, which
+ * supersedes it, so replies completing out of order never bring back older rows.
+ */
+public class ShopListLoader implements ShoppingRepository.ChangeListener {
+    // getShops returns shops in id order
+    private static final Comparator<Shop> BY_ID = (a, b) -> Integer.compare(a.id, b.id);
+
+    public interface Listener {
+        void onShopsLoaded(List<Shop> shops);
+
+        void onLoadFailed();
+    }
+
+    private final ShoppingRepository repository;
+    private final Listener listener;
+    // Shops changed since the last snapshot; their new rows are still being read
+    private final SparseBooleanArray stale = new SparseBooleanArray();
+    private List<Shop> shops;
+    private boolean loadingAll;
+    // Bumped by every read so that only the latest one is applied
+    private int generation;
+
+    public ShopListLoader(ShoppingRepository repository, Listener listener) {
+        this.repository = repository;
+        this.listener = listener;
+    }
+
+    /** Loads the list and follows later writes until {@link #stop}. */
+    public void start() {
+        repository.addChangeListener(this);
+        load();
+    }
+
+    public void stop() {
+        repository.removeChangeListener(this);
+        ++generation;
+    }
+
+    /** Reads the whole list again. */
+    public void load() {
+        stale.clear();
+        loadingAll = true;
+        int requested = ++generation;
+        repository.getShops(result -> {
+            if (requested != generation) return;
+            loadingAll = false;
+            if (result == null) {
+                listener.onLoadFailed();
+                return;
+            }
+            publish(result);
+        });
+    }
+
+    @Override
+    public void onChange(DatabaseChange change) {
+        if (!change.affects(DatabaseChange.SHOPS)) {
+            return;
+        }
+        // A full read in flight may have started before this write
+        if (shops == null || loadingAll || change.affectsAll(DatabaseChange.SHOPS)) {
+            load();
+            return;
+        }
+        for (int id : change.ids(DatabaseChange.SHOPS)) {
+            stale.put(id, true);
+        }
+        int[] ids = new int[stale.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = stale.keyAt(i);
+        }
+        int requested = ++generation;
+        repository.getShopsById(ids, result -> {
+            if (requested != generation) return;
+            if (result == null) {
+                load();
+                return;
+            }
+            stale.clear();
+            publish(patch(shops, ids, result));
+        });
+    }
+
+    private void publish(List<Shop> result) {
+        shops = result;
+        listener.onShopsLoaded(result);
+    }
+
+    /** The snapshot with the shops in {@code ids} replaced by their current rows; ids are sorted. */
+    private static List<Shop> patch(List<Shop> shops, int[] ids, List<Shop> current) {
+        List<Shop> patched = new ArrayList<>(shops.size() + current.size());
+        for (Shop shop : shops) {
+            if (Arrays.binarySearch(ids, shop.id) < 0) {
+                patched.add(shop);
+            }
+        }
+        patched.addAll(current);
+        Collections.sort(patched, BY_ID);
+        return Collections.unmodifiableList(patched);
+    }
+}
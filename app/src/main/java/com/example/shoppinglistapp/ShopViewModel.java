@@ -0,0 +1,217 @@
+package com.example.shoppinglistapp;
+
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import androidx.lifecycle.SavedStateHandle;
+import androidx.lifecycle.ViewModel;
+
+/**
+ * The product list of the shop open in {@link ShopActivity} and the query it shows. It
+ * survives configuration changes, so a rotated screen attaches its new adapter and is shown
+ * the rows already in memory instead of reading them from SQLite again. Only the query
+ * (sort, search text, search across shops) goes into the saved state: after process death
+ * it is restored and the rows are read again. A running CSV import is kept here as well, so
+ * its progress and result reach whichever Activity is on screen.
+ */
+public class ShopViewModel extends ViewModel {
+    private static final String TAG = "ShopViewModel";
+    private static final String KEY_SORT = "sort";
+    private static final String KEY_QUERY = "query";
+    private static final String KEY_SEARCH_ALL = "search_all_shops";
+    private static final long SEARCH_DEBOUNCE_MS = 250;
+
+    private final SavedStateHandle state;
+    private final ShoppingRepository repository = ShoppingRepository.getInstance();
+    private final ProductPager pager = new ProductPager(repository);
+    private final Handler searchHandler = new Handler(Looper.getMainLooper());
+    private final Runnable searchRunnable = this::loadProducts;
+    private final ShoppingRepository.ChangeListener changeListener = this::onDatabaseChanged;
+    private int shopId = -1;
+    private String sort;
+    private String query;
+    private boolean searchAllShops;
+    private int searchGeneration;
+    // The search across shops in flight; cancelled when a newer one starts
+    private CancellationSignal searchSignal;
+    // Hits of the last search across shops; the adapter is shown copies, so they can be shown again
+    private SearchResults searchResults;
+    private ProductAdapter adapter;
+    // Shows write errors on the screen attached now; null between screens
+    private ShoppingRepository.Callback<String> errorListener;
+    private final ProgressOperation<ImportResult> importOperation = new ProgressOperation<>();
+
+    public ShopViewModel(SavedStateHandle state) {
+        this.state = state;
+        String savedSort = state.get(KEY_SORT);
+        String savedQuery = state.get(KEY_QUERY);
+        Boolean savedSearchAll = state.get(KEY_SEARCH_ALL);
+        sort = savedSort != null ? savedSort : "name ASC";
+        query = savedQuery != null ? savedQuery : "";
+        searchAllShops = savedSearchAll != null && savedSearchAll;
+        repository.addChangeListener(changeListener);
+    }
+
+    /** Loads the shop's products the first time; later calls, e.g. after a rotation, keep what is loaded. */
+    public void start(int shopId) {
+        if (this.shopId == shopId) return;
+        this.shopId = shopId;
+        loadProducts();
+    }
+
+    /**
+     * Shows the list in {@code adapter} and failed writes in {@code errorListener} until
+     * {@link #detach}, starting with the rows in memory.
+     */
+    public void attach(ProductAdapter adapter, ShoppingRepository.Callback<String> errorListener) {
+        this.adapter = adapter;
+        this.errorListener = errorListener;
+        pager.attach(adapter);
+        if (isSearchingAllShops() && searchResults != null) {
+            showSearchResults();
+        }
+    }
+
+    public void detach() {
+        pager.detach();
+        adapter = null;
+        errorListener = null;
+    }
+
+    public String getSort() {
+        return sort;
+    }
+
+    public void setSort(String sort) {
+        this.sort = sort;
+        state.set(KEY_SORT, sort);
+        loadProducts();
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    /** Searches for {@code query} once typing pauses. */
+    public void setQuery(String query) {
+        if (query.equals(this.query)) return;
+        this.query = query;
+        state.set(KEY_QUERY, query);
+        searchHandler.removeCallbacks(searchRunnable);
+        searchHandler.postDelayed(searchRunnable, SEARCH_DEBOUNCE_MS);
+    }
+
+    public boolean isSearchAllShops() {
+        return searchAllShops;
+    }
+
+    public void setSearchAllShops(boolean searchAllShops) {
+        if (searchAllShops == this.searchAllShops) return;
+        this.searchAllShops = searchAllShops;
+        state.set(KEY_SEARCH_ALL, searchAllShops);
+        loadProducts();
+    }
+
+    /** True while the list shows search hits from every shop rather than this shop's pages. */
+    public boolean isSearchingAllShops() {
+        return searchAllShops && !query.isEmpty();
+    }
+
+    /**
+     * Shows the toggle at once and queues the write, batched with other toggles by the
+     * repository. The queue holds the rollback until it flushes, possibly after the screen
+     * is gone, so the rollback refers to this view model and reports to whichever screen
+     * is attached then.
+     */
+    public void toggleBought(Product product, boolean bought) {
+        showBought(product.id, bought);
+        repository.setBought(product.id, product.bought, bought, (stored, error) -> {
+            Log.e(TAG, "Failed to write bought toggle: " + error);
+            if (errorListener != null) {
+                errorListener.onResult(error);
+            }
+            // Search hits are not paged; they are read again
+            if (isSearchingAllShops()) {
+                loadProducts();
+            } else {
+                showBought(product.id, stored);
+            }
+        });
+    }
+
+    /** Patches a row's bought flag in memory so the change shows without waiting for the database. */
+    private void showBought(int productId, boolean bought) {
+        pager.setBought(productId, bought);
+    }
+
+    /** Streams the products from {@code reader} into the shop; progress and result go to {@link #getImport}. */
+    public void importProducts(ProductCsvReader reader) {
+        importOperation.start();
+        repository.importProducts(shopId, reader, importOperation::setProgress, importOperation::finish);
+    }
+
+    public ProgressOperation<ImportResult> getImport() {
+        return importOperation;
+    }
+
+    @Override
+    protected void onCleared() {
+        searchHandler.removeCallbacks(searchRunnable);
+        repository.removeChangeListener(changeListener);
+        // Nothing loaded from here on would be shown
+        ++searchGeneration;
+        cancelSearch();
+        pager.clear();
+        pager.detach();
+        importOperation.detach();
+    }
+
+    private void loadProducts() {
+        searchHandler.removeCallbacks(searchRunnable);
+        int requested = ++searchGeneration;
+        cancelSearch();
+        searchResults = null;
+        if (isSearchingAllShops()) {
+            pager.clear();
+            searchSignal = new CancellationSignal();
+            repository.searchAllShops(query, SearchResults.MAX_HITS, new ProductTable(), searchSignal, results -> {
+                if (requested != searchGeneration) return;
+                if (results == null) {
+                    Log.e(TAG, "Failed to search products");
+                    return;
+                }
+                searchResults = results;
+                showSearchResults();
+            });
+        } else {
+            pager.load(shopId, sort, query);
+        }
+    }
+
+    private void showSearchResults() {
+        if (adapter == null) return;
+        ProductTable copy = adapter.obtainTable();
+        copy.copyFrom(searchResults.products);
+        adapter.submitSearchResults(new SearchResults(copy, searchResults.shopNames));
+    }
+
+    private void cancelSearch() {
+        if (searchSignal != null) {
+            searchSignal.cancel();
+            searchSignal = null;
+        }
+    }
+
+    /** Keeps the list current after writes made here or on any other screen. */
+    private void onDatabaseChanged(DatabaseChange change) {
+        if (!change.affects(DatabaseChange.PRODUCTS)) {
+            return;
+        }
+        if (isSearchingAllShops()) {
+            loadProducts();
+        } else {
+            pager.onProductsChanged(change);
+        }
+    }
+}
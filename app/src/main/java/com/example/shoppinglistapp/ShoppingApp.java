@@ -0,0 +1,23 @@
+package com.example.shoppinglistapp;
+
+import android.app.Application;
+
+/**
+ * Starts loading the native library and opening the database on the repository's writer
+ * thread as soon as the process starts, so that this overlaps with creating the first
+ * activity instead of following it. The database is opened with the {@link StorageProfile}
+ * for this device and maintained by {@link MaintenanceScheduler} while the app is idle.
+ */
+public class ShoppingApp extends Application {
+    static final String DATABASE_NAME = "shopping.db";
+
+    @Override
+    public void onCreate() {
+        long begin = StartupTrace.begin("app.onCreate");
+        super.onCreate();
+        ShoppingRepository repository = ShoppingRepository.getInstance();
+        repository.open(getDatabasePath(DATABASE_NAME), StorageProfile.forDevice(this), null);
+        registerActivityLifecycleCallbacks(new MaintenanceScheduler(this, repository));
+        StartupTrace.end("app.onCreate", begin);
+    }
+}
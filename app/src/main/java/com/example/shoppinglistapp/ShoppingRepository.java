@@ -0,0 +1,749 @@
+package com.example.shoppinglistapp;
+
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+
+/**
+ * Single entry point to the native database. Writes run one at a time on the writer
+ * thread, reads run concurrently on a small pool matching the native read-only
+ * connections, and results are delivered on the main thread. A read always waits for
+ * the writes submitted before it, so a reload issued after a write observes that write;
+ * reads may complete in any order relative to each other. After every write the rows it
+ * committed are published to the {@link ChangeListener}s, also on the main thread.
+ */
+public class ShoppingRepository {
+    private static final String TAG = "ShoppingRepository";
+    // Same as the number of read-only connections in native-lib
+    private static final int READER_THREADS = 3;
+    // Rows handed to the native layer per call while importing
+    private static final int IMPORT_CHUNK = 500;
+    // Rows per transaction when restoring a whole database
+    private static final int RESTORE_COMMIT_ROWS = 10000;
+    private static final int EXPORT_BUFFER_SIZE = 256 * 1024;
+    // How long bought toggles are buffered before they are written
+    private static final long BOUGHT_FLUSH_DELAY_MS = 500;
+    private static ShoppingRepository instance;
+
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    /** Told on the main thread about the rows each write committed, after that write's callback. */
+    public interface ChangeListener {
+        void onChange(DatabaseChange change);
+    }
+
+    private final ExecutorService writeExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "db-writer"));
+    private final ExecutorService readExecutor = Executors.newFixedThreadPool(READER_THREADS, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, "db-reader-" + count.incrementAndGet());
+        }
+    });
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final BoughtWriteQueue boughtQueue = new BoughtWriteQueue();
+    private final ProductCache productCache = new ProductCache();
+    private final Runnable boughtFlush = this::flushWrites;
+    // Tokens of cancellable native queries; never reused
+    private final AtomicLong queryTokens = new AtomicLong();
+    // Main thread only
+    private final List<ChangeListener> changeListeners = new ArrayList<>();
+    // One buffer per reader thread
+    private final ThreadLocal<RowBuffer> rowBuffers = new ThreadLocal<RowBuffer>() {
+        @Override
+        protected RowBuffer initialValue() {
+            return new RowBuffer();
+        }
+    };
+    // Confined to the writer thread
+    private final ProductBatch batch = new ProductBatch();
+    private final RowBuffer changeRows = new RowBuffer();
+    private final SyncEngine syncEngine = new SyncEngine();
+    private boolean databaseOpen;
+    private Future<?> lastWrite = CompletableFuture.completedFuture(null);
+    private String openedPath;
+    // Result of the latest open; confined to the writer thread
+    private String openError;
+    private volatile MaintenanceReport lastMaintenance;
+
+    public static synchronized ShoppingRepository getInstance() {
+        if (instance == null) {
+            instance = new ShoppingRepository();
+        }
+        return instance;
+    }
+
+    private ShoppingRepository() {
+    }
+
+    /**
+     * Opens the database with the given {@link StorageProfile}, creating its directory and
+     * running migrations, on the writer thread. Opening the path that is already open or
+     * being opened does nothing more than deliver that open's result once it is known.
+     */
+    public synchronized void open(File dbFile, int storageProfile, Callback<String> callback) {
+        String dbPath = dbFile.getAbsolutePath();
+        if (dbPath.equals(openedPath)) {
+            write(() -> openError, callback);
+            return;
+        }
+        openedPath = dbPath;
+        productCache.clear();
+        write(() -> {
+            long begin = StartupTrace.begin("db.loadLibrary");
+            try {
+                NativeDb.load();
+            } catch (UnsatisfiedLinkError e) {
+                openError = e.getMessage();
+            } finally {
+                StartupTrace.end("db.loadLibrary", begin);
+            }
+            if (openError == null) {
+                begin = StartupTrace.begin("db.open");
+                File dir = dbFile.getParentFile();
+                if (dir != null && !dir.exists() && !dir.mkdirs()) {
+                    Log.w(TAG, "Failed to create " + dir);
+                }
+                String error = NativeDb.initDatabase(dbPath, storageProfile);
+                openError = isOk(error) ? null : error;
+                databaseOpen = openError == null;
+                StartupTrace.end("db.open", begin);
+            }
+            if (openError != null) {
+                synchronized (this) {
+                    openedPath = null;
+                }
+            }
+            return openError;
+        }, callback);
+    }
+
+    public void addShop(String name, Callback<String> callback) {
+        write(() -> NativeDb.addShop(name), callback);
+    }
+
+    /** Deletes the shops and their products in one transaction. */
+    public void deleteShops(int[] shopIds, Callback<String> callback) {
+        for (int shopId : shopIds) {
+            productCache.invalidate(shopId);
+        }
+        write(() -> NativeDb.deleteShops(shopIds), callback);
+    }
+
+    public void deleteAll(Callback<String> callback) {
+        productCache.clear();
+        write(NativeDb::deleteAll, callback);
+    }
+
+    public void executeSql(String sql, Callback<String> callback) {
+        // Arbitrary SQL may touch any shop
+        productCache.clear();
+        write(() -> NativeDb.executeSql(sql), callback);
+    }
+
+    public void addProduct(int shopId, String name, double price, String desc, Callback<String> callback) {
+        productCache.invalidate(shopId);
+        write(() -> NativeDb.addProduct(shopId, name, price, desc), callback);
+    }
+
+    /** Inserts all products in one transaction; the arrays are parallel. */
+    public void addProducts(int shopId, String[] names, double[] prices, String[] descriptions, Callback<String> callback) {
+        productCache.invalidate(shopId);
+        write(() -> {
+            batch.clear();
+            for (int i = 0; i < names.length; i++) {
+                batch.add(names[i], prices[i], descriptions[i]);
+            }
+            return NativeDb.addProducts(shopId, batch.buffer(), batch.length(), batch.size());
+        }, callback);
+    }
+
+    /**
+     * Streams products from {@code source} into the shop in chunks of {@link #IMPORT_CHUNK},
+     * all inside one transaction: either every row is committed or none is. The running
+     * count is delivered to {@code progress} after each chunk. Closes {@code source}.
+     */
+    public void importProducts(int shopId, ProductCsvReader source, Callback<Integer> progress,
+                               Callback<ImportResult> callback) {
+        productCache.invalidate(shopId);
+        write(() -> {
+            int imported = 0;
+            String error = NativeDb.beginTransaction();
+            try {
+                while (isOk(error)) {
+                    batch.clear();
+                    if (source.read(batch, IMPORT_CHUNK) == 0) {
+                        break;
+                    }
+                    error = NativeDb.addProducts(shopId, batch.buffer(), batch.length(), batch.size());
+                    if (isOk(error)) {
+                        imported += batch.size();
+                        deliver(imported, progress);
+                    }
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to read import file", e);
+                error = e.getMessage() != null ? e.getMessage() : e.toString();
+            } finally {
+                closeQuietly(source);
+            }
+            String endError = NativeDb.endTransaction(isOk(error));
+            if (isOk(error)) {
+                error = endError;
+            }
+            return isOk(error)
+                    ? new ImportResult(imported, source.getSkipped(), null)
+                    : new ImportResult(0, source.getSkipped(), error);
+        }, callback);
+    }
+
+    /**
+     * Writes every shop and product to {@code out} as JSON Lines (see {@link DatabaseDumpReader}),
+     * a buffer at a time straight from the native cursor, so memory use does not depend on
+     * the size of the database. Runs on the writer thread, which keeps other writes out and
+     * makes the export a consistent snapshot. The running byte count is delivered to
+     * {@code progress}. Closes {@code out}.
+     */
+    public void exportDatabase(WritableByteChannel out, Callback<Long> progress, Callback<ExportResult> callback) {
+        // Toggles already shown on screen are part of the snapshot
+        flushWrites();
+        write(() -> {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(EXPORT_BUFFER_SIZE);
+            long[] cursor = new long[3];
+            long bytes = 0;
+            String error = null;
+            try {
+                buffer.put(DatabaseDumpReader.HEADER.getBytes(StandardCharsets.UTF_8));
+                buffer.flip();
+                bytes += writeFully(out, buffer);
+                while (true) {
+                    buffer.clear();
+                    int written = NativeDb.exportRows(cursor, buffer);
+                    if (written == RowBuffer.ERROR) {
+                        error = "Export query failed";
+                        break;
+                    }
+                    if (written < 0) {
+                        // One line longer than the buffer; the cursor has not moved
+                        buffer = ByteBuffer.allocateDirect(Integer.highestOneBit(-written) << 1);
+                        continue;
+                    }
+                    if (written == 0) {
+                        break;
+                    }
+                    buffer.limit(written);
+                    bytes += writeFully(out, buffer);
+                    deliver(bytes, progress);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to write export file", e);
+                error = e.getMessage() != null ? e.getMessage() : e.toString();
+            } finally {
+                closeQuietly(out);
+            }
+            return new ExportResult(cursor[2], bytes, error);
+        }, callback);
+    }
+
+    /**
+     * Adds every shop and product from an export to the database, reading {@code in} line by
+     * line. Shops get new ids. Rows are inserted in batches of {@link #IMPORT_CHUNK} and
+     * committed every {@link #RESTORE_COMMIT_ROWS}, so a large file does not build up one huge
+     * transaction in the WAL; on failure only the last, uncommitted part is rolled back. The running count of committed products is
+     * delivered to {@code progress}. Closes {@code in}.
+     */
+    public void importDatabase(ReadableByteChannel in, Callback<Integer> progress, Callback<ImportResult> callback) {
+        productCache.clear();
+        write(() -> {
+            DatabaseDumpReader source = new DatabaseDumpReader(Channels.newReader(in, StandardCharsets.UTF_8.newDecoder(), -1));
+            // Old shop id -> new shop id; products are matched to shops through it
+            Map<Integer, Integer> shopIds = new HashMap<>();
+            int[] newId = new int[1];
+            int batchShop = 0;
+            int committed = 0;
+            int pending = 0;
+            int orphans = 0;
+            batch.clear();
+            String error = NativeDb.beginTransaction();
+            try {
+                int type;
+                while (isOk(error) && (type = source.next()) != DatabaseDumpReader.END) {
+                    if (type == DatabaseDumpReader.SHOP) {
+                        error = flushBatch(batchShop);
+                        if (isOk(error)) {
+                            error = NativeDb.insertShop(source.name, newId);
+                            shopIds.put(source.id, newId[0]);
+                        }
+                        continue;
+                    }
+                    Integer shopId = shopIds.get(source.shopId);
+                    if (shopId == null) {
+                        orphans++;
+                        continue;
+                    }
+                    if (shopId != batchShop) {
+                        error = flushBatch(batchShop);
+                        batchShop = shopId;
+                    }
+                    batch.add(source.name, source.price, source.bought, source.description);
+                    pending++;
+                    if (batch.size() >= IMPORT_CHUNK && isOk(error)) {
+                        error = flushBatch(batchShop);
+                    }
+                    if (pending >= RESTORE_COMMIT_ROWS && isOk(error)) {
+                        error = flushBatch(batchShop);
+                        if (isOk(error)) {
+                            error = NativeDb.endTransaction(true);
+                        }
+                        if (isOk(error)) {
+                            committed += pending;
+                            pending = 0;
+                            deliver(committed, progress);
+                            error = NativeDb.beginTransaction();
+                        }
+                    }
+                }
+                if (isOk(error)) {
+                    error = flushBatch(batchShop);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to read import file", e);
+                error = e.getMessage() != null ? e.getMessage() : e.toString();
+            } finally {
+                closeQuietly(source);
+            }
+            String endError = NativeDb.endTransaction(isOk(error));
+            if (isOk(error)) {
+                error = endError;
+            }
+            if (isOk(error)) {
+                committed += pending;
+            }
+            return new ImportResult(committed, source.getSkipped() + orphans, isOk(error) ? null : error);
+        }, callback);
+    }
+
+    /**
+     * Sends the changes made here since the last sync to the server behind {@code transport}
+     * and applies those other devices sent it (see {@link SyncEngine}). Runs on the writer
+     * thread, so it sees every write queued before it; applied rows reach the change
+     * listeners like local writes.
+     */
+    public void sync(SyncTransport transport, Callback<SyncResult> callback) {
+        flushWrites();
+        productCache.clear();
+        write(() -> databaseOpen ? syncEngine.run(transport) : new SyncResult(0, 0, 0, 0, "Database not initialized"),
+                callback);
+    }
+
+    /** Inserts the products collected in {@link #batch} into the shop and clears it. Writer thread only. */
+    private String flushBatch(int shopId) {
+        if (batch.size() == 0) {
+            return null;
+        }
+        String error = NativeDb.addProducts(shopId, batch.buffer(), batch.length(), batch.size());
+        batch.clear();
+        return error;
+    }
+
+    private static long writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += out.write(buffer);
+        }
+        return written;
+    }
+
+    public void updateProduct(int id, String name, double price, boolean bought, String desc, Callback<String> callback) {
+        productCache.update(new Product(id, name, price, bought, desc));
+        write(() -> NativeDb.updateProduct(id, name, price, bought ? 1 : 0, desc),
+                onFailure(() -> productCache.invalidateProduct(id), callback));
+    }
+
+    /**
+     * Queues a bought change instead of writing it right away. Queued changes are written
+     * together, as one transaction, shortly after, before the next read, or on
+     * {@link #flushWrites()}. If that write fails, {@code rollback} receives the value the
+     * database still holds, unless the product was toggled again in the meantime.
+     */
+    public void setBought(int productId, boolean previous, boolean bought, BoughtWriteQueue.Rollback rollback) {
+        if (boughtQueue.add(productId, previous, bought, rollback)) {
+            mainHandler.postDelayed(boughtFlush, BOUGHT_FLUSH_DELAY_MS);
+        }
+    }
+
+    /** Writes queued bought changes now, e.g. when the screen is left. */
+    public void flushWrites() {
+        mainHandler.removeCallbacks(boughtFlush);
+        BoughtWriteQueue.Batch batch = boughtQueue.drain();
+        if (batch == null) {
+            return;
+        }
+        for (int i = 0; i < batch.ids.length; i++) {
+            productCache.setBought(batch.ids[i], batch.bought[i]);
+        }
+        write(() -> NativeDb.setBought(batch.ids, batch.bought), error -> {
+            boolean failed = !isOk(error);
+            if (failed) {
+                Log.e(TAG, "Failed to write bought changes: " + error);
+                for (int id : batch.ids) {
+                    productCache.invalidateProduct(id);
+                }
+            }
+            for (Runnable undo : boughtQueue.onWritten(batch, failed ? error : null)) {
+                undo.run();
+            }
+        });
+    }
+
+    /** Deletes the products in one transaction. */
+    public void deleteProducts(int[] ids, Callback<String> callback) {
+        // A queued toggle must not be written after the delete
+        flushWrites();
+        for (int id : ids) {
+            productCache.remove(id);
+        }
+        // The products' shops are no longer known once they are removed from the cache
+        write(() -> NativeDb.deleteProducts(ids), onFailure(productCache::clear, callback));
+    }
+
+    /**
+     * Sets the bought flag of all the products in one transaction, e.g. for a selection.
+     * Unlike {@link #setBought(int, boolean, boolean, BoughtWriteQueue.Rollback)} the write is not
+     * deferred: toggles queued before it are written first, so they cannot overwrite it.
+     */
+    public void setBought(int[] ids, boolean bought, Callback<String> callback) {
+        flushWrites();
+        boolean[] values = new boolean[ids.length];
+        Arrays.fill(values, bought);
+        for (int id : ids) {
+            productCache.setBought(id, bought);
+        }
+        write(() -> NativeDb.setBought(ids, values), onFailure(() -> {
+            for (int id : ids) {
+                productCache.invalidateProduct(id);
+            }
+        }, callback));
+    }
+
+    /** Moves the products to another shop in one transaction. */
+    public void moveProducts(int[] ids, int shopId, Callback<String> callback) {
+        flushWrites();
+        for (int id : ids) {
+            productCache.remove(id);
+        }
+        productCache.invalidate(shopId);
+        write(() -> NativeDb.moveProducts(ids, shopId), onFailure(productCache::clear, callback));
+    }
+
+    public void clearLogs(Callback<Void> callback) {
+        write(() -> {
+            NativeDb.clearLogs();
+            return null;
+        }, callback);
+    }
+
+    /** Starts delivering the changes of later writes to the listener; main thread only. */
+    public void addChangeListener(ChangeListener listener) {
+        changeListeners.add(listener);
+    }
+
+    public void removeChangeListener(ChangeListener listener) {
+        changeListeners.remove(listener);
+    }
+
+    /** Delivers an immutable snapshot of the shops, or null if the query failed. */
+    public void getShops(Callback<List<Shop>> callback) {
+        read(() -> {
+            long begin = StartupTrace.begin("db.getShops");
+            try {
+                RowBuffer rows = rowBuffers.get();
+                if (!rows.load(NativeDb::getShops)) {
+                    return null;
+                }
+                List<Shop> shops = new ArrayList<>();
+                rows.decodeShops(shops);
+                return Collections.unmodifiableList(shops);
+            } finally {
+                StartupTrace.end("db.getShops", begin);
+            }
+        }, callback);
+    }
+
+    /**
+     * Fills {@code into} with the shop's products and delivers it, or null if the query
+     * failed or {@code signal} was cancelled.
+     */
+    public void getProducts(int shopId, String sort, String search, ProductTable into, CancellationSignal signal,
+                            Callback<ProductTable> callback) {
+        query(signal, token -> {
+            RowBuffer rows = rowBuffers.get();
+            if (!rows.load(out -> NativeDb.getProducts(shopId, sort, search, token, out))) {
+                return null;
+            }
+            into.clear();
+            rows.decodeProducts(into);
+            return into;
+        }, callback);
+    }
+
+    /**
+     * Fills {@code into} with every product of the shop in the given order from
+     * {@link ProductCache}, loading the shop into it on a miss, and delivers it. Delivers
+     * null if the shop has too many products to cache, the query failed or {@code signal}
+     * was cancelled; such shops are paged with {@link #getProductsPage}.
+     */
+    public void getCachedProducts(int shopId, String sort, ProductTable into, CancellationSignal signal,
+                                  Callback<ProductTable> callback) {
+        // Cached lists are patched when writes are submitted, including queued toggles
+        flushWrites();
+        if (productCache.isTooLarge(shopId)) {
+            deliver(null, callback);
+            return;
+        }
+        if (productCache.get(shopId, sort, into)) {
+            deliver(into, callback);
+            return;
+        }
+        long epoch = productCache.epoch(shopId);
+        query(signal, token -> {
+            RowBuffer rows = rowBuffers.get();
+            int limit = ProductCache.MAX_SHOP_PRODUCTS + 1;
+            if (!rows.load(out -> NativeDb.getProductsPage(shopId, "name ASC", "", ProductPager.CURSOR_NONE,
+                    null, 0, 0, 0, limit, token, out))) {
+                return null;
+            }
+            into.clear();
+            rows.decodeProducts(into);
+            if (into.size() == limit) {
+                productCache.put(shopId, null, epoch);
+                return null;
+            }
+            productCache.put(shopId, into, epoch);
+            into.sort(sort);
+            return into;
+        }, callback);
+    }
+
+    /**
+     * Fills {@code into} with up to {@code limit} products positioned relative to
+     * {@code cursor} according to {@code cursorMode} (see {@link ProductPager}), in display
+     * order, and delivers it, or null on failure or if {@code signal} was cancelled.
+     */
+    public void getProductsPage(int shopId, String sort, String search, int cursorMode, Product cursor, int limit,
+                                ProductTable into, CancellationSignal signal, Callback<ProductTable> callback) {
+        query(signal, token -> {
+            RowBuffer rows = rowBuffers.get();
+            boolean loaded = rows.load(out -> cursor == null
+                    ? NativeDb.getProductsPage(shopId, sort, search, cursorMode, null, 0, 0, 0, limit, token, out)
+                    : NativeDb.getProductsPage(shopId, sort, search, cursorMode, cursor.name, cursor.price,
+                            cursor.bought ? 1 : 0, cursor.id, limit, token, out));
+            if (!loaded) {
+                return null;
+            }
+            into.clear();
+            rows.decodeProducts(into);
+            if (cursorMode == ProductPager.CURSOR_BEFORE) {
+                into.reverse();
+            }
+            return into;
+        }, callback);
+    }
+
+    /** Delivers the best full-text matches across every shop, or null on failure or if {@code signal} was cancelled. */
+    public void searchAllShops(String search, int limit, ProductTable into, CancellationSignal signal,
+                               Callback<SearchResults> callback) {
+        query(signal, token -> {
+            RowBuffer rows = rowBuffers.get();
+            if (!rows.load(out -> NativeDb.searchAllShops(search, limit, token, out))) {
+                return null;
+            }
+            into.clear();
+            Map<Integer, String> shopNames = new HashMap<>();
+            rows.decodeSearchHits(into, shopNames);
+            return new SearchResults(into, shopNames);
+        }, callback);
+    }
+
+    /** Delivers the current rows of the given shops, leaving out deleted ones, or null on failure. */
+    public void getShopsById(int[] shopIds, Callback<List<Shop>> callback) {
+        read(() -> {
+            RowBuffer rows = rowBuffers.get();
+            if (!rows.load(out -> NativeDb.getShopsById(shopIds, out))) {
+                return null;
+            }
+            List<Shop> shops = new ArrayList<>();
+            rows.decodeShops(shops);
+            return shops;
+        }, callback);
+    }
+
+    /**
+     * Fills {@code into} with the current rows of those of the given products that belong to
+     * the shop and delivers it, or null on failure.
+     */
+    public void getProductsById(int shopId, int[] productIds, ProductTable into, Callback<ProductTable> callback) {
+        read(() -> {
+            RowBuffer rows = rowBuffers.get();
+            if (!rows.load(out -> NativeDb.getProductsById(productIds, shopId, out))) {
+                return null;
+            }
+            into.clear();
+            rows.decodeProducts(into);
+            return into;
+        }, callback);
+    }
+
+    /**
+     * Compacts and checkpoints the database and refreshes planner statistics, see
+     * {@link MaintenanceScheduler}. Runs as a write, so writes issued meanwhile wait for it.
+     */
+    public void runMaintenance(Callback<MaintenanceReport> callback) {
+        write(() -> {
+            long[] fields = new long[MaintenanceReport.FIELDS];
+            String error = databaseOpen ? NativeDb.runMaintenance(fields) : "Database not initialized";
+            MaintenanceReport report = new MaintenanceReport(fields, System.currentTimeMillis(), error);
+            lastMaintenance = report;
+            return report;
+        }, callback);
+    }
+
+    public void getDiagnostics(Callback<DbDiagnostics> callback) {
+        read(() -> new DbDiagnostics(NativeDb.getLogs(), NativeDb.getStatementCacheStats(),
+                NativeDb.getOperationNames(), NativeDb.getLatencyStats(), NativeDb.getCancelledQueryCount(),
+                productCache.stats(), StartupTrace.phases(), lastMaintenance), callback);
+    }
+
+    /** Delivers EXPLAIN QUERY PLAN output for every query shape, or null if the database is not open. */
+    public void explainQueryPlans(Callback<String[]> callback) {
+        read(NativeDb::explainQueryPlans, callback);
+    }
+
+    private synchronized <T> void write(Supplier<T> operation, Callback<T> callback) {
+        lastWrite = writeExecutor.submit(() -> {
+            deliver(operation.get(), callback);
+            publishChanges();
+        });
+    }
+
+    /** Posts the rows committed by the write that just ran to the change listeners; writer thread. */
+    private void publishChanges() {
+        if (!databaseOpen || !changeRows.load(NativeDb::takeChanges)) {
+            return;
+        }
+        DatabaseChange change = changeRows.decodeChanges();
+        if (change.isEmpty()) {
+            return;
+        }
+        mainHandler.post(() -> {
+            // A listener may remove itself
+            for (ChangeListener listener : new ArrayList<>(changeListeners)) {
+                listener.onChange(change);
+            }
+        });
+    }
+
+    private <T> void read(Supplier<T> operation, Callback<T> callback) {
+        // A read must observe toggles already shown on screen
+        flushWrites();
+        Future<?> pendingWrite;
+        synchronized (this) {
+            pendingWrite = lastWrite;
+        }
+        readExecutor.execute(() -> {
+            awaitWrite(pendingWrite);
+            deliver(operation.get(), callback);
+        });
+    }
+
+    /**
+     * A {@link #read} that {@code signal} can stop: cancelling interrupts the native query
+     * between SQLite steps, or keeps it from starting, and null is delivered instead of the
+     * result. A signal can serve several queries one after another, not at the same time.
+     */
+    private <T> void query(CancellationSignal signal, LongFunction<T> operation, Callback<T> callback) {
+        if (signal == null) {
+            read(() -> operation.apply(0), callback);
+            return;
+        }
+        read(() -> {
+            long token = queryTokens.incrementAndGet();
+            // Runs at once if the signal is already cancelled
+            signal.setOnCancelListener(() -> NativeDb.cancelQuery(token));
+            try {
+                T result = operation.apply(token);
+                return signal.isCanceled() ? null : result;
+            } finally {
+                signal.setOnCancelListener(null);
+            }
+        }, callback);
+    }
+
+    /** Runs {@code undo} on the main thread if the write returns an error, then passes the result on. */
+    private static Callback<String> onFailure(Runnable undo, Callback<String> callback) {
+        return error -> {
+            if (!isOk(error)) {
+                undo.run();
+            }
+            if (callback != null) {
+                callback.onResult(error);
+            }
+        };
+    }
+
+    private static boolean isOk(String error) {
+        return error == null || error.isEmpty();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to close", e);
+        }
+    }
+
+    private static void awaitWrite(Future<?> write) {
+        try {
+            write.get();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Preceding write failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private <T> void deliver(T result, Callback<T> callback) {
+        if (callback != null) {
+            mainHandler.post(() -> callback.onResult(result));
+        }
+    }
+}
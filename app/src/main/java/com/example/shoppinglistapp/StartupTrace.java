@@ -0,0 +1,64 @@
+package com.example.shoppinglistapp;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Phases of a cold start, each shown as an {@link Trace} section in system traces and kept
+ * with its timing, relative to process start, for the logs dialog. Only the first run of a
+ * phase is kept, so reopening the main screen later does not overwrite the startup figures.
+ * A section must end on the thread that began it.
+ */
+final class StartupTrace {
+    static final class Phase {
+        final String name;
+        /** Milliseconds from process start to the start of the phase. */
+        final long startMillis;
+        final long durationMillis;
+        /** A point in time recorded with {@link #mark}, without a duration. */
+        final boolean milestone;
+
+        Phase(String name, long startMillis, long durationMillis, boolean milestone) {
+            this.name = name;
+            this.startMillis = startMillis;
+            this.durationMillis = durationMillis;
+            this.milestone = milestone;
+        }
+    }
+
+    private static final List<Phase> phases = new ArrayList<>();
+
+    private StartupTrace() {
+    }
+
+    /** Starts a phase on the calling thread; pass the result to {@link #end}. */
+    static long begin(String name) {
+        Trace.beginSection(name);
+        return SystemClock.uptimeMillis();
+    }
+
+    static void end(String name, long beginMillis) {
+        Trace.endSection();
+        record(name, beginMillis, SystemClock.uptimeMillis() - beginMillis, false);
+    }
+
+    /** Records a point in time, e.g. the first frame. */
+    static void mark(String name) {
+        record(name, SystemClock.uptimeMillis(), 0, true);
+    }
+
+    static synchronized List<Phase> phases() {
+        return Collections.unmodifiableList(new ArrayList<>(phases));
+    }
+
+    private static synchronized void record(String name, long atMillis, long durationMillis, boolean milestone) {
+        for (Phase phase : phases) {
+            if (phase.name.equals(name)) return;
+        }
+        phases.add(new Phase(name, atMillis - Process.getStartUptimeMillis(), durationMillis, milestone));
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.shoppinglistapp;
+
+import android.app.ActivityManager;
+import android.content.Context;
+
+/**
+ * SQLite storage settings applied when the database is opened, by index into the native
+ * STORAGE_PROFILES: page size of a new database, page cache per connection and memory-mapped
+ * I/O. The page size of an existing database is kept.
+ */
+final class StorageProfile {
+    /** SQLite's default cache, no memory mapping. */
+    static final int COMPACT = 0;
+    /** 20 MB writer cache, 4 MB per reader, 64 MB mapped. */
+    static final int BALANCED = 1;
+    /** 8 KB pages, 32 MB writer cache, 8 MB per reader, 256 MB mapped. */
+    static final int FAST = 2;
+
+    private StorageProfile() {
+    }
+
+    /** The profile for this device: {@link #COMPACT} on low-RAM devices, {@link #BALANCED} otherwise. */
+    static int forDevice(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        return activityManager != null && activityManager.isLowRamDevice() ? COMPACT : BALANCED;
+    }
+}
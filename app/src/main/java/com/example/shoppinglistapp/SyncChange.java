@@ -0,0 +1,59 @@
+package com.example.shoppinglistapp;
+
+/**
+ * One change of a shop or product as it travels between devices: the row's global id, the
+ * Lamport version of the change and the device that made it, and the row's content. A
+ * deletion has no content. Mirrors the rows native-lib exports and applies.
+ */
+public class SyncChange {
+    /** {@link DatabaseChange#SHOPS} or {@link DatabaseChange#PRODUCTS}. */
+    public final int entity;
+    public final String gid;
+    public final long version;
+    /** Id of the device that made the change. */
+    public final String origin;
+    public final boolean deleted;
+    /** Global id of a product's shop; null for shops and deletions. */
+    public final String shopGid;
+    public final String name;
+    /** In minor units (kopecks). */
+    public final long price;
+    public final boolean bought;
+    public final String description;
+
+    public SyncChange(int entity, String gid, long version, String origin, boolean deleted, String shopGid,
+                      String name, long price, boolean bought, String description) {
+        this.entity = entity;
+        this.gid = gid;
+        this.version = version;
+        this.origin = origin;
+        this.deleted = deleted;
+        this.shopGid = shopGid;
+        this.name = name;
+        this.price = price;
+        this.bought = bought;
+        this.description = description;
+    }
+
+    /**
+     * Whether this change replaces {@code current}, the latest known change of the same row
+     * (null if none). Every device and the server decide the same way, so they converge on
+     * the same rows whatever order changes arrive in: a deletion is final, otherwise the
+     * higher version wins and the greater origin breaks a tie. Mirrored in native-lib.
+     */
+    public boolean supersedes(SyncChange current) {
+        if (current == null) {
+            return true;
+        }
+        if (current.deleted) {
+            return false;
+        }
+        if (deleted) {
+            return true;
+        }
+        if (version != current.version) {
+            return version > current.version;
+        }
+        return origin.compareTo(current.origin) > 0;
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.shoppinglistapp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Wire form of a sync batch: a big-endian int with the uncompressed length, then the rows
+ * deflated. The rows are laid out as {@link NativeDb#exportChanges} writes them and
+ * {@link NativeDb#applyChanges} reads them, in native byte order (little-endian on every
+ * Android ABI): int count, then per change long version, int entity, byte deleted, text gid,
+ * text origin, text shop gid, text name, long price, byte bought, text description, texts as
+ * in {@link RowBuffer}. Names, global ids and device ids repeat a lot, so a batch usually
+ * shrinks to a fraction of its size.
+ */
+final class SyncCodec {
+    private static final int CHUNK = 8 * 1024;
+
+    private SyncCodec() {
+    }
+
+    /** Compresses the first {@code length} bytes of {@code rows}, whatever its position. */
+    static byte[] compress(ByteBuffer rows, int length) {
+        byte[] raw = new byte[length];
+        ByteBuffer view = rows.duplicate();
+        view.clear();
+        view.get(raw);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length / 4 + Integer.BYTES);
+        out.write(length >>> 24);
+        out.write(length >>> 16);
+        out.write(length >>> 8);
+        out.write(length);
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] chunk = new byte[CHUNK];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decompresses a batch into {@code reuse} if it is large enough, else into a new direct
+     * buffer, and returns that buffer positioned at 0 with its limit at the end of the rows.
+     */
+    static ByteBuffer decompress(byte[] batch, ByteBuffer reuse) throws IOException {
+        if (batch.length < Integer.BYTES) {
+            throw new IOException("Truncated sync batch");
+        }
+        int length = ByteBuffer.wrap(batch).getInt();
+        if (length < Integer.BYTES) {
+            throw new IOException("Corrupt sync batch");
+        }
+        byte[] raw = new byte[length];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(batch, Integer.BYTES, batch.length - Integer.BYTES);
+            int inflated = 0;
+            while (inflated < length && !inflater.finished() && !inflater.needsInput()) {
+                inflated += inflater.inflate(raw, inflated, length - inflated);
+            }
+            if (inflated != length) {
+                throw new IOException("Truncated sync batch");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt sync batch", e);
+        } finally {
+            inflater.end();
+        }
+        ByteBuffer out = reuse != null && reuse.capacity() >= length
+                ? reuse
+                : ByteBuffer.allocateDirect(Integer.highestOneBit(length) << 1).order(ByteOrder.nativeOrder());
+        out.clear();
+        out.put(raw);
+        out.flip();
+        return out;
+    }
+
+    /** Reads the changes from {@code rows}, starting at its position. */
+    static List<SyncChange> decode(ByteBuffer rows) {
+        ByteBuffer in = rows.duplicate().order(ByteOrder.nativeOrder());
+        int count = in.getInt();
+        List<SyncChange> changes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long version = in.getLong();
+            int entity = in.getInt();
+            boolean deleted = in.get() != 0;
+            String gid = getText(in);
+            String origin = getText(in);
+            String shopGid = getText(in);
+            String name = getText(in);
+            long price = in.getLong();
+            boolean bought = in.get() != 0;
+            String description = getText(in);
+            changes.add(new SyncChange(entity, gid, version, origin, deleted, shopGid, name, price, bought,
+                    description));
+        }
+        return changes;
+    }
+
+    /** Lays out the changes as rows; the returned buffer's limit is their length. */
+    static ByteBuffer encode(List<SyncChange> changes) {
+        List<byte[]> texts = new ArrayList<>(changes.size() * 5);
+        int length = Integer.BYTES;
+        for (SyncChange change : changes) {
+            length += Long.BYTES + Integer.BYTES + 1 + Long.BYTES + 1;
+            for (String text : new String[]{change.gid, change.origin, change.shopGid, change.name, change.description}) {
+                byte[] bytes = text != null ? text.getBytes(StandardCharsets.UTF_8) : null;
+                texts.add(bytes);
+                length += Integer.BYTES + (bytes != null ? bytes.length : 0);
+            }
+        }
+        ByteBuffer out = ByteBuffer.allocate(length).order(ByteOrder.nativeOrder());
+        out.putInt(changes.size());
+        int text = 0;
+        for (SyncChange change : changes) {
+            out.putLong(change.version);
+            out.putInt(change.entity);
+            out.put((byte) (change.deleted ? 1 : 0));
+            putText(out, texts.get(text++));
+            putText(out, texts.get(text++));
+            putText(out, texts.get(text++));
+            putText(out, texts.get(text++));
+            out.putLong(change.price);
+            out.put((byte) (change.bought ? 1 : 0));
+            putText(out, texts.get(text++));
+        }
+        out.flip();
+        return out;
+    }
+
+    private static String getText(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void putText(ByteBuffer out, byte[] bytes) {
+        if (bytes == null) {
+            out.putInt(-1);
+            return;
+        }
+        out.putInt(bytes.length);
+        out.put(bytes);
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.shoppinglistapp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Exchanges changes with a sync server. Only deltas travel: triggers journal every local
+ * write of a shop or product under a Lamport version (migration 6 in native-lib), a push
+ * sends the journal rows after the push cursor and a pull asks the server for what it
+ * stored after the pull cursor. Both cursors live in the database; the pull cursor is
+ * committed together with the changes it covers, so an interrupted sync resumes where it
+ * stopped and nothing is applied twice. Batches of {@link #BATCH_ROWS} rows keep memory
+ * flat however far behind a device is. Confined to the repository's writer thread.
+ */
+final class SyncEngine {
+    static final int BATCH_ROWS = 500;
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    private ByteBuffer buffer = allocate(INITIAL_CAPACITY);
+
+    SyncResult run(SyncTransport transport) {
+        String device = NativeDb.getDeviceId();
+        long[] cursors = NativeDb.getSyncCursors();
+        if (device == null || cursors == null) {
+            return new SyncResult(0, 0, 0, 0, "Sync state unavailable");
+        }
+        int pushed = 0;
+        int pulled = 0;
+        long sent = 0;
+        long received = 0;
+        String error = null;
+        try {
+            long[] cursor = {cursors[0]};
+            while (error == null) {
+                buffer.clear();
+                int written = NativeDb.exportChanges(cursor, BATCH_ROWS, buffer);
+                if (written == RowBuffer.ERROR) {
+                    error = "Export of changes failed";
+                    break;
+                }
+                if (written < 0) {
+                    // The rows did not fit; the cursor has not moved
+                    buffer = allocate(Integer.highestOneBit(-written) << 1);
+                    continue;
+                }
+                int count = buffer.getInt(0);
+                if (count == 0) {
+                    break;
+                }
+                byte[] batch = SyncCodec.compress(buffer, written);
+                transport.push(device, batch);
+                sent += batch.length;
+                pushed += count;
+                error = NativeDb.setPushCursor(cursor[0]);
+            }
+            long pullCursor = cursors[1];
+            while (error == null) {
+                SyncTransport.Pulled batch = transport.pull(device, pullCursor, BATCH_ROWS);
+                received += batch.batch.length;
+                buffer = SyncCodec.decompress(batch.batch, buffer);
+                int count = buffer.getInt(0);
+                // Skipping an empty batch saves a transaction, unless the cursor moved past this device's own changes
+                if (count > 0 || batch.cursor != pullCursor) {
+                    error = NativeDb.applyChanges(buffer, buffer.limit(), batch.cursor);
+                }
+                if (error == null) {
+                    pulled += count;
+                    pullCursor = batch.cursor;
+                }
+                if (!batch.more) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            error = e.getMessage() != null ? e.getMessage() : e.toString();
+        }
+        return new SyncResult(pushed, pulled, sent, received, error);
+    }
+
+    private static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.shoppinglistapp;
+
+/** Outcome of {@link ShoppingRepository#sync}. */
+public class SyncResult {
+    /** Local changes the server accepted. */
+    public final int pushed;
+    /** Changes from other devices applied here. */
+    public final int pulled;
+    /** Compressed batch sizes. */
+    public final long bytesSent;
+    public final long bytesReceived;
+    /** Null on success. */
+    public final String error;
+
+    public SyncResult(int pushed, int pulled, long bytesSent, long bytesReceived, String error) {
+        this.pushed = pushed;
+        this.pulled = pulled;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+        this.error = error;
+    }
+}
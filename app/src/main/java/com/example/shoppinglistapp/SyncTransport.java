@@ -0,0 +1,32 @@
+package com.example.shoppinglistapp;
+
+import java.io.IOException;
+
+/**
+ * Connection to a sync server. Batches are compressed by {@link SyncCodec} and opaque to the
+ * transport, which only has to carry them, e.g. over HTTP. The server keeps the latest change
+ * of every row in the order it stored them and hands them out after a cursor; see
+ * {@link LoopbackSyncServer} for the behaviour a server must have. Called on the repository's
+ * writer thread and may block.
+ */
+public interface SyncTransport {
+    /** Stores a batch of changes made on {@code device}; returns once the server has them. */
+    void push(String device, byte[] batch) throws IOException;
+
+    /** Up to {@code limit} changes the server stored after {@code cursor}, leaving out those made on {@code device}. */
+    Pulled pull(String device, long cursor, int limit) throws IOException;
+
+    /** A batch of changes and the server's position after it. */
+    final class Pulled {
+        public final byte[] batch;
+        public final long cursor;
+        /** More changes are stored after {@link #cursor}. */
+        public final boolean more;
+
+        public Pulled(byte[] batch, long cursor, boolean more) {
+            this.batch = batch;
+            this.cursor = cursor;
+            this.more = more;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.shoppinglistapp;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/** Creates throwaway databases filled with reproducible products for the benchmarks. */
+final class BenchmarkDatabase {
+    static final String[] SORTS = {"name ASC", "name DESC", "price ASC", "price DESC", "bought DESC"};
+    // Same value as ProductPager.CURSOR_NONE
+    static final int CURSOR_NONE = 0;
+    // Same value as StorageProfile.BALANCED, the profile of most devices
+    static final int STORAGE_BALANCED = 1;
+    private static final int CHUNK = 5000;
+    private static final String[] WORDS = {
+            "Молоко", "Хлеб", "Сыр", "Масло", "Яблоки", "Бананы", "Кофе", "Чай", "Сахар", "Рис",
+            "Milk", "Bread", "Cheese", "Butter", "Apples", "Coffee", "Tea", "Pasta", "Eggs", "Juice",
+    };
+    private static final String[] ADJECTIVES = {"белый", "свежий", "domestic", "organic", "большой", "light"};
+
+    private BenchmarkDatabase() {
+    }
+
+    /** Opens a new database in a fresh temporary directory and returns the directory. */
+    static Path open() throws IOException {
+        Path dir = Files.createTempDirectory("shopping-bench");
+        check(NativeDb.initDatabase(dir.resolve("bench.db").toString(), STORAGE_BALANCED));
+        return dir;
+    }
+
+    static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /** Adds a shop and returns its id. */
+    static int addShop(String name) {
+        check(NativeDb.addShop(name));
+        RowBuffer rows = new RowBuffer();
+        if (!rows.load(NativeDb::getShops)) {
+            throw new IllegalStateException("getShops failed");
+        }
+        List<Shop> shops = new ArrayList<>();
+        rows.decodeShops(shops);
+        for (Shop shop : shops) {
+            if (shop.name.equals(name)) {
+                return shop.id;
+            }
+        }
+        throw new IllegalStateException("Shop not found: " + name);
+    }
+
+    /** Inserts {@code count} products generated from {@code seed}. */
+    static void fill(int shopId, int count, long seed) {
+        Random random = new Random(seed);
+        ProductBatch batch = new ProductBatch();
+        check(NativeDb.beginTransaction());
+        for (int done = 0; done < count; done += batch.size()) {
+            batch.clear();
+            for (int i = done; i < Math.min(count, done + CHUNK); i++) {
+                batch.add(productName(random, i), random.nextInt(100_000) / 100.0,
+                        random.nextBoolean() ? ADJECTIVES[random.nextInt(ADJECTIVES.length)] : "");
+            }
+            check(NativeDb.addProducts(shopId, batch.buffer(), batch.length(), batch.size()));
+        }
+        check(NativeDb.endTransaction(true));
+    }
+
+    static String productName(Random random, int index) {
+        return WORDS[random.nextInt(WORDS.length)] + " " + ADJECTIVES[random.nextInt(ADJECTIVES.length)] + " " + index;
+    }
+
+    static void check(String error) {
+        if (error != null && !error.isEmpty()) {
+            throw new IllegalStateException(error);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.shoppinglistapp;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Per-row text work of ProductAdapter and ShopAdapter.onBindViewHolder while scrolling,
+ * without the views: the former String.format prices, label concatenation and debug log
+ * strings against the RowText, ProductRowText and ShopSummaryFormat code the adapters run.
+ * Run with the gc profiler (on by default in this module) and compare gc.alloc.rate.norm,
+ * the bytes allocated per bound row. Listeners and checkbox updates need views and are not
+ * covered.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BindTextBenchmark {
+    // Roughly two screens of rows, as bound during a fling
+    private static final int ROWS = 32;
+    // R.string.shop_summary
+    private static final String SHOP_SUMMARY = "Куплено %1$d из %2$d · осталось %3$s из %4$s";
+
+    private final ProductTable table = new ProductTable();
+    private final List<Shop> shops = new ArrayList<>();
+    private final PriceFormat priceFormat = new PriceFormat(new Locale("ru"));
+    private final ShopSummaryFormat summary = new ShopSummaryFormat(SHOP_SUMMARY);
+    // A row's two texts, as BoundText holds them
+    private final RowText price = new RowText();
+    private final RowText description = new RowText();
+    private final String shopName = "Пятёрочка";
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(1);
+        for (int i = 0; i < ROWS; i++) {
+            table.append(0, 0, false);
+            table.set(i, new Product(i + 1, BenchmarkDatabase.productName(random, i),
+                    random.nextInt(100000) / 100.0, random.nextBoolean(), "описание " + i));
+            // Decoded once, as after the first bind of a row
+            table.name(i);
+            table.description(i);
+            int items = 1 + random.nextInt(200);
+            long total = random.nextInt(10_000_000);
+            shops.add(new Shop(i + 1, "Магазин " + i, items, random.nextInt(items + 1), total,
+                    total - random.nextInt((int) total + 1)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void formatted(Blackhole blackhole) {
+        for (int i = 0; i < ROWS; i++) {
+            String name = table.name(i);
+            blackhole.consume("Binding product: " + name);
+            blackhole.consume(String.format("%.2f", table.price(i)));
+            blackhole.consume(shopName + " · " + table.description(i));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void reused(Blackhole blackhole) {
+        for (int i = 0; i < ROWS; i++) {
+            blackhole.consume(table.name(i));
+            ProductRowText.price(price, priceFormat, table.price(i));
+            show(blackhole, price);
+            ProductRowText.searchHitDescription(description, shopName, table.description(i));
+            show(blackhole, description);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void shopSummaryFormatted(Blackhole blackhole) {
+        for (int i = 0; i < ROWS; i++) {
+            Shop shop = shops.get(i);
+            blackhole.consume("Binding shop: " + shop.name);
+            blackhole.consume(String.format(SHOP_SUMMARY, shop.boughtCount, shop.itemCount,
+                    BigDecimal.valueOf(shop.remainingPrice, 2).toPlainString(),
+                    BigDecimal.valueOf(shop.totalPrice, 2).toPlainString()));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void shopSummaryReused(Blackhole blackhole) {
+        for (int i = 0; i < ROWS; i++) {
+            Shop shop = shops.get(i);
+            blackhole.consume(shop.name);
+            summary.format(description, priceFormat, shop);
+            show(blackhole, description);
+        }
+    }
+
+    /** Stands in for BoundText.show and TextView.setText(char[], int, int). */
+    private static void show(Blackhole blackhole, RowText text) {
+        int length = text.finish();
+        blackhole.consume(text.chars());
+        blackhole.consume(length);
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.shoppinglistapp;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/** Rows inserted per second: one autocommit addProduct per row vs. addProducts batches. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class InsertBenchmark {
+    private static final int BATCH_SIZE = 1000;
+
+    private final ProductBatch batch = new ProductBatch();
+    private Path dir;
+    private int shopId;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = BenchmarkDatabase.open();
+        shopId = BenchmarkDatabase.addShop("insert");
+        Random random = new Random(1);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(BenchmarkDatabase.productName(random, i), i / 100.0, "");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkDatabase.delete(dir);
+    }
+
+    @Benchmark
+    public String addProduct() {
+        return NativeDb.addProduct(shopId, "Product " + next++, 9.99, "");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public String addProducts() {
+        return NativeDb.addProducts(shopId, batch.buffer(), batch.length(), batch.size());
+    }
+}
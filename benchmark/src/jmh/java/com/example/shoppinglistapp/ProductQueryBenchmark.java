@@ -0,0 +1,59 @@
+package com.example.shoppinglistapp;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Native query time into the direct buffer, for every sort order: the whole shop
+ * (getProducts) and the first page as ProductPager loads it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProductQueryBenchmark {
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"1000", "10000", "100000"})
+    public int rows;
+
+    @Param({"name ASC", "name DESC", "price ASC", "price DESC", "bought DESC"})
+    public String sort;
+
+    private final RowBuffer buffer = new RowBuffer();
+    private Path dir;
+    private int shopId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = BenchmarkDatabase.open();
+        shopId = BenchmarkDatabase.addShop("query");
+        BenchmarkDatabase.fill(shopId, rows, 42);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkDatabase.delete(dir);
+    }
+
+    @Benchmark
+    public boolean getProducts() {
+        return buffer.load(out -> NativeDb.getProducts(shopId, sort, "", 0, out));
+    }
+
+    @Benchmark
+    public boolean getFirstPage() {
+        return buffer.load(out -> NativeDb.getProductsPage(shopId, sort, "", BenchmarkDatabase.CURSOR_NONE,
+                null, 0, 0, 0, PAGE_SIZE, 0, out));
+    }
+}
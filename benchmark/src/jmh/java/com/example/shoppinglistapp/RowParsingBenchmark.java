@@ -0,0 +1,67 @@
+package com.example.shoppinglistapp;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Java-side cost of decoding a loaded buffer into a reused ProductTable, as the repository
+ * does for every load, without the native query. The rows are fetched once in setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RowParsingBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int rows;
+
+    private final RowBuffer buffer = new RowBuffer();
+    private final ProductTable table = new ProductTable();
+    private Path dir;
+    private int length;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = BenchmarkDatabase.open();
+        int shopId = BenchmarkDatabase.addShop("parse");
+        BenchmarkDatabase.fill(shopId, rows, 42);
+        int[] written = new int[1];
+        if (!buffer.load(out -> written[0] = NativeDb.getProducts(shopId, "name ASC", "", 0, out))) {
+            throw new IllegalStateException("getProducts failed");
+        }
+        length = written[0];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkDatabase.delete(dir);
+    }
+
+    @Benchmark
+    public ProductTable decodeProducts() {
+        // The buffer still holds the rows; only rewind it
+        buffer.load(out -> length);
+        table.clear();
+        buffer.decodeProducts(table);
+        return table;
+    }
+
+    @Benchmark
+    public ProductTable decodeAndSort() {
+        buffer.load(out -> length);
+        table.clear();
+        buffer.decodeProducts(table);
+        table.sort("price DESC");
+        return table;
+    }
+}
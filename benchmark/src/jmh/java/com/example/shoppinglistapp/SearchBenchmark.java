@@ -0,0 +1,56 @@
+package com.example.shoppinglistapp;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/** Full-text search within one shop and across all shops, as typed into ShopActivity. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchBenchmark {
+    private static final int SEARCH_ALL_LIMIT = 200;
+
+    @Param({"1000", "10000", "100000"})
+    public int rows;
+
+    // A common prefix, a two-word query and a rare term
+    @Param({"мол", "хлеб бел", "99999"})
+    public String query;
+
+    private final RowBuffer buffer = new RowBuffer();
+    private Path dir;
+    private int shopId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = BenchmarkDatabase.open();
+        shopId = BenchmarkDatabase.addShop("search");
+        BenchmarkDatabase.fill(shopId, rows, 42);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkDatabase.delete(dir);
+    }
+
+    @Benchmark
+    public boolean searchShop() {
+        return buffer.load(out -> NativeDb.getProducts(shopId, "name ASC", query, 0, out));
+    }
+
+    @Benchmark
+    public boolean searchAllShops() {
+        return buffer.load(out -> NativeDb.searchAllShops(query, SEARCH_ALL_LIMIT, 0, out));
+    }
+}
@@ -0,0 +1,6 @@
+// Host stand-in for the NDK's <android/trace.h>; there is no system tracer to write to.
+#pragma once
+
+inline void ATrace_beginSection(const char *) {}
+
+inline void ATrace_endSection() {}
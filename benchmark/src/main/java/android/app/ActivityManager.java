@@ -0,0 +1,8 @@
+package android.app;
+
+/** Host stand-in for android.app.ActivityManager; a host is never a low-RAM device. */
+public class ActivityManager {
+    public boolean isLowRamDevice() {
+        return false;
+    }
+}
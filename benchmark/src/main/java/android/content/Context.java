@@ -0,0 +1,8 @@
+package android.content;
+
+/** Host stand-in for android.content.Context, as far as StorageProfile uses it. */
+public abstract class Context {
+    public static final String ACTIVITY_SERVICE = "activity";
+
+    public abstract Object getSystemService(String name);
+}
@@ -0,0 +1,43 @@
+package android.os;
+
+/** Host stand-in for android.os.CancellationSignal. */
+public final class CancellationSignal {
+    private boolean canceled;
+    private OnCancelListener listener;
+
+    public interface OnCancelListener {
+        void onCancel();
+    }
+
+    public synchronized boolean isCanceled() {
+        return canceled;
+    }
+
+    public void cancel() {
+        OnCancelListener toNotify;
+        synchronized (this) {
+            if (canceled) {
+                return;
+            }
+            canceled = true;
+            toNotify = listener;
+        }
+        if (toNotify != null) {
+            toNotify.onCancel();
+        }
+    }
+
+    /** Runs the listener at once if the signal is already cancelled, as on Android. */
+    public void setOnCancelListener(OnCancelListener listener) {
+        synchronized (this) {
+            if (this.listener == listener) {
+                return;
+            }
+            this.listener = listener;
+            if (!canceled || listener == null) {
+                return;
+            }
+        }
+        listener.onCancel();
+    }
+}
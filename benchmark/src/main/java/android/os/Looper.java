@@ -0,0 +1,87 @@
+package android.os;
+
+import java.util.PriorityQueue;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Host stand-in for android.os.Looper. There is only the main looper, and it has no thread
+ * of its own: whichever thread calls {@link #runUntil} runs the posted messages, standing in
+ * for the main thread until the condition holds.
+ */
+public final class Looper {
+    private static final Looper MAIN = new Looper();
+
+    private final PriorityQueue<Message> queue = new PriorityQueue<>();
+    private long sequence;
+
+    private Looper() {
+    }
+
+    public static Looper getMainLooper() {
+        return MAIN;
+    }
+
+    /**
+     * Runs messages as they fall due until {@code condition} holds, checking it before each
+     * one. Returns false if it still does not hold after {@code timeoutMillis}.
+     */
+    public boolean runUntil(BooleanSupplier condition, long timeoutMillis) {
+        long deadline = SystemClock.uptimeMillis() + timeoutMillis;
+        while (!condition.getAsBoolean()) {
+            Runnable next;
+            synchronized (this) {
+                long now = SystemClock.uptimeMillis();
+                Message head = queue.peek();
+                if (head == null || head.when > now) {
+                    if (now >= deadline) {
+                        return false;
+                    }
+                    long wait = deadline - now;
+                    if (head != null) {
+                        wait = Math.min(wait, head.when - now);
+                    }
+                    try {
+                        wait(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                    continue;
+                }
+                next = queue.poll().callback;
+            }
+            next.run();
+        }
+        return true;
+    }
+
+    synchronized void enqueue(Handler handler, Runnable callback, long when) {
+        queue.add(new Message(handler, callback, when, sequence++));
+        notifyAll();
+    }
+
+    synchronized void remove(Handler handler, Runnable callback) {
+        queue.removeIf(message -> message.handler == handler && message.callback == callback);
+    }
+
+    private static final class Message implements Comparable<Message> {
+        final Handler handler;
+        final Runnable callback;
+        final long when;
+        // Messages due at the same time run in the order they were posted
+        final long sequence;
+
+        Message(Handler handler, Runnable callback, long when, long sequence) {
+            this.handler = handler;
+            this.callback = callback;
+            this.when = when;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Message other) {
+            int byTime = Long.compare(when, other.when);
+            return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package android.os;
+
+/** Host stand-in for android.os.Process; the process starts when this class is loaded. */
+public final class Process {
+    private static final long START_UPTIME_MILLIS = SystemClock.uptimeMillis();
+
+    private Process() {
+    }
+
+    public static long getStartUptimeMillis() {
+        return START_UPTIME_MILLIS;
+    }
+}
@@ -0,0 +1,11 @@
+package android.os;
+
+/** Host stand-in for android.os.SystemClock; uptime counts from the JVM's clock origin. */
+public final class SystemClock {
+    private SystemClock() {
+    }
+
+    public static long uptimeMillis() {
+        return System.nanoTime() / 1_000_000;
+    }
+}
@@ -0,0 +1,13 @@
+package android.os;
+
+/** Host stand-in for android.os.Trace; sections are not recorded. */
+public final class Trace {
+    private Trace() {
+    }
+
+    public static void beginSection(String sectionName) {
+    }
+
+    public static void endSection() {
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.shoppinglistapp;
+
+import java.util.Random;
+
+/**
+ * Fills a database with a reproducible shopping list of realistic size: shops named after
+ * real chains and products mixing Russian and English names, brands, pack sizes, prices
+ * typical of their category and short notes. The same seed, shop count and product count
+ * always produce the same rows with the same ids in a new database.
+ */
+final class DatasetGenerator {
+    private static final int CHUNK = 5000;
+
+    private static final String[] CHAINS = {
+            "Пятёрочка", "Перекрёсток", "Магнит", "ВкусВилл", "Ашан", "Лента", "Дикси", "Азбука вкуса",
+            "Metro", "Spar", "Globus", "O'KEY", "Fix Price", "Светофор", "Bristol",
+    };
+    private static final String[] DISTRICTS = {"у дома", "на Ленина", "ТЦ Мега", "центр", "у метро", "Downtown"};
+
+    private static final class Category {
+        final String[] names;
+        final String[] units;
+        // Price range in kopecks
+        final int minPrice;
+        final int maxPrice;
+
+        Category(String[] names, String[] units, int minPrice, int maxPrice) {
+            this.names = names;
+            this.units = units;
+            this.minPrice = minPrice;
+            this.maxPrice = maxPrice;
+        }
+    }
+
+    private static final Category[] CATEGORIES = {
+            new Category(new String[]{"Молоко", "Кефир", "Йогурт", "Творог", "Сметана", "Milk", "Yogurt"},
+                    new String[]{"1 л", "930 мл", "450 г", "200 г", "1 l"}, 5900, 24900),
+            new Category(new String[]{"Хлеб", "Батон", "Багет", "Лаваш", "Круассаны", "Bread", "Croissant"},
+                    new String[]{"400 г", "300 г", "6 шт", "250 g"}, 3500, 19900),
+            new Category(new String[]{"Сыр", "Масло сливочное", "Cheese", "Cheddar", "Mozzarella", "Пармезан"},
+                    new String[]{"200 г", "180 г", "125 g", "1 кг"}, 14900, 129900),
+            new Category(new String[]{"Яблоки", "Бананы", "Апельсины", "Картофель", "Морковь", "Apples", "Avocado"},
+                    new String[]{"1 кг", "пакет", "2 шт", "1 kg"}, 4900, 39900),
+            new Category(new String[]{"Кофе", "Чай", "Какао", "Coffee", "Green tea", "Espresso"},
+                    new String[]{"250 г", "100 пак.", "1 кг", "500 g"}, 9900, 199900),
+            new Category(new String[]{"Макароны", "Рис", "Гречка", "Овсянка", "Pasta", "Spaghetti", "Basmati"},
+                    new String[]{"450 г", "800 г", "1 кг", "500 g"}, 5900, 25900),
+            new Category(new String[]{"Курица", "Фарш", "Колбаса", "Сосиски", "Chicken", "Bacon", "Лосось"},
+                    new String[]{"1 кг", "500 г", "400 г", "300 g"}, 17900, 149900),
+            new Category(new String[]{"Сок", "Вода", "Лимонад", "Juice", "Sparkling water", "Квас"},
+                    new String[]{"1 л", "1,5 л", "0,5 л", "2 l"}, 3900, 21900),
+            new Category(new String[]{"Шампунь", "Зубная паста", "Мыло", "Shampoo", "Toothpaste", "Порошок"},
+                    new String[]{"400 мл", "100 мл", "3 кг", "250 ml"}, 6900, 89900),
+    };
+    private static final String[] BRANDS = {
+            "Простоквашино", "Домик в деревне", "Вкусвилл", "Черкизово", "Мираторг", "Lavazza", "Jacobs",
+            "Barilla", "Danone", "Nestlé", "President", "Valio", "Heinz", "Colgate", "Ariel", "",
+    };
+    private static final String[] ADJECTIVES = {
+            "свежий", "фермерский", "органический", "без лактозы", "цельнозерновой", "organic", "light",
+            "classic", "домашний", "отборный",
+    };
+    private static final String[] NOTES = {
+            "по акции", "взять два", "для детей", "на праздник", "не брать мягкие", "for the party",
+            "check expiry date", "если нет — заменить", "самый свежий", "скидка по карте", "2 for 1",
+    };
+
+    private final long seed;
+
+    DatasetGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    /** Name of the shop at {@code index}; chains repeat with a district once they run out. */
+    static String shopName(int index) {
+        String chain = CHAINS[index % CHAINS.length];
+        int round = index / CHAINS.length;
+        if (round == 0) {
+            return chain;
+        }
+        return chain + " " + DISTRICTS[(round - 1) % DISTRICTS.length] + (round > DISTRICTS.length ? " " + round : "");
+    }
+
+    /**
+     * Adds {@code shops} shops with {@code productsPerShop} products each, a third of them
+     * bought, and returns the shop ids. Each shop's products go in one transaction.
+     */
+    int[] populate(int shops, int productsPerShop) {
+        Random random = new Random(seed);
+        ProductBatch batch = new ProductBatch();
+        StringBuilder text = new StringBuilder();
+        int[] ids = new int[shops];
+        for (int shop = 0; shop < shops; shop++) {
+            int[] id = new int[1];
+            check(NativeDb.insertShop(shopName(shop), id));
+            ids[shop] = id[0];
+            check(NativeDb.beginTransaction());
+            for (int done = 0; done < productsPerShop; done += batch.size()) {
+                batch.clear();
+                for (int i = done; i < Math.min(productsPerShop, done + CHUNK); i++) {
+                    Category category = CATEGORIES[random.nextInt(CATEGORIES.length)];
+                    batch.add(productName(random, category, text), price(random, category), random.nextInt(3) == 0,
+                            description(random, text));
+                }
+                check(NativeDb.addProducts(ids[shop], batch.buffer(), batch.length(), batch.size()));
+            }
+            check(NativeDb.endTransaction(true));
+        }
+        return ids;
+    }
+
+    private static String productName(Random random, Category category, StringBuilder text) {
+        text.setLength(0);
+        text.append(category.names[random.nextInt(category.names.length)]);
+        if (random.nextInt(3) == 0) {
+            text.append(' ').append(ADJECTIVES[random.nextInt(ADJECTIVES.length)]);
+        }
+        String brand = BRANDS[random.nextInt(BRANDS.length)];
+        if (!brand.isEmpty()) {
+            text.append(' ').append(brand);
+        }
+        text.append(' ').append(category.units[random.nextInt(category.units.length)]);
+        return text.toString();
+    }
+
+    // Shelf prices end in 90 or 99 kopecks
+    private static double price(Random random, Category category) {
+        int rubles = (category.minPrice + random.nextInt(category.maxPrice - category.minPrice)) / 100;
+        return rubles + (random.nextBoolean() ? 0.99 : 0.90);
+    }
+
+    private static String description(Random random, StringBuilder text) {
+        int notes = random.nextInt(4) - 1;
+        if (notes < 0) {
+            return "";
+        }
+        text.setLength(0);
+        for (int i = 0; i <= notes; i++) {
+            if (i > 0) text.append(", ");
+            text.append(NOTES[random.nextInt(NOTES.length)]);
+        }
+        return text.toString();
+    }
+
+    private static void check(String error) {
+        if (error != null && !error.isEmpty()) {
+            throw new IllegalStateException(error);
+        }
+    }
+}
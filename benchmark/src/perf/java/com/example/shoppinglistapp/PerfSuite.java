@@ -0,0 +1,456 @@
+package com.example.shoppinglistapp;
+
+import android.os.Looper;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Performance regression suite over generated datasets of 10k, 100k and 1M products. For
+ * each size it replays the data path of the app's screens through the app's own
+ * {@link ShoppingRepository}, {@link ProductPager}, {@link ProductCache} and
+ * {@link BoughtWriteQueue}, with this thread standing in for the main thread (see the host
+ * {@code android.os.Looper}): opening a shop (MainActivity's shop list, then the list the
+ * pager shows, whole from the cache or a first page) and searching in a shop and across
+ * shops, all over different shops; then changing the sort and toggling a product in one
+ * open shop and deleting a few products at a time, each write followed by the change
+ * notification and the pager's patch of the rows it shows. Last comes sync: the first push
+ * of the whole dataset, then a toggle synced together with a peer's edit of the same
+ * product. Latency percentiles per flow, the insert time, the initial sync time, the bytes
+ * of one sync round and peak heap are compared with a stored baseline; the run fails if any
+ * is worse than the baseline by more than the tolerance. A size that regresses is measured
+ * once more and keeps the better value of each metric, so a pause on a busy machine does not
+ * fail the run.
+ *
+ * <p>Arguments: baseline file, results file. System properties: {@code perf.scales}
+ * (comma-separated product counts), {@code perf.tolerance} (allowed relative regression,
+ * default 0.5) and {@code perf.updateBaseline} (write the measured values as the new
+ * baseline instead of comparing).
+ */
+public final class PerfSuite {
+    private static final int SHOPS = 20;
+    private static final long SEED = 20240501L;
+    private static final int WARMUP = 100;
+    private static final int ITERATIONS = 200;
+    // Longest wait for the repository; only a hang takes that long
+    private static final long TIMEOUT_MILLIS = 10 * 60 * 1000;
+    private static final String[] SORTS = {"name ASC", "name DESC", "price ASC", "price DESC", "bought DESC"};
+    // Products selected for each bulk delete
+    private static final int DELETED = 5;
+    private static final int DELETES_PER_SHOP = 10;
+    // A Cyrillic prefix, a Latin prefix, a name with a brand and a word from the notes
+    private static final String[] QUERIES = {"мол", "coff", "сыр valio", "скидка"};
+    // Slack added to the tolerance, so that noise on tiny values does not fail the run
+    private static final long SLACK_MICROS = 100;
+    private static final long SLACK_MILLIS = 50;
+    private static final long SLACK_KB = 2048;
+    private static final long SLACK_BYTES = 256;
+
+    private final ShoppingRepository repository = ShoppingRepository.getInstance();
+    private final ProductPager pager = new ProductPager(repository);
+    private final ShownTable shown = new ShownTable();
+    private final ShoppingRepository.ChangeListener changeListener = this::onDatabaseChanged;
+    private final ProductTable hits = new ProductTable();
+    private final PeerTransport peer = new PeerTransport();
+    private int[] shopIds;
+    // Changes delivered so far
+    private int changes;
+    // Shop and sort of the unfiltered list the pager shows, -1 for a search
+    private int windowShop = -1;
+    private String windowSort;
+
+    private interface Flow {
+        void run(int iteration);
+    }
+
+    public static void main(String[] args) {
+        int status = 1;
+        try {
+            status = suite(args) ? 0 : 1;
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+        // The repository's threads would keep the JVM running
+        System.exit(status);
+    }
+
+    /** Returns false if any metric regressed. */
+    private static boolean suite(String[] args) throws IOException {
+        Path baselinePath = Paths.get(args[0]);
+        Path resultsPath = Paths.get(args[1]);
+        String scales = System.getProperty("perf.scales", "10000,100000,1000000");
+        double tolerance = Double.parseDouble(System.getProperty("perf.tolerance", "0.5"));
+        boolean update = Boolean.getBoolean("perf.updateBaseline");
+
+        Map<String, Long> baseline = read(baselinePath);
+        Map<String, Long> measured = new TreeMap<>();
+        List<String> regressions = new ArrayList<>();
+        for (String scale : scales.split(",")) {
+            int products = Integer.parseInt(scale.trim());
+            Map<String, Long> run = new TreeMap<>();
+            new PerfSuite().run(products, run);
+            if (!update && !regressions(run, baseline, tolerance).isEmpty()) {
+                // Noise only ever adds time, so the better value of two runs is kept
+                System.out.println("Measuring again to confirm the regressions");
+                Map<String, Long> again = new TreeMap<>();
+                new PerfSuite().run(products, again);
+                again.forEach((key, value) -> run.merge(key, value, Math::min));
+            }
+            measured.putAll(run);
+            regressions.addAll(regressions(run, baseline, tolerance));
+        }
+        Files.createDirectories(resultsPath.toAbsolutePath().getParent());
+        write(resultsPath, measured);
+
+        if (update) {
+            baseline.putAll(measured);
+            write(baselinePath, baseline);
+            System.out.println("Baseline updated: " + baselinePath);
+            return true;
+        }
+        for (String key : measured.keySet()) {
+            if (!baseline.containsKey(key)) {
+                System.out.println("No baseline for " + key);
+            }
+        }
+        if (!regressions.isEmpty()) {
+            System.err.println("Performance regressions:");
+            regressions.forEach(line -> System.err.println("  " + line));
+            return false;
+        }
+        System.out.println("No regressions against " + baselinePath);
+        return true;
+    }
+
+    private static List<String> regressions(Map<String, Long> measured, Map<String, Long> baseline, double tolerance) {
+        List<String> regressions = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : measured.entrySet()) {
+            Long expected = baseline.get(entry.getKey());
+            if (expected == null) {
+                continue;
+            }
+            long limit = (long) (expected * (1 + tolerance)) + slack(entry.getKey());
+            if (entry.getValue() > limit) {
+                regressions.add(entry.getKey() + ": " + entry.getValue() + " > " + limit + " (baseline " + expected + ")");
+            }
+        }
+        return regressions;
+    }
+
+    private void run(int products, Map<String, Long> measured) throws IOException {
+        Path dir = Files.createTempDirectory("shopping-perf");
+        repository.addChangeListener(changeListener);
+        pager.attach(shown);
+        try {
+            check(await(callback -> repository.open(dir.resolve("perf.db").toFile(), StorageProfile.BALANCED,
+                    callback)));
+            long start = System.nanoTime();
+            shopIds = new DatasetGenerator(SEED).populate(SHOPS, products / SHOPS);
+            measured.put(products + ".insertMillis", (System.nanoTime() - start) / 1_000_000);
+            // The inserts are not part of any flow and bypassed the repository
+            new RowBuffer().load(NativeDb::takeChanges);
+            System.out.printf("%,d products in %d shops%n", products, SHOPS);
+
+            resetPeakHeap();
+            measure(products, "load", measured, this::load);
+            measure(products, "search", measured, this::search);
+            measure(products, "searchAll", measured, this::searchAll);
+            measure(products, "sort", measured, this::sort);
+            measure(products, "toggle", measured, this::toggle);
+            measure(products, "delete", measured, this::delete);
+            measured.put(products + ".peakHeapKb", peakHeap() / 1024);
+
+            start = System.nanoTime();
+            syncWithPeer();
+            measured.put(products + ".syncInitialMillis", (System.nanoTime() - start) / 1_000_000);
+            System.out.printf("  initial sync %,d bytes%n", peer.bytes);
+            measure(products, "sync", measured, this::sync);
+            measured.put(products + ".syncDeltaBytes", peer.bytes);
+        } finally {
+            pager.detach();
+            pager.clear();
+            repository.removeChangeListener(changeListener);
+            try (java.util.stream.Stream<Path> files = Files.walk(dir)) {
+                for (Path path : (Iterable<Path>) files.sorted((a, b) -> b.compareTo(a))::iterator) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    private static void measure(int products, String name, Map<String, Long> measured, Flow flow) {
+        for (int i = 0; i < WARMUP; i++) {
+            flow.run(i);
+        }
+        long[] micros = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            flow.run(WARMUP + i);
+            micros[i] = (System.nanoTime() - start) / 1000;
+        }
+        Arrays.sort(micros);
+        long p50 = micros[ITERATIONS / 2];
+        long p95 = micros[ITERATIONS * 95 / 100];
+        measured.put(products + "." + name + ".p50Micros", p50);
+        measured.put(products + "." + name + ".p95Micros", p95);
+        System.out.printf("  %-10s p50 %8d us   p95 %8d us   max %8d us%n", name, p50, p95, micros[ITERATIONS - 1]);
+    }
+
+    private int shop(int iteration) {
+        return shopIds[iteration % shopIds.length];
+    }
+
+    /** MainActivity's shop list, then the shop's list as the pager first shows it. */
+    private void load(int iteration) {
+        if (await(repository::getShops) == null) {
+            throw new IllegalStateException("Failed to load shops");
+        }
+        show(shop(iteration), SORTS[0], "");
+    }
+
+    /** Starts the pager over as ShopViewModel does and waits for the window. */
+    private void show(int shopId, String sort, String search) {
+        pager.load(shopId, sort, search);
+        runUntil(() -> !pager.isLoading());
+        if (shown.table == null) {
+            throw new IllegalStateException("Failed to load products");
+        }
+        windowShop = search.isEmpty() ? shopId : -1;
+        windowSort = sort;
+    }
+
+    private void search(int iteration) {
+        show(shop(iteration), SORTS[0], QUERIES[iteration % QUERIES.length]);
+    }
+
+    private void searchAll(int iteration) {
+        String query = QUERIES[iteration % QUERIES.length];
+        SearchResults results = await(callback -> repository.searchAllShops(query, SearchResults.MAX_HITS, hits, null,
+                callback));
+        if (results == null) {
+            throw new IllegalStateException("Search failed");
+        }
+    }
+
+    /** A cached list is only re-sorted by the repository, a paged one is read again. */
+    private void sort(int iteration) {
+        show(shopIds[0], SORTS[iteration % SORTS.length], "");
+    }
+
+    /** Makes sure the pager shows the shop's unfiltered list in the first sort order. */
+    private void open(int shopId) {
+        if (windowShop != shopId || !SORTS[0].equals(windowSort) || shown.table.size() < DELETED) {
+            show(shopId, SORTS[0], "");
+        }
+    }
+
+    /** A bought toggle as ShopViewModel makes it: patched in the pager, queued, then written. */
+    private void toggle(int iteration) {
+        open(shopIds[0]);
+        int position = iteration % shown.table.size();
+        int id = shown.table.id(position);
+        boolean bought = !shown.table.isBought(position);
+        int before = changes;
+        pager.setBought(id, bought);
+        repository.setBought(id, !bought, bought, (stored, error) -> {
+            throw new IllegalStateException(error);
+        });
+        // Written at once rather than after the queue's delay
+        repository.flushWrites();
+        awaitPatch(before);
+    }
+
+    /**
+     * A bulk delete of a few selected products, dropped from the window by the pager. Moves
+     * on to the next shop now and then, so that no shop runs out.
+     */
+    private void delete(int iteration) {
+        int shopId = shop(iteration / DELETES_PER_SHOP);
+        open(shopId);
+        if (shown.table.size() < DELETED) {
+            throw new IllegalStateException("Shop " + shopId + " has run out of products");
+        }
+        int[] ids = new int[DELETED];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = shown.table.id(i);
+        }
+        int before = changes;
+        check(await(callback -> repository.deleteProducts(ids, callback)));
+        awaitPatch(before);
+    }
+
+    /** A toggle, then a sync that pushes it and applies the peer's edit of the same product. */
+    private void sync(int iteration) {
+        toggle(iteration);
+        peer.bytes = 0;
+        int before = changes;
+        syncWithPeer();
+        awaitPatch(before);
+    }
+
+    private void syncWithPeer() {
+        SyncResult result = await(callback -> repository.sync(peer, callback));
+        check(result.error);
+    }
+
+    /** ShopViewModel's change listener, for a list of one shop. */
+    private void onDatabaseChanged(DatabaseChange change) {
+        changes++;
+        if (change.affects(DatabaseChange.PRODUCTS)) {
+            pager.onProductsChanged(change);
+        }
+    }
+
+    /** Waits for the change notification of a write and for the pager to patch the window. */
+    private void awaitPatch(int changesBefore) {
+        runUntil(() -> changes > changesBefore && !pager.isLoading());
+    }
+
+    /**
+     * Stands in for the server and another device: counts the bytes of every batch and, for
+     * a small push, hands the last change back on the next pull as an edit made by the peer.
+     * A large push is only counted, so the initial sync of a big dataset stays cheap to serve;
+     * {@link LoopbackSyncServer} would keep all of it in memory, more than the fixed heap
+     * holds at 1M products. Convergence through that server is SyncConvergenceCheck's job.
+     */
+    private static final class PeerTransport implements SyncTransport {
+        private static final int ECHO_LIMIT = 16;
+        private final List<SyncChange> pending = new ArrayList<>();
+        private long cursor;
+        // Since the last reset
+        long bytes;
+
+        @Override
+        public void push(String device, byte[] batch) throws IOException {
+            bytes += batch.length;
+            List<SyncChange> changes = SyncCodec.decode(SyncCodec.decompress(batch, null));
+            if (changes.size() > ECHO_LIMIT) {
+                return;
+            }
+            SyncChange last = changes.get(changes.size() - 1);
+            pending.add(new SyncChange(last.entity, last.gid, last.version + 1, "peer", last.deleted, last.shopGid,
+                    last.name, last.price, last.bought, "edited by peer"));
+        }
+
+        @Override
+        public Pulled pull(String device, long after, int limit) {
+            ByteBuffer rows = SyncCodec.encode(pending);
+            byte[] batch = SyncCodec.compress(rows, rows.limit());
+            bytes += batch.length;
+            cursor += pending.size();
+            pending.clear();
+            return new Pulled(batch, cursor, false);
+        }
+    }
+
+    /** Stands in for ProductAdapter: keeps the last table the pager submitted. */
+    private static final class ShownTable implements ProductPager.Display {
+        ProductTable table;
+        private ProductTable spare;
+
+        @Override
+        public void setPager(ProductPager pager) {
+        }
+
+        @Override
+        public ProductTable obtainTable() {
+            ProductTable reused = spare != null ? spare : new ProductTable();
+            spare = null;
+            reused.clear();
+            return reused;
+        }
+
+        @Override
+        public void submitTable(ProductTable submitted) {
+            spare = table;
+            table = submitted;
+        }
+    }
+
+    /** Runs the repository's callbacks on this thread until it delivers a result. */
+    private static <T> T await(Consumer<ShoppingRepository.Callback<T>> operation) {
+        List<T> result = new ArrayList<>(1);
+        operation.accept(result::add);
+        runUntil(() -> !result.isEmpty());
+        return result.get(0);
+    }
+
+    private static void runUntil(BooleanSupplier condition) {
+        if (!Looper.getMainLooper().runUntil(condition, TIMEOUT_MILLIS)) {
+            throw new IllegalStateException("Timed out waiting for the repository");
+        }
+    }
+
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long peakHeap() {
+        long bytes = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                bytes += pool.getPeakUsage().getUsed();
+            }
+        }
+        return bytes;
+    }
+
+    private static long slack(String key) {
+        if (key.endsWith("Micros")) return SLACK_MICROS;
+        if (key.endsWith("Millis")) return SLACK_MILLIS;
+        if (key.endsWith("Bytes")) return SLACK_BYTES;
+        return SLACK_KB;
+    }
+
+    private static Map<String, Long> read(Path path) throws IOException {
+        Map<String, Long> values = new TreeMap<>();
+        if (!Files.exists(path)) {
+            return values;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        for (String key : properties.stringPropertyNames()) {
+            values.put(key, Long.parseLong(properties.getProperty(key).trim()));
+        }
+        return values;
+    }
+
+    // Sorted and without a timestamp, so that baseline updates diff cleanly
+    private static void write(Path path, Map<String, Long> values) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write("# products.flow.metric; latency in microseconds, see PerfSuite\n");
+            for (Map.Entry<String, Long> entry : values.entrySet()) {
+                writer.write(entry.getKey() + "=" + entry.getValue() + "\n");
+            }
+        }
+    }
+
+    private static void check(String error) {
+        if (error != null && !error.isEmpty()) {
+            throw new IllegalStateException(error);
+        }
+    }
+}
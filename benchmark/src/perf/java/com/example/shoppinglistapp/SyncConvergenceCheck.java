@@ -0,0 +1,185 @@
+package com.example.shoppinglistapp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks that devices syncing through {@link LoopbackSyncServer} end up with the same rows.
+ * Three databases stand in for three devices and are opened in turn, as {@link NativeDb}
+ * holds one at a time. Device A creates two shops and syncs, B syncs; then, before either
+ * hears of the other, both rename the same product, A deletes a product B marks bought and
+ * adds a product to a shop B deletes. Once both have synced and C has joined, all three must
+ * hold the same shops and products, the deletions must have won, and syncing once more must
+ * move nothing. Last, two corrupt batches from the server must be rejected without moving
+ * the sync cursors or touching a row. Exits with status 1 if any check fails.
+ */
+public final class SyncConvergenceCheck {
+    private static final int PRODUCTS = 50;
+    // More rows than any shop here holds
+    private static final int ROW_LIMIT = 10_000;
+    private static final String[] DEVICES = {"A", "B", "C"};
+
+    private final LoopbackSyncServer server = new LoopbackSyncServer();
+    private final SyncEngine engine = new SyncEngine();
+    private final RowBuffer rows = new RowBuffer();
+    private final List<String> failures = new ArrayList<>();
+    private final Path dir;
+
+    private SyncConvergenceCheck(Path dir) {
+        this.dir = dir;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("shopping-sync");
+        SyncConvergenceCheck check = new SyncConvergenceCheck(dir);
+        try {
+            check.run();
+        } finally {
+            try (java.util.stream.Stream<Path> files = Files.walk(dir)) {
+                for (Path path : (Iterable<Path>) files.sorted((a, b) -> b.compareTo(a))::iterator) {
+                    Files.delete(path);
+                }
+            }
+        }
+        if (!check.failures.isEmpty()) {
+            System.err.println("Sync did not converge:");
+            check.failures.forEach(line -> System.err.println("  " + line));
+            System.exit(1);
+        }
+        System.out.println("All devices converged");
+    }
+
+    private void run() {
+        open("A");
+        int[] id = new int[1];
+        check(NativeDb.insertShop("Магазин", id));
+        for (int i = 0; i < PRODUCTS; i++) {
+            check(NativeDb.addProduct(id[0], "товар " + i, 10 + i * 1.5, i % 3 == 0 ? "" : "заметка " + i));
+        }
+        check(NativeDb.insertShop("Second", id));
+        check(NativeDb.addProduct(id[0], "x", 1, "d"));
+        sync("A");
+        sync("B");
+
+        // Offline on both devices
+        open("B");
+        sql("UPDATE products SET name = 'B edit' WHERE name = 'товар 1'");
+        sql("UPDATE products SET bought = 1 WHERE name = 'товар 2'");
+        sql("DELETE FROM shops WHERE name = 'Second'");
+        open("A");
+        sql("UPDATE products SET name = 'A edit' WHERE name = 'товар 1'");
+        sql("DELETE FROM products WHERE name = 'товар 2'");
+        sql("INSERT INTO products (shop_id, name, price) SELECT id, 'in deleted shop', 5 FROM shops WHERE name = 'Second'");
+
+        sync("B");
+        sync("A");
+        sync("B");
+        sync("C");
+
+        List<String> expected = snapshot("A");
+        for (String device : DEVICES) {
+            List<String> actual = snapshot(device);
+            expect(actual.equals(expected), device + " holds " + actual + ", A holds " + expected);
+            expect(actual.stream().noneMatch(row -> row.contains(" | товар 2 | ")), device + " still has the deleted product");
+            expect(actual.stream().noneMatch(row -> row.startsWith("Second")), device + " still has the deleted shop");
+        }
+        for (String device : DEVICES) {
+            SyncResult result = sync(device);
+            expect(result.pushed == 0 && result.pulled == 0,
+                    device + " moved " + result.pushed + " up and " + result.pulled + " down once in sync");
+        }
+
+        // A batch whose rows stop short of its count, then bytes that are not a batch at all
+        ByteBuffer truncated = ByteBuffer.allocate(64).order(ByteOrder.nativeOrder());
+        truncated.putInt(5).putLong(7).putInt(1);
+        rejects("truncated rows", SyncCodec.compress(truncated, truncated.position()));
+        rejects("garbage", new byte[]{0, 0, 1, 0, 1, 2, 3});
+    }
+
+    /** Syncs C with a server that answers the pull with {@code batch}. */
+    private void rejects(String label, byte[] batch) {
+        List<String> before = snapshot("C");
+        long[] cursors = NativeDb.getSyncCursors();
+        SyncResult result = engine.run(new SyncTransport() {
+            @Override
+            public void push(String device, byte[] pushed) throws IOException {
+                server.push(device, pushed);
+            }
+
+            @Override
+            public Pulled pull(String device, long cursor, int limit) {
+                return new Pulled(batch, cursor + 100, false);
+            }
+        });
+        System.out.println("C, " + label + ": " + result.error);
+        expect(result.error != null, label + " was accepted");
+        long[] after = NativeDb.getSyncCursors();
+        expect(Arrays.equals(cursors, after),
+                label + " moved the cursors from " + Arrays.toString(cursors) + " to " + Arrays.toString(after));
+        expect(snapshot("C").equals(before), label + " changed rows");
+    }
+
+    private void open(String device) {
+        check(NativeDb.initDatabase(dir.resolve(device + ".db").toString(), StorageProfile.BALANCED));
+    }
+
+    private SyncResult sync(String device) {
+        open(device);
+        SyncResult result = engine.run(server);
+        System.out.printf("%s: pushed %d, pulled %d, error %s%n", device, result.pushed, result.pulled, result.error);
+        expect(result.error == null, device + " failed to sync: " + result.error);
+        return result;
+    }
+
+    /** The device's shops and products by content, as local ids differ between devices. */
+    private List<String> snapshot(String device) {
+        open(device);
+        load(NativeDb::getShops);
+        List<Shop> shops = new ArrayList<>();
+        rows.decodeShops(shops);
+        List<String> snapshot = new ArrayList<>();
+        ProductTable products = new ProductTable();
+        for (Shop shop : shops) {
+            snapshot.add(shop.name);
+            load(out -> NativeDb.getProductsPage(shop.id, "name ASC", "", ProductPager.CURSOR_NONE, null, 0, 0, 0,
+                    ROW_LIMIT, 0, out));
+            products.clear();
+            rows.decodeProducts(products);
+            for (int i = 0; i < products.size(); i++) {
+                snapshot.add(shop.name + " | " + products.name(i) + " | " + products.price(i) + " | "
+                        + products.isBought(i) + " | " + products.description(i));
+            }
+        }
+        Collections.sort(snapshot);
+        return snapshot;
+    }
+
+    private void expect(boolean condition, String failure) {
+        if (!condition) {
+            failures.add(failure);
+        }
+    }
+
+    private void load(RowBuffer.Query query) {
+        if (!rows.load(query)) {
+            throw new IllegalStateException("Query failed");
+        }
+    }
+
+    private static void sql(String sql) {
+        check(NativeDb.executeSql(sql));
+    }
+
+    private static void check(String error) {
+        if (error != null && !error.isEmpty()) {
+            throw new IllegalStateException(error);
+        }
+    }
+}